@@ -5,31 +5,45 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * A block in the blockchain. It is identified by its nonce.
+ * A block in the blockchain. It is identified by the SHA-256 of its header, see BlockId.
  * Created by Sorin Nutu on 4/19/2015.
  */
 public class Block implements Serializable {
     private List<Transaction> transactions;
-    private int previousBlockHash;
+    private BlockId previousBlockId;
     private long previousBlockNonce;
     private long nonce;
     private long height;
     private long minerId;
-    // helpful for plotting; this should not be included in the hash
-    private List<Block> children;
+    // commits to the transactions; it is not sent over the network, the receiver rebuilds it from the transactions
+    private transient MerkleTree merkleTree;
+    // computed from the header when it is first needed and reset when the nonce or the transactions change
+    private transient BlockId id;
 
-    public Block(int previousBlockHash, long previousBlockNonce, long previousBlockHeight, long minerId) {
-        this.previousBlockHash = previousBlockHash;
+    public Block(BlockId previousBlockId, long previousBlockNonce, long previousBlockHeight, long minerId) {
+        this.previousBlockId = previousBlockId;
         this.previousBlockNonce = previousBlockNonce;
         this.transactions = new ArrayList<>();
         this.height = previousBlockHeight + 1;
         this.minerId = minerId;
-        children = new ArrayList<>();
+    }
+
+    /**
+     * Restores a block received in the binary wire format.
+     */
+    Block(BlockId previousBlockId, long previousBlockNonce, long nonce, long height, long minerId,
+          List<Transaction> transactions) {
+        this.previousBlockId = previousBlockId;
+        this.previousBlockNonce = previousBlockNonce;
+        this.nonce = nonce;
+        this.height = height;
+        this.minerId = minerId;
+        this.transactions = transactions;
     }
 
     private Block() {
         transactions = new ArrayList<>();
-        children = new ArrayList<>();
+        previousBlockId = BlockId.NONE;
         height = 0;
         nonce = 0;
     }
@@ -48,6 +62,15 @@ public class Block implements Serializable {
 
     public void incrementNonce() {
         nonce++;
+        id = null;
+    }
+
+    /**
+     * Used by the parallel miner to store the nonce found by one of its workers.
+     */
+    public void setNonce(long nonce) {
+        this.nonce = nonce;
+        id = null;
     }
 
     public List<Transaction> getTransactions() {
@@ -60,33 +83,52 @@ public class Block implements Serializable {
 
     public void addTransaction(Transaction transaction) {
         transactions.add(transaction);
+        id = null;
+        if (merkleTree != null) {
+            merkleTree.addLeaf(transaction.txid());
+        }
+    }
+
+    /**
+     * The root of the Merkle tree built over the transactions' ids. It is cached and updated when a transaction
+     * is added, so hashing or comparing blocks does not depend on the number of transactions.
+     */
+    public byte[] getMerkleRoot() {
+        if (merkleTree == null) {
+            MerkleTree tree = new MerkleTree();
+            for (Transaction transaction : transactions) {
+                tree.addLeaf(transaction.txid());
+            }
+            merkleTree = tree;
+        }
+        return merkleTree.getRoot();
     }
 
     public long getHeight() {
         return height;
     }
 
-    public int getPreviousBlockHash() {
-        return previousBlockHash;
+    public BlockId getPreviousBlockId() {
+        return previousBlockId;
     }
 
-    public boolean validateTransactionsInBlock() {
-        boolean validBlock = true;
-        for (int i = 0; i < transactions.size() && validBlock; i++) {
-            // the reward transactions do not have digital signature
-            if (transactions.get(i).getType() != TransactionType.REWARD) {
-                validBlock = validBlock & transactions.get(i).hasValidDigitalSignature();
-            }
+    /**
+     * The identifier of the block, which is the hash of its header. It is the same hash that is checked by the
+     * proof of work.
+     */
+    public BlockId getId() {
+        if (id == null) {
+            id = new BlockId(new BlockHeader(this).hash());
         }
-        return validBlock;
+        return id;
     }
 
-    public void addChildren(Block block) {
-        children.add(block);
-    }
-
-    public List<Block> getChildren() {
-        return children;
+    /**
+     * Checks the digital signatures of all the transactions in the block. The reward transactions do not have
+     * a digital signature and they are skipped.
+     */
+    public boolean validateTransactionsInBlock(SignatureVerifier verifier) {
+        return verifier.verify(transactions);
     }
 
     public long getMinerId() {
@@ -100,35 +142,23 @@ public class Block implements Serializable {
 
         Block block = (Block) o;
 
-        if (height != block.height) return false;
-        if (minerId != block.minerId) return false;
-        if (nonce != block.nonce) return false;
-        if (previousBlockHash != block.previousBlockHash) return false;
-        if (transactions != null ? !transactions.equals(block.transactions) : block.transactions != null) return false;
-
-        return true;
+        return getId().equals(block.getId());
     }
 
     @Override
     public int hashCode() {
-        int result = transactions != null ? transactions.hashCode() : 0;
-        result = 31 * result + previousBlockHash;
-        result = 31 * result + (int) (previousBlockNonce ^ (previousBlockNonce >>> 32));
-        result = 31 * result + (int) (nonce ^ (nonce >>> 32));
-        result = 31 * result + (int) (height ^ (height >>> 32));
-        result = 31 * result + (int) (minerId ^ (minerId >>> 32));
-        return result;
+        return getId().hashCode();
     }
 
     public String stringForHash() {
-        return nonce + " " + height + " " + minerId + " " + previousBlockHash + " " + transactions.toString();
+        return nonce + " " + height + " " + minerId + " " + previousBlockId + " " + transactions.toString();
     }
 
     @Override
     public String toString() {
         return "Block{" +
                 "transactions=" + transactions +
-                ", previousBlockHash=" + previousBlockHash +
+                ", previousBlockId=" + previousBlockId +
                 ", minerId=" + minerId +
                 ", nonce=" + nonce +
                 ", height=" + height +
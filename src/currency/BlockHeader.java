@@ -0,0 +1,140 @@
+package currency;
+
+import java.io.Serializable;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Fixed size binary representation of a block that is hashed by the proof of work.
+ *
+ * The header contains, in this order: the previous block hash, the Merkle root of the transactions, the height,
+ * the miner id and the nonce. It is serialized once when the object is created and only the nonce bytes are
+ * changed for every attempt, so searching for a nonce does not allocate memory.
+ *
+ * A header is not thread safe; every mining thread should use its own instance.
+ *
+ * Headers are also sent alone when a node synchronizes its chain: the hash of a header is the id of its block,
+ * so the chain of headers and their proof of work can be checked before any block is downloaded. The block tree
+ * of a client keeps only the headers in memory, the blocks are read from the block store when they are needed.
+ */
+public class BlockHeader implements Serializable {
+    public static final int HASH_LENGTH = 32;
+
+    private static final int PREVIOUS_HASH_OFFSET = 0;
+    private static final int MERKLE_ROOT_OFFSET = PREVIOUS_HASH_OFFSET + BlockId.LENGTH;
+    private static final int HEIGHT_OFFSET = MERKLE_ROOT_OFFSET + HASH_LENGTH;
+    private static final int MINER_ID_OFFSET = HEIGHT_OFFSET + 8;
+    private static final int NONCE_OFFSET = MINER_ID_OFFSET + 8;
+    public static final int HEADER_LENGTH = NONCE_OFFSET + 8;
+
+    // MessageDigest.getInstance is expensive, so every thread keeps its own instance
+    private static final ThreadLocal<MessageDigest> SHA256 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            return newSha256();
+        }
+    };
+
+    private final byte[] buffer;
+    // computed when it is first needed and reset when the nonce changes
+    private transient BlockId id;
+
+    public BlockHeader(Block block) {
+        buffer = new byte[HEADER_LENGTH];
+        block.getPreviousBlockId().writeTo(buffer, PREVIOUS_HASH_OFFSET);
+        System.arraycopy(block.getMerkleRoot(), 0, buffer, MERKLE_ROOT_OFFSET, HASH_LENGTH);
+        writeLong(HEIGHT_OFFSET, block.getHeight());
+        writeLong(MINER_ID_OFFSET, block.getMinerId());
+        writeLong(NONCE_OFFSET, block.getNonce());
+    }
+
+    /**
+     * Restores a header from the bytes returned by toByteArray.
+     */
+    public BlockHeader(byte[] bytes) {
+        if (bytes.length != HEADER_LENGTH) {
+            throw new IllegalArgumentException("A header has " + HEADER_LENGTH + " bytes, received " + bytes.length + ".");
+        }
+        buffer = bytes.clone();
+    }
+
+    public byte[] toByteArray() {
+        return buffer.clone();
+    }
+
+    public BlockId getId() {
+        if (id == null) {
+            id = new BlockId(hash());
+        }
+        return id;
+    }
+
+    public BlockId getPreviousBlockId() {
+        return new BlockId(Arrays.copyOfRange(buffer, PREVIOUS_HASH_OFFSET, PREVIOUS_HASH_OFFSET + BlockId.LENGTH));
+    }
+
+    public long getHeight() {
+        return readLong(HEIGHT_OFFSET);
+    }
+
+    public long getMinerId() {
+        return readLong(MINER_ID_OFFSET);
+    }
+
+    public void setNonce(long nonce) {
+        writeLong(NONCE_OFFSET, nonce);
+        id = null;
+    }
+
+    /**
+     * Computes the SHA-256 of the header and writes it in the given array, which should have at least
+     * HASH_LENGTH bytes.
+     */
+    public void hash(byte[] result) {
+        MessageDigest messageDigest = SHA256.get();
+        messageDigest.update(buffer, 0, HEADER_LENGTH);
+        try {
+            messageDigest.digest(result, 0, HASH_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalArgumentException("The result array is smaller than " + HASH_LENGTH + " bytes.", e);
+        }
+    }
+
+    public byte[] hash() {
+        byte[] result = new byte[HASH_LENGTH];
+        hash(result);
+        return result;
+    }
+
+    /**
+     * Returns the SHA-256 instance of the current thread. The caller should leave it in the reset state.
+     */
+    static MessageDigest sha256() {
+        return SHA256.get();
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available.", e);
+        }
+    }
+
+    private long readLong(int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (buffer[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private void writeLong(int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            buffer[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
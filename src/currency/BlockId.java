@@ -0,0 +1,104 @@
+package currency;
+
+import java.io.Serializable;
+
+/**
+ * Identifies a block by the SHA-256 of its header. The 32 bytes are stored in four longs, so comparing and
+ * hashing an identifier does not touch the block or its transactions.
+ */
+public final class BlockId implements Serializable {
+    public static final int LENGTH = BlockHeader.HASH_LENGTH;
+    // the identifier used as the previous block of the genesis block
+    public static final BlockId NONE = new BlockId(0, 0, 0, 0);
+
+    private final long first;
+    private final long second;
+    private final long third;
+    private final long fourth;
+
+    public BlockId(long first, long second, long third, long fourth) {
+        this.first = first;
+        this.second = second;
+        this.third = third;
+        this.fourth = fourth;
+    }
+
+    public BlockId(byte[] hash) {
+        if (hash.length != LENGTH) {
+            throw new IllegalArgumentException("A block id has " + LENGTH + " bytes, received " + hash.length + ".");
+        }
+        first = readLong(hash, 0);
+        second = readLong(hash, 8);
+        third = readLong(hash, 16);
+        fourth = readLong(hash, 24);
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getSecond() {
+        return second;
+    }
+
+    public long getThird() {
+        return third;
+    }
+
+    public long getFourth() {
+        return fourth;
+    }
+
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[LENGTH];
+        writeTo(bytes, 0);
+        return bytes;
+    }
+
+    public void writeTo(byte[] bytes, int offset) {
+        writeLong(bytes, offset, first);
+        writeLong(bytes, offset + 8, second);
+        writeLong(bytes, offset + 16, third);
+        writeLong(bytes, offset + 24, fourth);
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static void writeLong(byte[] bytes, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        BlockId blockId = (BlockId) o;
+
+        return first == blockId.first && second == blockId.second && third == blockId.third &&
+                fourth == blockId.fourth;
+    }
+
+    @Override
+    public int hashCode() {
+        // the bytes come from SHA-256, so any of them is uniformly distributed
+        return (int) (fourth ^ (fourth >>> 32));
+    }
+
+    /**
+     * The first 8 bytes in hexadecimal, which is enough to tell the blocks apart in logs and in the GUI.
+     */
+    @Override
+    public String toString() {
+        return String.format("%016x", first);
+    }
+}
@@ -0,0 +1,236 @@
+package currency;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A hash map from block identifiers to values, used for the block tree (the headers) and for the orphan blocks.
+ *
+ * The keys are stored as primitives in a single long array (four longs per slot) and the map uses open addressing
+ * with linear probing, so a lookup does not allocate and does not follow pointers to key objects. The BlockId
+ * objects are created again only when the map is iterated.
+ *
+ * The map is not synchronized.
+ */
+public class BlockMap<V> extends AbstractMap<BlockId, V> implements Serializable {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int KEY_WIDTH = 4;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    // incremented on every structural change, so the iterators can fail fast
+    private transient int modifications;
+
+    public BlockMap() {
+        keys = new long[INITIAL_CAPACITY * KEY_WIDTH];
+        values = new Object[INITIAL_CAPACITY];
+    }
+
+    public BlockMap(Map<BlockId, ? extends V> map) {
+        this();
+        putAll(map);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof BlockId && values[find((BlockId) key)] != null;
+    }
+
+    @Override
+    public V get(Object key) {
+        if (!(key instanceof BlockId)) {
+            return null;
+        }
+        return valueAt(find((BlockId) key));
+    }
+
+    @Override
+    public V put(BlockId key, V value) {
+        if (value == null) {
+            throw new NullPointerException("The map does not store null values.");
+        }
+        int slot = find(key);
+        V previous = valueAt(slot);
+        if (previous == null) {
+            int base = slot * KEY_WIDTH;
+            keys[base] = key.getFirst();
+            keys[base + 1] = key.getSecond();
+            keys[base + 2] = key.getThird();
+            keys[base + 3] = key.getFourth();
+            size++;
+            modifications++;
+        }
+        values[slot] = value;
+
+        // keep the load factor under 1/2
+        if (size * 2 > values.length) {
+            resize(values.length * 2);
+        }
+        return previous;
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (!(key instanceof BlockId)) {
+            return null;
+        }
+        int slot = find((BlockId) key);
+        V previous = valueAt(slot);
+        if (previous != null) {
+            removeSlot(slot);
+        }
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+        modifications++;
+    }
+
+    @Override
+    public Set<Entry<BlockId, V>> entrySet() {
+        return new AbstractSet<Entry<BlockId, V>>() {
+            @Override
+            public Iterator<Entry<BlockId, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * @return the slot that contains the key or the empty slot where it would be inserted
+     */
+    private int find(BlockId key) {
+        int mask = values.length - 1;
+        int slot = indexFor(key.getFourth(), mask);
+        while (values[slot] != null && !keyEquals(slot, key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean keyEquals(int slot, BlockId key) {
+        int base = slot * KEY_WIDTH;
+        return keys[base] == key.getFirst() && keys[base + 1] == key.getSecond() &&
+                keys[base + 2] == key.getThird() && keys[base + 3] == key.getFourth();
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    private BlockId keyAt(int slot) {
+        int base = slot * KEY_WIDTH;
+        return new BlockId(keys[base], keys[base + 1], keys[base + 2], keys[base + 3]);
+    }
+
+    /**
+     * Empties the slot and moves back the entries that follow it in the same probe sequence, so no tombstones
+     * are needed.
+     */
+    private void removeSlot(int slot) {
+        int mask = values.length - 1;
+        values[slot] = null;
+        size--;
+        modifications++;
+
+        int next = (slot + 1) & mask;
+        while (values[next] != null) {
+            int desired = indexFor(keys[next * KEY_WIDTH + 3], mask);
+            // move the entry if its desired slot is not in the cyclic interval (slot, next]
+            boolean inInterval = slot <= next ? (slot < desired && desired <= next) : (slot < desired || desired <= next);
+            if (!inInterval) {
+                System.arraycopy(keys, next * KEY_WIDTH, keys, slot * KEY_WIDTH, KEY_WIDTH);
+                values[slot] = values[next];
+                values[next] = null;
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity * KEY_WIDTH];
+        values = new Object[capacity];
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int base = i * KEY_WIDTH;
+                int slot = indexFor(oldKeys[base + 3], mask);
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                System.arraycopy(oldKeys, base, keys, slot * KEY_WIDTH, KEY_WIDTH);
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * The slot is computed from the last long of the key, the same one used by BlockId.hashCode().
+     */
+    private static int indexFor(long fourth, int mask) {
+        int hash = (int) (fourth ^ (fourth >>> 32));
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private class EntryIterator implements Iterator<Entry<BlockId, V>> {
+        private int next;
+        private int expectedModifications = modifications;
+
+        EntryIterator() {
+            advance(0);
+        }
+
+        private void advance(int from) {
+            next = from;
+            while (next < values.length && values[next] == null) {
+                next++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < values.length;
+        }
+
+        @Override
+        public Entry<BlockId, V> next() {
+            if (expectedModifications != modifications) {
+                throw new ConcurrentModificationException();
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int current = next;
+            advance(next + 1);
+            return new SimpleImmutableEntry<>(keyAt(current), valueAt(current));
+        }
+
+        /**
+         * Not supported: removing a slot shifts entries backwards, which could make the iterator skip or
+         * repeat entries. Use BlockMap.remove(key) instead.
+         */
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Remove the blocks by key.");
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package currency;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Append-only storage for the blocks in the block tree, so a node does not lose its blockchain when it restarts.
+ *
+ * The serialized blocks are appended to segment files (blocks-00000.dat, blocks-00001.dat, ...). When a segment
+ * reaches SEGMENT_SIZE bytes, a new one is started. For every block, an entry with a fixed size is appended to
+ * the index file: block id, header, segment, offset and length. The index is loaded in memory when the store is
+ * opened, so the client builds its block tree from the headers; the blocks are read from the segments only when
+ * they are requested.
+ *
+ * An index entry is written after its block is flushed, so an entry always points to a complete block. If the
+ * node stops in the middle of a write, the incomplete index entry is ignored when the store is opened, and the
+ * bytes after the last indexed block are truncated. A new segment is also truncated when it is started, because
+ * it may hold a block that was written before a crash but never indexed; the offsets of the next blocks are
+ * then counted from the start of the file.
+ *
+ * If a write fails while the store is open, the segment and the index are truncated back to the last appended
+ * block, so a partial block or index entry does not shift the next ones. If they cannot be truncated either,
+ * the store refuses the next blocks; it is repaired the same way when it is opened again.
+ */
+public class BlockStore implements Closeable {
+    protected static final long SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final String INDEX_FILE = "index.dat";
+    // block id, header, segment, offset, length
+    private static final int INDEX_ENTRY_SIZE = BlockId.LENGTH + BlockHeader.HEADER_LENGTH + 4 + 8 + 4;
+
+    private File directory;
+    private Map<BlockId, Location> locations;
+    // the ids in the order the blocks were appended
+    private List<BlockId> order;
+    private Map<Integer, FileChannel> readChannels;
+    private FileOutputStream indexStream;
+    private FileOutputStream segmentStream;
+    private final long segmentSize;
+    private int currentSegment;
+    // the end of the last indexed block in the current segment
+    private long currentSegmentSize;
+    // a write failed and the files could not be truncated back
+    private boolean failed;
+
+    public BlockStore(File directory) throws IOException {
+        this(directory, SEGMENT_SIZE);
+    }
+
+    protected BlockStore(File directory, long segmentSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the block store directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        locations = new HashMap<>();
+        order = new ArrayList<>();
+        readChannels = new HashMap<>();
+
+        loadIndex();
+
+        // drop the bytes of a block that was written but not indexed
+        File segment = segmentFile(currentSegment);
+        if (segment.length() > currentSegmentSize) {
+            try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+                file.setLength(currentSegmentSize);
+            }
+        }
+        segmentStream = new FileOutputStream(segment, true);
+        indexStream = new FileOutputStream(new File(directory, INDEX_FILE), true);
+    }
+
+    /**
+     * Appends the block at the end of the current segment. A block that is already stored is not written again.
+     */
+    public synchronized void append(Block block) throws IOException {
+        BlockId id = block.getId();
+        if (locations.containsKey(id)) {
+            return;
+        }
+        if (failed) {
+            throw new IOException("The block store could not recover from a failed write.");
+        }
+
+        BlockHeader header = new BlockHeader(block);
+        byte[] data = serialize(block);
+        if (currentSegmentSize > 0 && currentSegmentSize + data.length > segmentSize) {
+            // no index entry points to the new segment, so anything in it was written before a crash
+            FileOutputStream nextSegment = new FileOutputStream(segmentFile(currentSegment + 1), false);
+            segmentStream.close();
+            segmentStream = nextSegment;
+            currentSegment++;
+            currentSegmentSize = 0;
+        }
+
+        Location location = new Location(header, currentSegment, currentSegmentSize, data.length);
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        entry.put(id.toByteArray());
+        entry.put(header.toByteArray());
+        entry.putInt(location.segment);
+        entry.putLong(location.offset);
+        entry.putInt(location.length);
+
+        try {
+            segmentStream.write(data);
+            // the entry is written at once, there is no buffer that could keep a part of it
+            indexStream.write(entry.array());
+        } catch (IOException e) {
+            truncate();
+            throw e;
+        }
+        currentSegmentSize += data.length;
+
+        locations.put(id, location);
+        order.add(id);
+    }
+
+    public synchronized boolean contains(BlockId id) {
+        return locations.containsKey(id);
+    }
+
+    /**
+     * Reads a block from its segment.
+     * @return the block or null if there is no block with the given id
+     */
+    public synchronized Block read(BlockId id) throws IOException {
+        Location location = locations.get(id);
+        if (location == null) {
+            return null;
+        }
+
+        FileChannel channel = readChannels.get(location.segment);
+        if (channel == null) {
+            channel = new RandomAccessFile(segmentFile(location.segment), "r").getChannel();
+            readChannels.put(location.segment, channel);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(location.length);
+        long position = location.offset;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("The segment " + location.segment + " is shorter than its index.");
+            }
+            position += read;
+        }
+        return deserialize(buffer.array());
+    }
+
+    /**
+     * @return the height of the stored block or -1 if it is not stored
+     */
+    public synchronized long getHeight(BlockId id) {
+        Location location = locations.get(id);
+        return location == null ? -1 : location.header.getHeight();
+    }
+
+    /**
+     * @return the header of the stored block, without reading the block, or null if it is not stored
+     */
+    public synchronized BlockHeader getHeader(BlockId id) {
+        Location location = locations.get(id);
+        return location == null ? null : location.header;
+    }
+
+    /**
+     * @return the ids of the stored blocks, in the order they were appended
+     */
+    public synchronized List<BlockId> getIds() {
+        return new ArrayList<>(order);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public synchronized int size() {
+        return order.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        indexStream.close();
+        segmentStream.close();
+        for (FileChannel channel : readChannels.values()) {
+            channel.close();
+        }
+        readChannels.clear();
+    }
+
+    /**
+     * Removes the bytes written after the last appended block.
+     */
+    private void truncate() {
+        try {
+            segmentStream.getChannel().truncate(currentSegmentSize);
+            indexStream.getChannel().truncate(order.size() * (long) INDEX_ENTRY_SIZE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed = true;
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        File indexFile = new File(directory, INDEX_FILE);
+        if (!indexFile.exists()) {
+            return;
+        }
+
+        long completeEntries = indexFile.length() / INDEX_ENTRY_SIZE;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            byte[] idBytes = new byte[BlockId.LENGTH];
+            byte[] headerBytes = new byte[BlockHeader.HEADER_LENGTH];
+            for (long i = 0; i < completeEntries; i++) {
+                input.readFully(idBytes);
+                input.readFully(headerBytes);
+                int segment = input.readInt();
+                long offset = input.readLong();
+                int length = input.readInt();
+
+                // the block was not entirely written
+                if (segmentFile(segment).length() < offset + length) {
+                    break;
+                }
+
+                BlockId id = new BlockId(idBytes);
+                locations.put(id, new Location(new BlockHeader(headerBytes), segment, offset, length));
+                order.add(id);
+                // the entries are appended in the order of the segments
+                if (segment > currentSegment) {
+                    currentSegment = segment;
+                    currentSegmentSize = 0;
+                }
+                currentSegmentSize = Math.max(currentSegmentSize, offset + length);
+            }
+        }
+
+        // drop a partially written entry, so the next entries are aligned
+        if (indexFile.length() != order.size() * (long) INDEX_ENTRY_SIZE) {
+            try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+                file.setLength(order.size() * (long) INDEX_ENTRY_SIZE);
+            }
+        }
+    }
+
+    private File segmentFile(int segment) {
+        return new File(directory, String.format("blocks-%05d.dat", segment));
+    }
+
+    private static byte[] serialize(Block block) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (ObjectOutputStream outputStream = new ObjectOutputStream(byteArrayOutputStream)) {
+            outputStream.writeObject(block);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private static Block deserialize(byte[] data) throws IOException {
+        try (ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return (Block) inputStream.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("The stored object is not a block.", e);
+        }
+    }
+
+    private static class Location {
+        private final BlockHeader header;
+        private final int segment;
+        private final long offset;
+        private final int length;
+
+        Location(BlockHeader header, int segment, long offset, int length) {
+            this.header = header;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
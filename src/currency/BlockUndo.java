@@ -0,0 +1,78 @@
+package currency;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The changes made to the unspent transactions set when a block was added on the chain: the input records that
+ * were spent and the output records that were created.
+ *
+ * When the chain is changed, the blocks that leave the chain are removed by applying their undo records in
+ * reverse, instead of copying the whole unspent transactions set. The cost of a chain change is proportional
+ * to the number of blocks that change, not to the size of the set.
+ */
+public class BlockUndo {
+    private List<TransactionRecord> spentInputs;
+    private List<TransactionRecord> createdOutputs;
+
+    private BlockUndo() {
+        spentInputs = new ArrayList<>();
+        createdOutputs = new ArrayList<>();
+    }
+
+    /**
+     * Removes all the input records of the block's transactions from the unspent set and adds all the outputs.
+     * Only the records that were actually removed or added are stored in the returned undo record.
+     */
+    public static BlockUndo connect(Block block, UnspentTransactionSet unspent) {
+        BlockUndo undo = new BlockUndo();
+        for (Transaction transaction : block.getTransactions()) {
+            for (TransactionRecord input : transaction.getInputs()) {
+                if (unspent.remove(input)) {
+                    undo.spentInputs.add(input);
+                }
+            }
+
+            for (TransactionRecord output : transaction.getOutputs()) {
+                if (unspent.add(output)) {
+                    undo.createdOutputs.add(output);
+                }
+            }
+        }
+        return undo;
+    }
+
+    /**
+     * Builds the undo record from the content of the block, for a block that was added on the chain by another
+     * node (the chain received when this node joined).
+     */
+    public static BlockUndo fromBlock(Block block) {
+        BlockUndo undo = new BlockUndo();
+        for (Transaction transaction : block.getTransactions()) {
+            undo.spentInputs.addAll(transaction.getInputs());
+            undo.createdOutputs.addAll(transaction.getOutputs());
+        }
+        return undo;
+    }
+
+    /**
+     * Restores the unspent set to the state before the block was connected: the created outputs are removed
+     * and the spent inputs become unspent again.
+     */
+    public void disconnect(UnspentTransactionSet unspent) {
+        for (int i = createdOutputs.size() - 1; i >= 0; i--) {
+            unspent.remove(createdOutputs.get(i));
+        }
+        for (int i = spentInputs.size() - 1; i >= 0; i--) {
+            unspent.add(spentInputs.get(i));
+        }
+    }
+
+    public List<TransactionRecord> getSpentInputs() {
+        return spentInputs;
+    }
+
+    public List<TransactionRecord> getCreatedOutputs() {
+        return createdOutputs;
+    }
+}
@@ -0,0 +1,274 @@
+package currency;
+
+import network.Message;
+import network.MessageType;
+import network.Node;
+import network.NodeInfo;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads the chain of the network when a node joins, instead of receiving the whole block tree and the
+ * unspent transactions from the successor in a single message.
+ *
+ * The synchronization has two steps:
+ *     1) headers: the node sends a locator (ids from its own chain, dense near the last block) and receives at most
+ * MAX_HEADERS headers from the peer's chain, starting after the first id the peer knows. The headers must be
+ * linked and have a valid proof of work. This is repeated until a peer returns less than MAX_HEADERS headers.
+ *     2) blocks: the blocks that the node does not have are requested in batches of BATCH_SIZE from all the
+ * known peers, with at most PIPELINE_DEPTH batches waiting for an answer from every peer. A block is accepted
+ * only if its id is the hash of the expected header and its signatures are valid. Every accepted block is
+ * written in the block store, so a synchronization that is interrupted continues from the stored blocks.
+ *
+ * The downloaded blocks are not kept in memory: only their headers are added in the block tree. The client
+ * builds the unspent transactions from the returned chain, reading the blocks from the store one at a time.
+ */
+public class ChainSynchronizer {
+    public static final int MAX_HEADERS = 2000;
+    private static final int BATCH_SIZE = 50;
+    private static final int PIPELINE_DEPTH = 4;
+    // the locator contains the last DENSE_LOCATOR_IDS blocks, then the step doubles
+    private static final int DENSE_LOCATOR_IDS = 10;
+
+    private final Node networkNode;
+    private final BlockStore blockStore;
+    private final ProofOfWork proofOfWorkVerifier;
+    private final SignatureVerifier signatureVerifier;
+
+    public ChainSynchronizer(Node networkNode, BlockStore blockStore, ProofOfWork proofOfWorkVerifier,
+                             SignatureVerifier signatureVerifier) {
+        this.networkNode = networkNode;
+        this.blockStore = blockStore;
+        this.proofOfWorkVerifier = proofOfWorkVerifier;
+        this.signatureVerifier = signatureVerifier;
+    }
+
+    /**
+     * @param localChain the chain loaded from the block store, starting with the genesis block; it may be empty
+     * @param headers the headers of the stored blocks; the headers of the downloaded blocks are added here
+     * @return the chain from the genesis block to the last block that could be downloaded
+     */
+    public List<BlockHeader> synchronize(List<BlockHeader> localChain, Map<BlockId, BlockHeader> headers) {
+        List<BlockId> chainIds = new ArrayList<>();
+        for (BlockHeader header : localChain) {
+            chainIds.add(header.getId());
+        }
+        downloadHeaders(chainIds);
+
+        List<BlockId> missing = new ArrayList<>();
+        for (BlockId blockId : chainIds) {
+            if (!headers.containsKey(blockId)) {
+                missing.add(blockId);
+            }
+        }
+        System.out.println("Node " + networkNode.getId() + ": the chain has " + chainIds.size() + " blocks, " +
+                missing.size() + " have to be downloaded.");
+        downloadBlocks(missing, headers);
+
+        List<BlockHeader> chain = new ArrayList<>();
+        for (BlockId blockId : chainIds) {
+            BlockHeader header = headers.get(blockId);
+            if (header == null) {
+                break;
+            }
+            chain.add(header);
+        }
+        return chain;
+    }
+
+    /**
+     * Asks the peers for the headers after the known chain. If a peer is on another branch, its ids after the fork
+     * point replace the known ones only if its chain is longer, so a peer on a shorter fork cannot make the node
+     * drop the blocks it already has.
+     */
+    private void downloadHeaders(List<BlockId> chainIds) {
+        // the chain of the peer, starting with the known ids
+        List<BlockId> peerChain = new ArrayList<>(chainIds);
+        List<BlockId> locator = buildLocator(chainIds);
+        List<BlockHeader> headers;
+        do {
+            headers = askPeersForHeaders(locator);
+            if (headers == null || headers.isEmpty()) {
+                break;
+            }
+
+            BlockHeader first = headers.get(0);
+            int forkHeight = (int) first.getHeight();
+            if (forkHeight > peerChain.size() ||
+                    !first.getPreviousBlockId().equals(forkHeight == 0 ? BlockId.NONE : peerChain.get(forkHeight - 1))) {
+                System.out.println("Node " + networkNode.getId() + ": the headers do not continue the known chain.");
+                break;
+            }
+
+            List<BlockId> received = verifyHeaders(headers);
+            peerChain.subList(forkHeight, peerChain.size()).clear();
+            peerChain.addAll(received);
+            if (received.size() < headers.size()) {
+                break;
+            }
+
+            locator = Collections.singletonList(peerChain.get(peerChain.size() - 1));
+        } while (headers.size() == MAX_HEADERS);
+
+        // the height of the last block is the size of the chain minus one
+        if (peerChain.size() > chainIds.size()) {
+            chainIds.clear();
+            chainIds.addAll(peerChain);
+        } else if (!peerChain.equals(chainIds)) {
+            System.out.println("Node " + networkNode.getId() + ": the chain of the peer has the height " +
+                    (peerChain.size() - 1) + " and it is not longer than the known chain, it is ignored.");
+        }
+    }
+
+    /**
+     * @return the ids of the headers, until the first header that is not linked to the previous one or does not
+     * have a valid proof of work
+     */
+    private List<BlockId> verifyHeaders(List<BlockHeader> headers) {
+        List<BlockId> ids = new ArrayList<>(headers.size());
+        BlockHeader previous = null;
+        for (BlockHeader header : headers) {
+            BlockId headerId = header.getId();
+            if (previous != null && (!header.getPreviousBlockId().equals(ids.get(ids.size() - 1)) ||
+                    header.getHeight() != previous.getHeight() + 1)) {
+                break;
+            }
+            // the genesis block is not mined
+            if (header.getHeight() > 0 && !proofOfWorkVerifier.verify(header)) {
+                break;
+            }
+            ids.add(headerId);
+            previous = header;
+        }
+        return ids;
+    }
+
+    private List<BlockHeader> askPeersForHeaders(List<BlockId> locator) {
+        for (NodeInfo peer : networkNode.getSyncPeers()) {
+            try {
+                List<BlockHeader> headers = networkNode.askForHeaders(locator, peer);
+                if (headers != null) {
+                    return headers;
+                }
+            } catch (ExecutionException | InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Requests the blocks from all the peers, keeping several batches in flight for every peer. A peer that does
+     * not answer or sends blocks that were not requested is not used anymore and its batch is sent to another peer.
+     */
+    private void downloadBlocks(List<BlockId> missing, Map<BlockId, BlockHeader> headers) {
+        Deque<List<BlockId>> pending = new ArrayDeque<>();
+        for (int i = 0; i < missing.size(); i += BATCH_SIZE) {
+            pending.add(new ArrayList<>(missing.subList(i, Math.min(i + BATCH_SIZE, missing.size()))));
+        }
+
+        List<NodeInfo> peers = new ArrayList<>(networkNode.getSyncPeers());
+        Map<NodeInfo, Integer> requestsPerPeer = new HashMap<>();
+        // the requests in the order they were sent
+        Deque<BlockRequest> inFlight = new ArrayDeque<>();
+
+        while (!pending.isEmpty() || !inFlight.isEmpty()) {
+            // fill the pipeline of every peer
+            for (NodeInfo peer : peers) {
+                Integer requests = requestsPerPeer.get(peer);
+                int sent = requests == null ? 0 : requests;
+                while (sent < PIPELINE_DEPTH && !pending.isEmpty()) {
+                    List<BlockId> batch = pending.poll();
+                    inFlight.add(new BlockRequest(peer, batch, networkNode.requestBlocks(batch, peer)));
+                    sent++;
+                }
+                requestsPerPeer.put(peer, sent);
+            }
+
+            if (inFlight.isEmpty()) {
+                // no peer is left
+                System.out.println("Node " + networkNode.getId() + ": " + pending.size() + " batches of blocks could not be downloaded.");
+                return;
+            }
+
+            BlockRequest request = inFlight.poll();
+            requestsPerPeer.put(request.peer, requestsPerPeer.get(request.peer) - 1);
+
+            List<BlockId> notReceived = receiveBlocks(request, headers);
+            if (!notReceived.isEmpty()) {
+                peers.remove(request.peer);
+                pending.add(notReceived);
+            }
+        }
+    }
+
+    /**
+     * Waits for the answer to a request and writes the valid blocks in the block store.
+     * @return the requested ids that did not receive a valid block
+     */
+    @SuppressWarnings("unchecked")
+    private List<BlockId> receiveBlocks(BlockRequest request, Map<BlockId, BlockHeader> headers) {
+        List<Block> received = null;
+        try {
+            Message answer = request.future.get();
+            if (answer.getType() != MessageType.RETRY) {
+                received = (List<Block>) answer.getObject();
+            }
+        } catch (ExecutionException | InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        Set<BlockId> notReceived = new LinkedHashSet<>(request.ids);
+        if (received != null) {
+            for (Block block : received) {
+                BlockId blockId = block.getId();
+                // the id covers the header, including the Merkle root, so the block is the one that was expected
+                if (notReceived.contains(blockId) && block.validateTransactionsInBlock(signatureVerifier)) {
+                    notReceived.remove(blockId);
+                    try {
+                        blockStore.append(block);
+                        // the chain ends before a block that could not be stored
+                        headers.put(blockId, blockStore.getHeader(blockId));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(notReceived);
+    }
+
+    /**
+     * @return the ids of the last blocks in chain, then ids with an exponentially growing step, ending with the
+     * genesis block
+     */
+    private static List<BlockId> buildLocator(List<BlockId> chainIds) {
+        List<BlockId> locator = new ArrayList<>();
+        int step = 1;
+        for (int i = chainIds.size() - 1; i > 0; i -= step) {
+            locator.add(chainIds.get(i));
+            if (locator.size() >= DENSE_LOCATOR_IDS) {
+                step *= 2;
+            }
+        }
+        if (!chainIds.isEmpty()) {
+            locator.add(chainIds.get(0));
+        }
+        return locator;
+    }
+
+    private static class BlockRequest {
+        private final NodeInfo peer;
+        private final List<BlockId> ids;
+        private final Future<Message> future;
+
+        BlockRequest(NodeInfo peer, List<BlockId> ids, Future<Message> future) {
+            this.peer = peer;
+            this.ids = ids;
+            this.future = future;
+        }
+    }
+}
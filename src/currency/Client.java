@@ -5,6 +5,7 @@ import gui.UpdateMessage;
 import gui.UpdateType;
 import network.Node;
 
+import java.io.File;
 import java.io.IOException;
 import java.security.*;
 import java.util.*;
@@ -23,12 +24,20 @@ import java.util.logging.SimpleFormatter;
  */
 public class Client extends Observable {
     protected Logger transactionsLogger;
-    private Set<TransactionRecord> unspentTransactions;
+    private UnspentTransactionSet unspentTransactions;
     private List<Transaction> transactionsWithoutBlock;
-    // store the blockchain indexed by blocks' nonces
-    private Map<Integer, Block> blockchain;
+    // the block tree: the headers of the blocks indexed by blocks' ids; the blocks are kept in the block store
+    private Map<BlockId, BlockHeader> blockchain;
+    // the children of every block in the tree, used for plotting
+    private Map<BlockId, List<BlockHeader>> children;
     // received blocks that do not have a parent yet
-    private Map<Integer, Block> orphanBlocks;
+    private Map<BlockId, Block> orphanBlocks;
+    // the parents of orphan blocks that are requested from the peers
+    private Set<BlockId> requestedParents;
+    // unspent records that were not created by a block (the money introduced by the bootstrap node)
+    private List<TransactionRecord> recordsWithoutBlock;
+    // how every block on the chain changed the unspent transactions; used to remove blocks when the chain changes
+    private Map<BlockId, BlockUndo> undoRecords;
     // the current node in the peer to peer network
     protected Node networkNode;
     protected long id;
@@ -43,8 +52,22 @@ public class Client extends Observable {
     // a leaf in the blockchain - defines the client's state
     private Block lastBlockInChain;
     // the root of the tree; this is used for tree traversal
-    private Block genesisBlock;
+    private BlockHeader genesisHeader;
+    // every block in the tree is written on disk, so it is not lost when the node restarts and it does not have
+    // to be kept in memory
+    protected BlockStore blockStore;
+    // the height of the last block for which the unspent transactions were saved in a snapshot
+    private long lastSnapshotHeight;
     protected static final ProofOfWork PROOF_OF_WORK_VERIFIER = new HashProofOfWork(null);
+    // the number of threads that search for the nonce in parallel, one if it is not set
+    public static final String MINING_THREADS_PROPERTY = "currency.miningThreads";
+    protected static final int MINING_THREADS = Integer.getInteger(MINING_THREADS_PROPERTY, 1);
+    // checks the signatures of the transactions in a received block in parallel
+    protected static final SignatureVerifier SIGNATURE_VERIFIER =
+            new SignatureVerifier(Runtime.getRuntime().availableProcessors());
+    // the unspent transactions are saved on disk every time the chain grows with this many blocks
+    protected static final int SNAPSHOT_INTERVAL = 100;
+    private static final String SNAPSHOT_FILE = "utxo.snapshot";
 
     public Client(String ip, int port, String bootstrapIp, int bootstrapPort) {
         this.ip = ip;
@@ -66,49 +89,267 @@ public class Client extends Observable {
 
     public void connectToNetwork() {
         initNode();
+        initBlockStore();
+        // the files of the block store are closed when the JVM stops
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        }));
+        undoRecords = new HashMap<>();
+        unspentTransactions = new UnspentTransactionSet();
+        recordsWithoutBlock = new ArrayList<>();
+        blockchain = new BlockMap<>();
+        children = new HashMap<>();
+        orphanBlocks = new BlockMap<>();
+        requestedParents = Collections.newSetFromMap(new java.util.concurrent.ConcurrentHashMap<BlockId, Boolean>());
+        transactionsWithoutBlock = new ArrayList<>();
+
+        // continue with the blocks stored by a previous run, if there are any
+        List<BlockHeader> chain = new ArrayList<>();
+        UtxoSnapshot snapshot = null;
+        if (readStoredHeaders()) {
+            snapshot = loadSnapshot();
+            chain = findLongestChain(snapshot);
+        }
 
         if (port == 10000) { // todo: change the condition
-            // create the block chain and add the initial block
-            unspentTransactions = new HashSet<>();
-            blockchain = new HashMap<>();
-            orphanBlocks = new HashMap<>();
-            transactionsWithoutBlock = new ArrayList<>();
-
-            genesisBlock = Block.createGenesisBlock();
-            blockchain.put(genesisBlock.hashCode(), genesisBlock);
-
-            lastBlockInChain = genesisBlock;
+            if (chain.isEmpty()) {
+                Block genesis = Block.createGenesisBlock();
+                if (!addToTree(genesis)) {
+                    throw new RuntimeException("The genesis block could not be stored.");
+                }
+                chain.add(blockchain.get(genesis.getId()));
+            }
+            // the stored blocks were accepted when they were received
+            connectChain(chain, snapshot, false);
 
             // create a fake transaction to introduce money in the network
             TransactionRecord record = new TransactionRecord(publicKey, publicKey, 10);
             unspentTransactions.add(record);
+            recordsWithoutBlock.add(record);
         } else {
-            // ask the successor for the unspentTransactions and the block chain
-            BlockchainAndTransactionsWrapper wrapper = networkNode.askSuccessorForBlockchain();
-            unspentTransactions = wrapper.getUnspentTransactions();
-            blockchain = wrapper.getBlockchain();
-            orphanBlocks = wrapper.getOrphanBlocks();
-            transactionsWithoutBlock = wrapper.getTransactionsWithoutblock();
-            lastBlockInChain = wrapper.getLastBlockInChain();
-
-            String logMessage = "Received the blockchain from successor.\n";
-            logMessage = logMessage + "Unspent transactions size = " + unspentTransactions.size() + "\n";
-            for (TransactionRecord t : unspentTransactions) {
-                logMessage = logMessage + "Transaction: " + t.getAmount() + "\n";
+            // download the headers and the missing blocks from the other nodes
+            ChainSynchronizer synchronizer = new ChainSynchronizer(networkNode, blockStore,
+                    PROOF_OF_WORK_VERIFIER, SIGNATURE_VERIFIER);
+            chain = synchronizer.synchronize(chain, blockchain);
+            if (chain.isEmpty()) {
+                throw new RuntimeException("The chain could not be downloaded.");
+            }
+
+            // the records without block are needed to accept the blocks that spend them
+            TransactionsWithoutBlockWrapper wrapper = networkNode.askSuccessorForTransactionsWithoutBlock();
+            recordsWithoutBlock.addAll(wrapper.getRecordsWithoutBlock());
+            if (snapshot == null || !snapshotIsOnChain(snapshot, chain)) {
+                unspentTransactions.addAll(recordsWithoutBlock);
+            }
+            connectChain(chain, snapshot, true);
+
+            for (Transaction transaction : wrapper.getTransactionsWithoutBlock()) {
+                if (transaction.hasValidDigitalSignature() && verifyTransactionInputs(unspentTransactions, transaction)) {
+                    transactionsWithoutBlock.add(transaction);
+                }
             }
+
+            String logMessage = "Synchronized the blockchain. Last block in chain has height " + lastBlockInChain.getHeight() + ".\n";
+            logMessage = logMessage + "Unspent transactions size = " + unspentTransactions.size() + "\n";
             logMessage = logMessage + "There are " + transactionsWithoutBlock.size() + " transactions without a block.\n";
 //            transactionsLogger.info(logMessage);
             System.out.println(logMessage);
+        }
+
+        linkChildren();
+
+        proofOfWorkInstance = new HashProofOfWork(this, MINING_THREADS);
+        startProofOfWorkThread();
+    }
+
+    protected void initBlockStore() {
+        try {
+            blockStore = new BlockStore(new File("./blocks/node-" + port));
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot open the block store.", e);
+        }
+    }
 
-            // find the genesis block, starting from the last block in chain
-            genesisBlock = lastBlockInChain;
-            while (blockchain.containsKey(genesisBlock.getPreviousBlockHash())) {
-                genesisBlock = blockchain.get(genesisBlock.getPreviousBlockHash());
+    /**
+     * Closes the block store. The blocks received after it is closed are not stored.
+     * The lock of the client is not taken: the method runs in a shutdown hook, and a thread that holds the lock
+     * while it waits for the miner would stop the JVM from exiting. The block store has its own lock.
+     */
+    public void close() {
+        try {
+            blockStore.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Puts the headers of the stored blocks in the block tree. The blocks are not read, they stay on disk.
+     * @return false if the store is empty
+     */
+    private boolean readStoredHeaders() {
+        List<BlockId> storedIds = blockStore.getIds();
+        if (storedIds.isEmpty()) {
+            return false;
+        }
+
+        for (BlockId storedId : storedIds) {
+            blockchain.put(storedId, blockStore.getHeader(storedId));
+        }
+
+        System.out.println("Loaded " + blockchain.size() + " headers from the block store.");
+        return true;
+    }
+
+    /**
+     * @return the chain that ends with the highest block in the tree, starting with the genesis block; on equal
+     * heights the chain that has the snapshot is preferred
+     */
+    private List<BlockHeader> findLongestChain(UtxoSnapshot snapshot) {
+        BlockHeader last = snapshot == null ? null : blockchain.get(snapshot.getTipId());
+        for (BlockHeader header : blockchain.values()) {
+            if (last == null || header.getHeight() > last.getHeight()) {
+                last = header;
             }
         }
+        return getChainEndingWith(last);
+    }
 
-        proofOfWorkInstance = new HashProofOfWork(this);
-        startProofOfWorkThread();
+    /**
+     * @return the headers from the genesis block to the given block
+     */
+    private List<BlockHeader> getChainEndingWith(BlockHeader last) {
+        List<BlockHeader> chain = new ArrayList<>();
+        BlockHeader header = last;
+        while (header != null) {
+            chain.add(header);
+            header = blockchain.get(header.getPreviousBlockId());
+        }
+        Collections.reverse(chain);
+        return chain;
+    }
+
+    private boolean snapshotIsOnChain(UtxoSnapshot snapshot, List<BlockHeader> chain) {
+        return snapshot.getTipHeight() < chain.size() &&
+                chain.get((int) snapshot.getTipHeight()).getId().equals(snapshot.getTipId());
+    }
+
+    /**
+     * Computes the unspent transactions by connecting the blocks of the chain. If the snapshot of the unspent
+     * transactions was taken for a block on the chain, only the blocks after it are connected. The blocks are read
+     * from the block store one at a time.
+     *
+     * @param verify if true, the chain ends before the first block that is not accepted
+     */
+    private void connectChain(List<BlockHeader> chain, UtxoSnapshot snapshot, boolean verify) {
+        int firstBlockToConnect = 0;
+        if (snapshot != null && snapshotIsOnChain(snapshot, chain)) {
+            unspentTransactions = snapshot.getRecords();
+            lastSnapshotHeight = snapshot.getTipHeight();
+            firstBlockToConnect = (int) snapshot.getTipHeight() + 1;
+        }
+
+        genesisHeader = chain.get(0);
+        lastBlockInChain = getStoredBlock(chain.get(Math.max(firstBlockToConnect - 1, 0)).getId());
+        for (BlockHeader header : chain.subList(firstBlockToConnect, chain.size())) {
+            Block block = getStoredBlock(header.getId());
+            if (block == null) {
+                System.out.println("The block with height " + header.getHeight() + " cannot be read, the chain ends before it.");
+                break;
+            }
+            // the genesis block is not mined
+            if (verify && header.getHeight() > 0 && !acceptBlock(block, unspentTransactions)) {
+                System.out.println("The block with height " + block.getHeight() + " is not accepted, the chain ends before it.");
+                break;
+            }
+            connectBlock(block);
+            lastBlockInChain = block;
+        }
+
+        System.out.println("Last block in chain has height " + lastBlockInChain.getHeight() + ", " +
+                (lastBlockInChain.getHeight() + 1 - firstBlockToConnect) + " blocks were connected.");
+    }
+
+    /**
+     * @return the snapshot of the unspent transactions or null if there is none or it cannot be read
+     */
+    private UtxoSnapshot loadSnapshot() {
+        try {
+            return UtxoSnapshot.load(new File(blockStore.getDirectory(), SNAPSHOT_FILE));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Saves the unspent transactions if the chain grew with SNAPSHOT_INTERVAL blocks since the last snapshot.
+     */
+    private void writeSnapshotIfNeeded() {
+        if (lastBlockInChain.getHeight() - lastSnapshotHeight < SNAPSHOT_INTERVAL) {
+            return;
+        }
+
+        try {
+            UtxoSnapshot.write(new File(blockStore.getDirectory(), SNAPSHOT_FILE), lastBlockInChain, unspentTransactions);
+            lastSnapshotHeight = lastBlockInChain.getHeight();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds every block in the children list of its parent.
+     */
+    private void linkChildren() {
+        children.clear();
+        for (BlockHeader header : blockchain.values()) {
+            addChild(header);
+        }
+    }
+
+    private void addChild(BlockHeader header) {
+        List<BlockHeader> siblings = children.get(header.getPreviousBlockId());
+        if (siblings == null) {
+            siblings = new ArrayList<>();
+            children.put(header.getPreviousBlockId(), siblings);
+        }
+        siblings.add(header);
+    }
+
+    /**
+     * Writes the block in the block store and adds its header in the block tree; the block itself is not kept.
+     * @return false if the block could not be stored
+     */
+    private boolean addToTree(Block block) {
+        try {
+            blockStore.append(block);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        BlockHeader header = blockStore.getHeader(block.getId());
+        if (blockchain.put(block.getId(), header) == null) {
+            addChild(header);
+        }
+        return true;
+    }
+
+    /**
+     * Reads a block from the block store, so blocks can be sent to other nodes without keeping them in memory.
+     * @return the block or null if it is not stored
+     */
+    public Block getStoredBlock(BlockId blockId) {
+        try {
+            return blockStore.read(blockId);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
     }
 
     protected void initNode() {
@@ -144,13 +385,7 @@ public class Client extends Observable {
     }
 
     public double getBalance() {
-        double balance = 0;
-        for (TransactionRecord record : unspentTransactions) {
-            if (record.getRecipient().equals(publicKey)) {
-                balance += record.getAmount();
-            }
-        }
-        return balance;
+        return unspentTransactions.getBalance(publicKey);
     }
 
     public void broadcastTransaction(Transaction transaction) {
@@ -213,8 +448,8 @@ public class Client extends Observable {
 
     public synchronized void handleReceivedBlock(Block block) {
         String logMessage = "Node " + networkNode.getId() + ": I received a block! It was mined by node " + block.getMinerId() +
-                ". Hash = " + block.hashCode() + ", height = " + block.getHeight() + ", transactions = " + block.getTransactions().size() + "\n";
-        logMessage += "Previous block hash = " + block.getPreviousBlockHash() + ".\n";
+                ". Id = " + block.getId() + ", height = " + block.getHeight() + ", transactions = " + block.getTransactions().size() + "\n";
+        logMessage += "Previous block id = " + block.getPreviousBlockId() + ".\n";
         logMessage += "Last block in chain height = " + lastBlockInChain.getHeight() + "\n";
 
         // update the GUI
@@ -225,22 +460,19 @@ public class Client extends Observable {
         // there are two steps that are deferred - verifying that there is no double spend and that every
         // input record in a transaction is sent to the transaction's initiator
         // these last steps will be done when the block will be on the actual chain (now it is a leaf in a tree)
-        if (PROOF_OF_WORK_VERIFIER.verify(block) && block.validateTransactionsInBlock()) {
-            int previousId = block.getPreviousBlockHash();
-            if (blockchain.containsKey(previousId)) {
-                blockchain.put(block.hashCode(), block);
-
-                Block parent = blockchain.get(previousId);
-                parent.addChildren(block);
-
+        if (PROOF_OF_WORK_VERIFIER.verify(block) && block.validateTransactionsInBlock(SIGNATURE_VERIFIER)) {
+            BlockId previousId = block.getPreviousBlockId();
+            if (blockchain.containsKey(previousId) && !addToTree(block)) {
+                logMessage += "The block could not be stored.\n";
+            } else if (blockchain.containsKey(previousId)) {
                 // check if this is the next block after the lastBlockInChain
-                if (block.getPreviousBlockHash() == lastBlockInChain.hashCode()) {
+                if (block.getPreviousBlockId().equals(lastBlockInChain.getId())) {
                     if (verifyTransactionRecordsInBlock(block, unspentTransactions)) {
                         lastBlockInChain = block;
 
                         // update unspentTransactions and add all the transactions, including the REWARD ones
                         logMessage += "Before update: The node has " + unspentTransactions.size() + " unspent transactions!\n";
-                        updateUnspentTransactions(block, unspentTransactions);
+                        connectBlock(block);
                         logMessage += "After update: The node has " + unspentTransactions.size() + " unspent transactions!\n";
 
                         stopProofOfWorkThread();
@@ -249,11 +481,11 @@ public class Client extends Observable {
 
                         startProofOfWorkThread();
 
-                        logMessage += "The block with hash = " + block.hashCode() + " is right after the " +
+                        logMessage += "The block with id = " + block.getId() + " is right after the " +
                                 "former lastBlockInChain. New block height = " + block.getHeight() + "\n";
                         logMessage += "The node has " + transactionsWithoutBlock.size() + " transactions witout block!\n";
                     } else {
-                        logMessage += "The block with hash = " + block.hashCode() + " is right after the " +
+                        logMessage += "The block with id = " + block.getId() + " is right after the " +
                                 "lastBlockInChain but is is not accepted. Block height = " + lastBlockInChain.getHeight() + "\n";
                     }
                 }
@@ -273,9 +505,11 @@ public class Client extends Observable {
                     startProofOfWorkThread();
                 }
 
+                writeSnapshotIfNeeded();
+
                 // a new block was added in the tree (and maybe orphans blocks found their parents); update the GUI
                 setChanged();
-                notifyObservers(new UpdateMessage(UpdateType.BLOCKCHAIN, genesisBlock));
+                notifyObservers(new UpdateMessage(UpdateType.BLOCKCHAIN, genesisHeader));
 
                 // update the balance on the user interface
                 double balance = getBalance();
@@ -283,20 +517,47 @@ public class Client extends Observable {
                 notifyObservers(new UpdateMessage(UpdateType.BALANCE, balance));
             } else {
                 logMessage += "This is an orphan block.\n";
-                orphanBlocks.put(block.hashCode(), block);
+                orphanBlocks.put(block.getId(), block);
+                requestParent(previousId);
             }
         } else {
             logMessage += "The block is not valid.\n";
         }
 
         setChanged();
-        notifyObservers(new UpdateMessage(UpdateType.INFO, "Last block on chain is " + lastBlockInChain.hashCode() + "\n"));
+        notifyObservers(new UpdateMessage(UpdateType.INFO, "Last block on chain is " + lastBlockInChain.getId() + "\n"));
 
         System.out.println(logMessage);
 //        transactionsLogger.info(logMessage);
         storeReceivedBlock(block);
     }
 
+    /**
+     * The parent of an orphan block may have been missed by this node, so it is requested from the peers on another
+     * thread. The parent is handled as a received block; if it is an orphan too, its own parent is requested.
+     */
+    private void requestParent(final BlockId parentId) {
+        // the parent is an orphan that already waits for its parent
+        if (orphanBlocks.containsKey(parentId) || !requestedParents.add(parentId)) {
+            return;
+        }
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Block parent = networkNode.askForBlock(parentId);
+                if (parent != null && parent.getId().equals(parentId)) {
+                    handleReceivedBlock(parent);
+                } else {
+                    System.out.println("Node " + networkNode.getId() + ": no peer has the block " + parentId + ".");
+                }
+                requestedParents.remove(parentId);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     /**
      * Stops the mining process, sending a signal to the thread and waits for it to exit completely from the loop.
      */
@@ -327,8 +588,8 @@ public class Client extends Observable {
      * done in the following way:
      *
      * For every block from the lastBlockInChain to the lowest common ancestor add all the transactions in the
-     * transactions without block hash, remove the transaction outputs from the unspentTransactions and add the
-     * transaction inputs in the unspentTransactions.
+     * transactions without block hash and apply the block's undo record: remove the transaction outputs from the
+     * unspentTransactions and add the transaction inputs in the unspentTransactions.
      *
      * For every block from the lowest common ancestor to the longerBlock verify that all the input records
      * are not already spent, remove them from unspentTransactions and add the outputs in unspentTransactions.
@@ -354,62 +615,99 @@ public class Client extends Observable {
         }
     }
 
+    /**
+     * The current chain is changed in place. The blocks from the lastBlockInChain to the common ancestor are
+     * disconnected using their undo records and the blocks on the new branch are connected one by one. If a block
+     * on the new branch is not accepted, the changes are rolled back in the reverse order.
+     */
     private boolean changeIfPossible(Block longerBlock) {
         boolean possible = true;
-        Set<TransactionRecord> auxiliaryUnspentTransactions = new HashSet<>(unspentTransactions);
-        List<Transaction> auxiliaryTransactionsWithoutBlock = new ArrayList<>(transactionsWithoutBlock);
+        List<Block> disconnectedBlocks = new ArrayList<>();
+        List<Block> connectedBlocks = new ArrayList<>();
+        List<Transaction> addedToTransactionsWithoutBlock = new ArrayList<>();
+        List<Transaction> removedFromTransactionsWithoutBlock = new ArrayList<>();
         Block parent = lastBlockInChain;
         long commonAncestorHeight = findLowestCommonAncestor(longerBlock);
 
-        // go to the common ancestor and for every transaction in a block, remove the outputs in the unspentTransactions
-        // and add the inputs in unspentTransactions, because they are not spent anymore
-        // also, add all the transactions in auxiliaryTransactionsWithoutBlock so that they can be mined and added in the blockchain
+        // go to the common ancestor and for every block remove its outputs from the unspentTransactions
+        // and add back its inputs, because they are not spent anymore
+        // also, add all the transactions in transactionsWithoutBlock so that they can be mined and added in the blockchain
         long currentHeight = lastBlockInChain.getHeight();
 
         // do not include the common ancestor
         while (currentHeight > commonAncestorHeight) {
-            for (Transaction transaction : parent.getTransactions()) {
+            disconnectBlock(parent);
+            disconnectedBlocks.add(parent);
 
-                // remove the outputs because the transaction is not accepted by the blockchain, so this transaction record
-                // should not be spent
-                for (TransactionRecord output : transaction.getOutputs()) {
-                    auxiliaryUnspentTransactions.remove(output);
-                }
-
-                // add the input in unspent transactions, so it can be spent in another transaction
-                for (TransactionRecord input : transaction.getInputs()) {
-                    auxiliaryUnspentTransactions.add(input);
-                }
-
-                auxiliaryTransactionsWithoutBlock.add(transaction);
+            for (Transaction transaction : parent.getTransactions()) {
+                transactionsWithoutBlock.add(transaction);
+                addedToTransactionsWithoutBlock.add(transaction);
             }
 
-            parent = blockchain.get(parent.getPreviousBlockHash());
             currentHeight--;
+            if (currentHeight > commonAncestorHeight) {
+                parent = getStoredBlock(parent.getPreviousBlockId());
+            }
         }
 
-        List<Block> pathToNewBlock = getBlocksFromCommonAncestorToLongestBlock(longerBlock, commonAncestorHeight);
+        List<BlockHeader> pathToNewBlock = getBlocksFromCommonAncestorToLongestBlock(longerBlock, commonAncestorHeight);
+
+        for (BlockHeader header : pathToNewBlock) {
+            Block block = header.getId().equals(longerBlock.getId()) ? longerBlock : getStoredBlock(header.getId());
+            if (block != null && acceptBlock(block, unspentTransactions)) {
+                connectBlock(block);
+                connectedBlocks.add(block);
 
-        for (Block block : pathToNewBlock) {
-            if (acceptBlock(block, auxiliaryUnspentTransactions)) {
-                updateUnspentTransactions(block, auxiliaryUnspentTransactions);
-                updateTransactionsWithoutBlock(block, auxiliaryTransactionsWithoutBlock);
+                for (Transaction transaction : block.getTransactions()) {
+                    if (transactionsWithoutBlock.remove(transaction)) {
+                        removedFromTransactionsWithoutBlock.add(transaction);
+                    }
+                }
             } else {
                 possible = false;
                 break;
             }
         }
 
-        // if the new path is accepted, change the unspentTransactions and the lastBlockInChain variables
         if (possible) {
-            unspentTransactions = auxiliaryUnspentTransactions;
-            transactionsWithoutBlock = auxiliaryTransactionsWithoutBlock;
             lastBlockInChain = longerBlock;
+        } else {
+            // restore the initial state, undoing the changes in the reverse order
+            for (int i = connectedBlocks.size() - 1; i >= 0; i--) {
+                disconnectBlock(connectedBlocks.get(i));
+            }
+            for (int i = disconnectedBlocks.size() - 1; i >= 0; i--) {
+                connectBlock(disconnectedBlocks.get(i));
+            }
+            transactionsWithoutBlock.addAll(removedFromTransactionsWithoutBlock);
+            for (Transaction transaction : addedToTransactionsWithoutBlock) {
+                transactionsWithoutBlock.remove(transaction);
+            }
         }
 
         return possible;
     }
 
+    /**
+     * Adds the block on the chain: updates the unspentTransactions and stores the undo record.
+     */
+    private void connectBlock(Block block) {
+        undoRecords.put(block.getId(), BlockUndo.connect(block, unspentTransactions));
+    }
+
+    /**
+     * Removes the block from the chain, restoring the unspentTransactions to the state before the block.
+     * The blocks that were on the chain before this node joined do not have an undo record, so it is built
+     * from the block's transactions.
+     */
+    private void disconnectBlock(Block block) {
+        BlockUndo undo = undoRecords.remove(block.getId());
+        if (undo == null) {
+            undo = BlockUndo.fromBlock(block);
+        }
+        undo.disconnect(unspentTransactions);
+    }
+
     /**
      * Check if the block complies the following rules:
      *     0) the block has a valid proof of work - somebody spent time before broadcasting it
@@ -422,16 +720,15 @@ public class Client extends Observable {
      * @return true if the block is accepted
      */
     private boolean acceptBlock(Block block, Set<TransactionRecord> unspent) {
-        boolean accepted = PROOF_OF_WORK_VERIFIER.verify(block);
+        boolean accepted = PROOF_OF_WORK_VERIFIER.verify(block) && block.validateTransactionsInBlock(SIGNATURE_VERIFIER);
 
         for (Transaction transaction : block.getTransactions()) {
-            if (transaction.getType() != TransactionType.REWARD) {
-                accepted &= transaction.hasValidDigitalSignature();
-                accepted &= verifyTransactionInputs(unspent, transaction);
-            }
             if (!accepted) {
                 break;
             }
+            if (transaction.getType() != TransactionType.REWARD) {
+                accepted &= verifyTransactionInputs(unspent, transaction);
+            }
         }
 
         return accepted;
@@ -445,31 +742,19 @@ public class Client extends Observable {
         return accepted;
     }
 
-    /**
-     * Remove all the input records from all the transactions from the unspent set and add all the outputs.
-     */
-    private void updateUnspentTransactions(Block block, Set<TransactionRecord> unspent) {
-        for (Transaction transaction : block.getTransactions()) {
-            for (TransactionRecord input : transaction.getInputs()) {
-                unspent.remove(input);
-            }
-
-            for (TransactionRecord output : transaction.getOutputs()) {
-                unspent.add(output);
-            }
-        }
-    }
-
     /**
      * Computes the blocks from the ancestor to the newly found longest block.
-     * @return the list of the blocks, starting with the one after the ancestor
+     * @return the headers of the blocks, starting with the one after the ancestor
      */
-    private List<Block> getBlocksFromCommonAncestorToLongestBlock(Block longerBlock, long ancestorHeight) {
-        List<Block> path = new ArrayList<>();
+    private List<BlockHeader> getBlocksFromCommonAncestorToLongestBlock(Block longerBlock, long ancestorHeight) {
+        List<BlockHeader> path = new ArrayList<>();
         long currentHeight = longerBlock.getHeight();
 
+        BlockHeader header = blockchain.get(longerBlock.getId());
+
         while (currentHeight > ancestorHeight) {
-            path.add(longerBlock);
+            path.add(header);
+            header = blockchain.get(header.getPreviousBlockId());
             currentHeight--;
         }
 
@@ -495,18 +780,18 @@ public class Client extends Observable {
      */
     private long findLowestCommonAncestor(Block longerBlock) {
         long difference = longerBlock.getHeight() - lastBlockInChain.getHeight();
-        Block ancestor = longerBlock;
-        Block auxiliary;
+        BlockHeader ancestor = blockchain.get(longerBlock.getId());
+        BlockHeader auxiliary;
 
         while (difference != 0) {
-            ancestor = blockchain.get(ancestor.getPreviousBlockHash());
+            ancestor = blockchain.get(ancestor.getPreviousBlockId());
             difference--;
         }
 
-        auxiliary = lastBlockInChain;
-        while (!ancestor.equals(auxiliary)) {
-            ancestor = blockchain.get(ancestor.getPreviousBlockHash());
-            auxiliary = blockchain.get(auxiliary.getPreviousBlockHash());
+        auxiliary = blockchain.get(lastBlockInChain.getId());
+        while (!ancestor.getId().equals(auxiliary.getId())) {
+            ancestor = blockchain.get(ancestor.getPreviousBlockId());
+            auxiliary = blockchain.get(auxiliary.getPreviousBlockId());
         }
 
         return ancestor.getHeight();
@@ -531,15 +816,16 @@ public class Client extends Observable {
             orphanFound = false;
             synchronized (orphanBlocks) {
                 for (Block block : orphanBlocks.values()) {
-                    if (block.getPreviousBlockHash() == receivedBlock.hashCode()) {
+                    if (block.getPreviousBlockId().equals(receivedBlock.getId())) {
                         orphanFound = true;
                         child = block;
                     }
                 }
                 if (orphanFound) {
-                    orphanBlocks.remove(child.hashCode());
-                    blockchain.put(child.hashCode(), child);
-                    receivedBlock.addChildren(child);
+                    orphanBlocks.remove(child.getId());
+                    if (!addToTree(child)) {
+                        break;
+                    }
 
                     receivedBlock = child;
                 }
@@ -552,9 +838,6 @@ public class Client extends Observable {
      * Checks that every input record from a transaction is addressed to the sender (so he has the right to spend it)
      * and it is not already spent.
      *
-     * Added a new parameter because this method will be called for both unspentTransactions and
-     * auxiliaryUnspentTransactions, when a longer block arrives.
-     *
      * @param transaction
      * @return
      */
@@ -580,11 +863,61 @@ public class Client extends Observable {
         }
     }
 
-    public Map<Integer, Block> getBlockchain() {
+    /**
+     * Answers a node that synchronizes its chain. The first id in the locator that is on the chain is the last
+     * block that the node has in common with this chain; if there is none, the headers start with the genesis block.
+     *
+     * @return at most ChainSynchronizer.MAX_HEADERS headers of the blocks after the common block
+     */
+    public synchronized List<BlockHeader> getHeadersAfter(List<BlockId> locator) {
+        List<BlockHeader> chain = getChainEndingWith(blockchain.get(lastBlockInChain.getId()));
+        int start = 0;
+        for (BlockId blockId : locator) {
+            BlockHeader header = blockchain.get(blockId);
+            if (header != null && header.getHeight() < chain.size() && chain.get((int) header.getHeight()) == header) {
+                start = (int) header.getHeight() + 1;
+                break;
+            }
+        }
+
+        List<BlockHeader> headers = new ArrayList<>();
+        for (int i = start; i < chain.size() && headers.size() < ChainSynchronizer.MAX_HEADERS; i++) {
+            headers.add(chain.get(i));
+        }
+        return headers;
+    }
+
+    /**
+     * @return the requested blocks that are in the block store
+     */
+    public List<Block> getBlocks(List<BlockId> blockIds) {
+        List<Block> blocks = new ArrayList<>();
+        for (BlockId blockId : blockIds) {
+            Block block = getStoredBlock(blockId);
+            if (block != null) {
+                blocks.add(block);
+            }
+        }
+        return blocks;
+    }
+
+    public synchronized TransactionsWithoutBlockWrapper getTransactionsWithoutBlockWrapper() {
+        return new TransactionsWithoutBlockWrapper(recordsWithoutBlock, transactionsWithoutBlock);
+    }
+
+    public Map<BlockId, BlockHeader> getBlockchain() {
         return blockchain;
     }
 
-    public Set<TransactionRecord> getUnspentTransactions() {
+    /**
+     * @return the headers of the blocks whose parent is the given block
+     */
+    public synchronized List<BlockHeader> getChildren(BlockHeader parent) {
+        List<BlockHeader> blockChildren = children.get(parent.getId());
+        return blockChildren == null ? Collections.<BlockHeader>emptyList() : new ArrayList<>(blockChildren);
+    }
+
+    public UnspentTransactionSet getUnspentTransactions() {
         return unspentTransactions;
     }
 
@@ -596,7 +929,7 @@ public class Client extends Observable {
         return lastBlockInChain;
     }
 
-    public Map<Integer, Block> getOrphanBlocks() {
+    public Map<BlockId, Block> getOrphanBlocks() {
         return orphanBlocks;
     }
 
@@ -616,8 +949,8 @@ public class Client extends Observable {
         return PublicAndPrivateKeyUtils.getAddress(publicKey);
     }
 
-    public Block getGenesisBlock() {
-        return genesisBlock;
+    public BlockHeader getGenesisHeader() {
+        return genesisHeader;
     }
 
     @Override
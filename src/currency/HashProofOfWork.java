@@ -4,52 +4,66 @@ import gui.UpdateMessage;
 import gui.UpdateType;
 import network.Node;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by Sorin Nutu on 5/8/2015.
+ *
+ * The nonce search can run on multiple threads. The nonce space is split in stripes: the worker with index i
+ * tries the nonces start + i, start + i + workers, start + i + 2 * workers and so on. The first worker that finds
+ * a solution publishes its nonce and all the others stop. When there is a single worker, the search is done on the
+ * thread that called mine(), as before.
  */
 public class HashProofOfWork implements ProofOfWork {
+    private static final long NONCE_NOT_FOUND = -1;
+
     private Block currentBlock;
     private Node networkNode;
     private Client client;
     private volatile boolean externalStop;
     private int limit = 5;
+    private int workers;
+    // created when the first parallel search starts and reused for the next blocks
+    private ExecutorService miningPool;
 
     public HashProofOfWork(Client client) {
+        this(client, 1);
+    }
+
+    public HashProofOfWork(Client client, int workers) {
         if (client != null) {
             this.networkNode = client.getNetworkNode();
         }
+        if (workers < 1) {
+            throw new IllegalArgumentException("The proof of work needs at least one worker.");
+        }
         this.client = client;
+        this.workers = workers;
     }
 
     @Override
     public void mine() {
-        boolean stop = false;
         externalStop = false;
 
         client.setChanged();
         client.notifyObservers(new UpdateMessage(UpdateType.INFO, "Start to create a new block with " + currentBlock.transactionCount() + " transactions\n"));
         System.out.println("Node " + networkNode.getId() + ": Started mining a block with " + currentBlock.transactionCount() + " transactions.\n");
         System.out.println("Node " + networkNode.getId() + ": I have " + client.getTransactionsWithoutBlock().size() + " transactions without block!!!\n");
-        while (!stop && !externalStop) {
-            if (verify(currentBlock)) {
-                stop = true;
-            } else {
-                currentBlock.incrementNonce();
-                if (currentBlock.getNonce() % 5000 == 0) {
-                    System.out.println("Nodul " + networkNode.getId() + ": nonce = " + currentBlock.getNonce());
-                    client.setChanged();
-                    client.notifyObservers(new UpdateMessage(UpdateType.INFO, "Searching for nonce. Current value = " + currentBlock.getNonce() + "\n"));
-                }
-            }
+
+        long nonce;
+        if (workers == 1) {
+            nonce = searchNonce(currentBlock.getNonce(), 1, new AtomicLong(NONCE_NOT_FOUND), true);
+        } else {
+            nonce = searchNonceInParallel();
         }
 
-        if (!externalStop) {
-            System.out.println("Nodul " + networkNode.getId() + ": Am gasit valoarea pt nonce!! Nonce = " + currentBlock.getNonce() + ", hash = " + currentBlock.hashCode());
+        if (!externalStop && nonce != NONCE_NOT_FOUND) {
+            currentBlock.setNonce(nonce);
+
+            System.out.println("Nodul " + networkNode.getId() + ": Am gasit valoarea pt nonce!! Nonce = " + currentBlock.getNonce() + ", id = " + currentBlock.getId());
             System.out.println("Blockul are " + currentBlock.getTransactions().size() + " tranzactii.");
             byte[] hash = hashCodeForBlock(currentBlock);
             System.out.println("Hash = " + hash[0] + " " + hash[1] + " " + hash[2] + " " + hash[3]);
@@ -59,7 +73,7 @@ public class HashProofOfWork implements ProofOfWork {
             networkNode.broadcastBlock(currentBlock);
             System.out.println("Nodul " + networkNode.getId() + ": Am facut broadcast la un block cu tranzactii = " + currentBlock.getTransactions().size());
 
-            String message = "The proof of work was solved for the block " + currentBlock.hashCode() + "\n";
+            String message = "The proof of work was solved for the block " + currentBlock.getId() + "\n";
             message += "The block contains " + currentBlock.transactionCount() + " transactions and it has been broadcasted.\n";
 
             client.setChanged();
@@ -76,7 +90,7 @@ public class HashProofOfWork implements ProofOfWork {
      */
     private void prepareMining() {
         Block previousBlock = client.getLastBlockInChain();
-        currentBlock = new Block(previousBlock.hashCode(), previousBlock.getNonce(),
+        currentBlock = new Block(previousBlock.getId(), previousBlock.getNonce(),
                 previousBlock.getHeight(), networkNode.getId());
 
         addTransaction(createRewardTransaction());
@@ -93,6 +107,77 @@ public class HashProofOfWork implements ProofOfWork {
         }
     }
 
+    /**
+     * Tries the nonces start, start + step, start + 2 * step, ... for the current block until one of them solves
+     * the problem or the search is stopped, either externally or because another worker found a solution.
+     *
+     * The block is serialized once in a BlockHeader and only its nonce is changed, so the loop does not allocate.
+     *
+     * @return the nonce that solves the problem or NONCE_NOT_FOUND if the search was stopped
+     */
+    private long searchNonce(long start, int step, AtomicLong winner, boolean reportProgress) {
+        BlockHeader header = new BlockHeader(currentBlock);
+        byte[] hash = new byte[BlockHeader.HASH_LENGTH];
+        long nonce = start;
+        long attempts = 0;
+        while (!externalStop && winner.get() == NONCE_NOT_FOUND) {
+            header.setNonce(nonce);
+            header.hash(hash);
+            if (solved(hash)) {
+                winner.compareAndSet(NONCE_NOT_FOUND, nonce);
+                break;
+            }
+            nonce += step;
+            attempts++;
+            if (reportProgress && attempts % 5000 == 0) {
+                System.out.println("Nodul " + networkNode.getId() + ": nonce = " + nonce);
+                client.setChanged();
+                client.notifyObservers(new UpdateMessage(UpdateType.INFO, "Searching for nonce. Current value = " + nonce + "\n"));
+            }
+        }
+        return winner.get();
+    }
+
+    /**
+     * Splits the nonce space in stripes and searches them on the mining pool. The method returns after all the
+     * workers stopped, so a call to stop() followed by a join on the mining thread waits for every worker.
+     */
+    private long searchNonceInParallel() {
+        if (miningPool == null) {
+            miningPool = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "miner-" + (networkNode != null ? networkNode.getId() : ""));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        final AtomicLong winner = new AtomicLong(NONCE_NOT_FOUND);
+        final long firstNonce = currentBlock.getNonce();
+        List<Callable<Long>> stripes = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            final long start = firstNonce + i;
+            // only the first worker reports the progress, otherwise the GUI would be flooded
+            final boolean reportProgress = (i == 0);
+            stripes.add(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return searchNonce(start, workers, winner, reportProgress);
+                }
+            });
+        }
+
+        try {
+            miningPool.invokeAll(stripes);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            return NONCE_NOT_FOUND;
+        }
+        return winner.get();
+    }
+
     private Transaction createRewardTransaction() {
         TransactionRecord record = new TransactionRecord(client.getPublicKey(), client.getPublicKey(), 1);
         List<TransactionRecord> outputs = new ArrayList<>();
@@ -139,22 +224,20 @@ public class HashProofOfWork implements ProofOfWork {
      */
     @Override
     public boolean verify(Block block) {
-        byte[] hash = hashCodeForBlock(block);
-        return (hash[0] == 0 && hash[1] == 0);
+        return solved(hashCodeForBlock(block));
+    }
+
+    @Override
+    public boolean verify(BlockHeader header) {
+        return solved(header.hash());
+    }
+
+    private boolean solved(byte[] hash) {
+        return hash[0] == 0 && hash[1] == 0;
     }
 
     protected byte[] hashCodeForBlock(Block block) {
-        try {
-            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-            // the string generated by stringForHash method is large when there are many transactions, so hash it before sha256
-//            messageDigest.update(("" + block.stringForHash().hashCode()).getBytes());
-            String p = block.stringForHash();
-            messageDigest.update(p.substring(0, 10).getBytes());
-            return messageDigest.digest();
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            return "".getBytes();
-        }
+        return block.getId().toByteArray();
     }
 
     @Override
@@ -0,0 +1,29 @@
+package currency;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the ids of the transactions and of the transaction records.
+ *
+ * The ids are part of the txid and of the equality of the records, so an id should not be created again after
+ * the node restarts and restores the old ones from the block store and the snapshot. The first id is taken from
+ * the clock, 1000 ids per millisecond, and every id that is restored or received is reserved, so the next ids
+ * are larger even if the clock went back.
+ */
+class IdCreator {
+    private final AtomicLong nextId = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    long next() {
+        return nextId.getAndIncrement();
+    }
+
+    /**
+     * Makes sure the id is not created later.
+     */
+    void reserve(long id) {
+        long current;
+        while (id >= (current = nextId.get()) && !nextId.compareAndSet(current, id + 1)) {
+            // another id was created or reserved, compare again
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package currency;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Merkle tree over the digests of the transactions in a block.
+ *
+ * Every level of the tree is stored, so adding a leaf only recomputes the nodes on the rightmost path, which
+ * takes O(log n) hashes. When a level has an odd number of nodes, the last node is promoted to the next level
+ * unchanged. Pairing it with itself would give [a, b, c] and [a, b, c, c] the same root, so a block with its
+ * last transaction repeated would have the same id as the valid block.
+ * The root of an empty tree is an array of zeros.
+ */
+public class MerkleTree {
+    // levels.get(0) contains the leaves, the last level contains only the root
+    private List<List<byte[]>> levels;
+
+    public MerkleTree() {
+        levels = new ArrayList<>();
+        levels.add(new ArrayList<byte[]>());
+    }
+
+    public void addLeaf(byte[] digest) {
+        levels.get(0).add(digest);
+
+        MessageDigest messageDigest = BlockHeader.sha256();
+        int level = 0;
+        while (levels.get(level).size() > 1) {
+            List<byte[]> children = levels.get(level);
+            if (levels.size() == level + 1) {
+                levels.add(new ArrayList<byte[]>());
+            }
+            List<byte[]> parents = levels.get(level + 1);
+
+            int parent = (children.size() - 1) / 2;
+            byte[] hash = children.get(2 * parent);
+            if (2 * parent + 1 < children.size()) {
+                messageDigest.update(hash);
+                messageDigest.update(children.get(2 * parent + 1));
+                hash = messageDigest.digest();
+            }
+
+            if (parent < parents.size()) {
+                parents.set(parent, hash);
+            } else {
+                parents.add(hash);
+            }
+            level++;
+        }
+    }
+
+    public byte[] getRoot() {
+        List<byte[]> top = levels.get(levels.size() - 1);
+        if (top.isEmpty()) {
+            return new byte[BlockHeader.HASH_LENGTH];
+        }
+        return top.get(0);
+    }
+
+    public int getLeafCount() {
+        return levels.get(0).size();
+    }
+}
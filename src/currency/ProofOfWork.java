@@ -41,4 +41,9 @@ public interface ProofOfWork extends Runnable {
      * @return
      */
     boolean verify(Block block);
+
+    /**
+     * Same test as verify(Block), for a header received without its block.
+     */
+    boolean verify(BlockHeader header);
 }
@@ -0,0 +1,122 @@
+package currency;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the transactions whose digital signature was already found valid, so a transaction that is received
+ * as a broadcast, then inside a block and then again during a chain change is verified only once.
+ *
+ * The cache is keyed by the txid, which already includes the sender's public key. The signature is stored with
+ * the entry and compared on a hit, so a copy of the transaction with a different signature is verified again.
+ * Only valid results are stored; otherwise an invalid copy received first would hide the valid transaction.
+ *
+ * The entries are split in segments, each one an LRU LinkedHashMap guarded by its own lock, so threads that
+ * verify different transactions rarely wait for each other.
+ */
+public class SignatureCache {
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    public SignatureCache(int capacity) {
+        if (capacity < SEGMENTS) {
+            throw new IllegalArgumentException("The capacity should be at least " + SEGMENTS + ".");
+        }
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity / SEGMENTS);
+        }
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+    }
+
+    /**
+     * @return true if the transaction was already verified with exactly this signature
+     */
+    public boolean isVerified(byte[] txid, byte[] signature) {
+        Key key = new Key(txid);
+        Segment segment = segmentFor(key);
+        byte[] verifiedSignature;
+        synchronized (segment) {
+            verifiedSignature = segment.get(key);
+        }
+
+        boolean verified = verifiedSignature != null && Arrays.equals(verifiedSignature, signature);
+        if (verified) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return verified;
+    }
+
+    public void markVerified(byte[] txid, byte[] signature) {
+        Key key = new Key(txid);
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, signature);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentFor(Key key) {
+        return segments[(key.hashCode() & 0x7fffffff) % SEGMENTS];
+    }
+
+    private static class Segment extends LinkedHashMap<Key, byte[]> {
+        private final int capacity;
+
+        Segment(int capacity) {
+            // access order, so the eldest entry is the least recently used one
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    private static final class Key {
+        private final byte[] txid;
+        private final int hash;
+
+        Key(byte[] txid) {
+            this.txid = txid;
+            this.hash = Arrays.hashCode(txid);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof Key && Arrays.equals(txid, ((Key) o).txid));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
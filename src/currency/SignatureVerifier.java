@@ -0,0 +1,100 @@
+package currency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Verifies the digital signatures of a batch of transactions (usually the transactions of a block) on a fixed
+ * pool of threads. The result is a single verdict: the batch is valid only if every signature is valid.
+ *
+ * As soon as a signature is found invalid, the tasks that did not start yet are cancelled and the ones that
+ * start later return immediately. The reward transactions are skipped because they are not signed.
+ */
+public class SignatureVerifier {
+    private ExecutorService executor;
+    private int threads;
+
+    public SignatureVerifier(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The verifier needs at least one thread.");
+        }
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "signature-verifier");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return true if every transaction that is not a reward has a valid digital signature
+     */
+    public boolean verify(List<Transaction> transactions) {
+        List<Transaction> signed = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            if (transaction.getType() != TransactionType.REWARD) {
+                signed.add(transaction);
+            }
+        }
+
+        // it is not worth to hand a single transaction to another thread
+        if (threads == 1 || signed.size() <= 1) {
+            for (Transaction transaction : signed) {
+                if (!transaction.hasValidDigitalSignature()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        CompletionService<Boolean> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<Boolean>> futures = new ArrayList<>(signed.size());
+        for (final Transaction transaction : signed) {
+            futures.add(completionService.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    if (failed.get()) {
+                        return false;
+                    }
+                    boolean valid = transaction.hasValidDigitalSignature();
+                    if (!valid) {
+                        failed.set(true);
+                    }
+                    return valid;
+                }
+            }));
+        }
+
+        boolean valid = true;
+        try {
+            for (int i = 0; i < futures.size() && valid; i++) {
+                valid = completionService.take().get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            valid = false;
+        } finally {
+            if (!valid) {
+                failed.set(true);
+                for (Future<Boolean> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+        return valid;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
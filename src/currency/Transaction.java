@@ -1,21 +1,26 @@
 package currency;
 
-import currency.utils.PublicAndPrivateKeyUtils;
-
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.security.*;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a transaction that is initiated by a client to transfer a certain amount of money.
+ *
+ * A transaction is identified by its txid, the SHA-256 of its canonical binary encoding (everything except the
+ * signature). The encoding and the txid are computed once, when they are first needed; the signature, equals()
+ * and hashCode() are based on them, so the transaction is not serialized again on every check.
+ *
  * Created by Sorin Nutu on 4/19/2015.
  */
 public class Transaction implements Serializable {
-    private static AtomicLong ID_CREATOR = new AtomicLong(0);
+    private static final IdCreator ID_CREATOR = new IdCreator();
+    // signatures that were already verified on this node
+    private static final SignatureCache SIGNATURE_CACHE = new SignatureCache(100000);
 
     private long id;
     private List<TransactionRecord> inputs;
@@ -23,21 +28,38 @@ public class Transaction implements Serializable {
     private byte[] signature;
     private PublicKey senderPublicKey;
     private TransactionType type;
+    // not sent over the network, the receiver computes them again from the content
+    private transient byte[] encoding;
+    private transient byte[] txid;
 
     public Transaction(List<TransactionRecord> inputs, List<TransactionRecord> outputs) {
         this.inputs = inputs;
         this.outputs = outputs;
-        this.id = ID_CREATOR.getAndIncrement();
+        this.id = ID_CREATOR.next();
         this.type = TransactionType.NORMAL;
     }
 
     private Transaction(List<TransactionRecord> outputs) {
         inputs = new ArrayList<>();
         this.outputs = outputs;
-        this.id = ID_CREATOR.getAndIncrement();
+        this.id = ID_CREATOR.next();
         this.type = TransactionType.REWARD;
     }
 
+    /**
+     * Restores a transaction received in the binary wire format.
+     */
+    Transaction(long id, TransactionType type, List<TransactionRecord> inputs, List<TransactionRecord> outputs,
+                PublicKey senderPublicKey, byte[] signature) {
+        this.id = id;
+        ID_CREATOR.reserve(id);
+        this.type = type;
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.senderPublicKey = senderPublicKey;
+        this.signature = signature;
+    }
+
     /**
      * Creates a transaction that contains a single output representing the reward for the miner.
      * @param outputs
@@ -59,8 +81,19 @@ public class Transaction implements Serializable {
         this.signature = signature;
     }
 
+    byte[] getSignature() {
+        return signature;
+    }
+
+    long getId() {
+        return id;
+    }
+
     public void setSenderPublicKey(PublicKey senderPublicKey) {
         this.senderPublicKey = senderPublicKey;
+        // the key is part of the encoding
+        encoding = null;
+        txid = null;
     }
 
     public PublicKey getSenderPublicKey() {
@@ -70,28 +103,45 @@ public class Transaction implements Serializable {
     /**
      * Verifies the digital signature of this transaction using the sender's public key.
      * The signature was computed when it was first created using the sender's private key.
+     *
+     * A valid result is stored in the SignatureCache, so the same transaction is not verified again when it
+     * arrives in a block or when the chain is changed.
      * @return true if the digital signature is valid
      */
     public boolean hasValidDigitalSignature() {
+        if (signature == null) {
+            return false;
+        }
+        if (SIGNATURE_CACHE.isVerified(txid(), signature)) {
+            return true;
+        }
+
         boolean validSignature;
         try {
-            byte[] data = transformToByteArray(this);
             Signature sig = Signature.getInstance("SHA1withRSA");
             sig.initVerify(senderPublicKey);
-            sig.update(data);
+            sig.update(getEncoding());
 
             validSignature = sig.verify(signature);
         } catch (Exception e) {
             e.printStackTrace();
             validSignature = false;
         }
+
+        if (validSignature) {
+            SIGNATURE_CACHE.markVerified(txid(), signature.clone());
+        }
         return validSignature;
     }
 
+    public static SignatureCache getSignatureCache() {
+        return SIGNATURE_CACHE;
+    }
+
     public static class Builder {
         private List<TransactionRecord> inputs;
         private List<TransactionRecord> outputs;
-        private Set<TransactionRecord> unspentTransactions;
+        private UnspentTransactionSet unspentTransactions;
         private double clientBalance;
         private double totalSpentAmount;
         private PublicKey senderPublicKey;
@@ -107,7 +157,7 @@ public class Transaction implements Serializable {
             outputs = new ArrayList<>();
         }
 
-        public Builder withUnspentTransactions(Set<TransactionRecord> unspentTransactions) {
+        public Builder withUnspentTransactions(UnspentTransactionSet unspentTransactions) {
             this.unspentTransactions = unspentTransactions;
             return this;
         }
@@ -156,17 +206,13 @@ public class Transaction implements Serializable {
         public Transaction build() throws IOException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
             double spentAmount = 0;
 
-            Iterator<TransactionRecord> iterator = unspentTransactions.iterator();
-
-            while (iterator.hasNext()) {
-                TransactionRecord record = iterator.next();
-                if (record.getRecipient().equals(senderPublicKey)) {
-                    spentAmount += record.getAmount();
-                    inputs.add(record);
-                }
+            // only the records addressed to the sender are visited
+            for (TransactionRecord record : unspentTransactions.getRecordsOf(senderPublicKey)) {
                 if (spentAmount >= totalSpentAmount) {
                     break;
                 }
+                spentAmount += record.getAmount();
+                inputs.add(record);
             }
 
             // send the change back
@@ -190,27 +236,76 @@ public class Transaction implements Serializable {
             Signature sig = Signature.getInstance("SHA1withRSA");
             sig.initSign(senderPrivateKey);
 
-            byte[] data = transformToByteArray(transaction);
-            sig.update(data);
+            sig.update(transaction.getEncoding());
 
             return sig.sign();
         }
 
     }
 
-    private static byte[] transformToByteArray(Transaction transaction) throws IOException {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        ObjectOutputStream outputStream = new ObjectOutputStream(byteArrayOutputStream);
+    /**
+     * The canonical binary form of the transaction: type, id, inputs, outputs and the sender's key.
+     * This is what the signature is computed on, so it does not contain the signature.
+     */
+    byte[] getEncoding() {
+        byte[] result = encoding;
+        if (result == null) {
+            try {
+                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+                DataOutputStream outputStream = new DataOutputStream(byteArrayOutputStream);
+
+                outputStream.writeByte(type.ordinal());
+                outputStream.writeLong(id);
+                writeRecords(outputStream, inputs);
+                writeRecords(outputStream, outputs);
+                TransactionRecord.writeKey(outputStream, senderPublicKey);
+                outputStream.flush();
+
+                result = byteArrayOutputStream.toByteArray();
+            } catch (IOException e) {
+                // a ByteArrayOutputStream does not throw
+                throw new IllegalStateException("Cannot encode the transaction.", e);
+            }
+            encoding = result;
+        }
+        return result;
+    }
 
-        outputStream.writeObject(transaction.toString());
+    private static void writeRecords(DataOutputStream outputStream, List<TransactionRecord> records) throws IOException {
+        outputStream.writeInt(records.size());
+        for (TransactionRecord record : records) {
+            record.writeTo(outputStream);
+        }
+    }
+
+    /**
+     * The SHA-256 of the encoding. The returned array is shared and should not be modified.
+     */
+    byte[] txid() {
+        byte[] result = txid;
+        if (result == null) {
+            result = BlockHeader.sha256().digest(getEncoding());
+            txid = result;
+        }
+        return result;
+    }
 
-        return byteArrayOutputStream.toByteArray();
+    public byte[] getTxid() {
+        return txid().clone();
     }
 
     public TransactionType getType() {
         return type;
     }
 
+    /**
+     * Called when a block is read from the block store.
+     */
+    private void readObject(ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
+        inputStream.defaultReadObject();
+        ID_CREATOR.reserve(id);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -218,24 +313,13 @@ public class Transaction implements Serializable {
 
         Transaction that = (Transaction) o;
 
-        if (id != that.id) return false;
-        if (inputs != null ? !inputs.equals(that.inputs) : that.inputs != null) return false;
-        if (outputs != null ? !outputs.equals(that.outputs) : that.outputs != null) return false;
-        if (senderPublicKey != null ? !senderPublicKey.equals(that.senderPublicKey) : that.senderPublicKey != null)
-            return false;
-        if (!Arrays.equals(signature, that.signature)) return false;
-
-        return true;
+        return Arrays.equals(txid(), that.txid());
     }
 
     @Override
     public int hashCode() {
-        int result = (int) (id ^ (id >>> 32));
-        result = 31 * result + (inputs != null ? inputs.hashCode() : 0);
-        result = 31 * result + (outputs != null ? outputs.hashCode() : 0);
-        result = 31 * result + (signature != null ? Arrays.hashCode(signature) : 0);
-        result = 31 * result + (senderPublicKey != null ? senderPublicKey.hashCode() : 0);
-        return result;
+        byte[] hash = txid();
+        return (hash[0] & 0xff) << 24 | (hash[1] & 0xff) << 16 | (hash[2] & 0xff) << 8 | (hash[3] & 0xff);
     }
 
     @Override
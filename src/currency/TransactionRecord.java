@@ -1,31 +1,48 @@
 package currency;
 
-import currency.utils.PublicAndPrivateKeyUtils;
-
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents an input or an output in a transaction.
  * Created by Sorin Nutu on 4/19/2015.
  */
 public class TransactionRecord implements Serializable {
-    private static final AtomicLong ID_CREATOR = new AtomicLong(0);
+    private static final IdCreator ID_CREATOR = new IdCreator();
 
     private long id;
     private PublicKey sender;
     private PublicKey recipient;
     private double amount;
+    // the keys are large, so the hash code is computed only once; 0 means it was not computed yet
+    private transient int hash;
 
     public TransactionRecord(PublicKey sender, PublicKey recipient, double amount) {
-        this.id = ID_CREATOR.getAndIncrement();
+        this.id = ID_CREATOR.next();
         this.sender = sender;
         this.recipient = recipient;
         this.amount = amount;
     }
 
+    /**
+     * Restores a record that was saved in a snapshot, keeping its id.
+     */
+    TransactionRecord(long id, PublicKey sender, PublicKey recipient, double amount) {
+        this.id = id;
+        ID_CREATOR.reserve(id);
+        this.sender = sender;
+        this.recipient = recipient;
+        this.amount = amount;
+    }
+
+    public long getId() {
+        return id;
+    }
+
     public PublicKey getSender() {
         return sender;
     }
@@ -38,6 +55,34 @@ public class TransactionRecord implements Serializable {
         return amount;
     }
 
+    /**
+     * Writes the record in the canonical encoding of the transaction that contains it.
+     */
+    void writeTo(DataOutputStream outputStream) throws IOException {
+        outputStream.writeLong(id);
+        writeKey(outputStream, sender);
+        writeKey(outputStream, recipient);
+        outputStream.writeLong(Double.doubleToLongBits(amount));
+    }
+
+    static void writeKey(DataOutputStream outputStream, PublicKey key) throws IOException {
+        if (key == null) {
+            outputStream.writeInt(-1);
+        } else {
+            byte[] encoded = key.getEncoded();
+            outputStream.writeInt(encoded.length);
+            outputStream.write(encoded);
+        }
+    }
+
+    /**
+     * The records of the stored blocks keep their ids, which are reserved.
+     */
+    private void readObject(ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
+        inputStream.defaultReadObject();
+        ID_CREATOR.reserve(id);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -55,6 +100,9 @@ public class TransactionRecord implements Serializable {
 
     @Override
     public int hashCode() {
+        if (hash != 0) {
+            return hash;
+        }
         int result;
         long temp;
         result = (int) (id ^ (id >>> 32));
@@ -62,6 +110,7 @@ public class TransactionRecord implements Serializable {
         result = 31 * result + (recipient != null ? recipient.hashCode() : 0);
         temp = Double.doubleToLongBits(amount);
         result = 31 * result + (int) (temp ^ (temp >>> 32));
+        hash = result;
         return result;
     }
 
@@ -0,0 +1,30 @@
+package currency;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The part of a client's state that cannot be rebuilt from the blocks, sent to a node that synchronized its chain:
+ * the unspent records that were not created by a block (the money introduced by the bootstrap node) and the
+ * transactions that wait to be added in a block.
+ */
+public class TransactionsWithoutBlockWrapper implements Serializable {
+    private List<TransactionRecord> recordsWithoutBlock;
+    private List<Transaction> transactionsWithoutBlock;
+
+    public TransactionsWithoutBlockWrapper(List<TransactionRecord> recordsWithoutBlock,
+                                           List<Transaction> transactionsWithoutBlock) {
+        // copy the lists, the client changes them while the wrapper is serialized
+        this.recordsWithoutBlock = new ArrayList<>(recordsWithoutBlock);
+        this.transactionsWithoutBlock = new ArrayList<>(transactionsWithoutBlock);
+    }
+
+    public List<TransactionRecord> getRecordsWithoutBlock() {
+        return recordsWithoutBlock;
+    }
+
+    public List<Transaction> getTransactionsWithoutBlock() {
+        return transactionsWithoutBlock;
+    }
+}
@@ -0,0 +1,129 @@
+package currency;
+
+import java.io.Serializable;
+import java.security.PublicKey;
+import java.util.*;
+
+/**
+ * The set of unspent transaction records (UTXO set) of a client.
+ *
+ * Besides the set of records, it keeps a secondary index by recipient. For every recipient it stores the records
+ * addressed to it and their total amount, so a balance query does not scan the whole set and choosing the inputs
+ * for a new transaction only visits the records of the sender.
+ *
+ * The set is not synchronized.
+ */
+public class UnspentTransactionSet extends AbstractSet<TransactionRecord> implements Serializable {
+    private Set<TransactionRecord> records;
+    private Map<PublicKey, Owner> owners;
+
+    public UnspentTransactionSet() {
+        records = new HashSet<>();
+        owners = new HashMap<>();
+    }
+
+    public UnspentTransactionSet(Collection<TransactionRecord> records) {
+        this();
+        addAll(records);
+    }
+
+    @Override
+    public boolean add(TransactionRecord record) {
+        if (!records.add(record)) {
+            return false;
+        }
+        Owner owner = owners.get(record.getRecipient());
+        if (owner == null) {
+            owner = new Owner();
+            owners.put(record.getRecipient(), owner);
+        }
+        owner.records.add(record);
+        owner.balance += record.getAmount();
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!records.remove(o)) {
+            return false;
+        }
+        removeFromOwner((TransactionRecord) o);
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return records.contains(o);
+    }
+
+    @Override
+    public int size() {
+        return records.size();
+    }
+
+    @Override
+    public void clear() {
+        records.clear();
+        owners.clear();
+    }
+
+    @Override
+    public Iterator<TransactionRecord> iterator() {
+        final Iterator<TransactionRecord> iterator = records.iterator();
+        return new Iterator<TransactionRecord>() {
+            private TransactionRecord current;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public TransactionRecord next() {
+                current = iterator.next();
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+                removeFromOwner(current);
+            }
+        };
+    }
+
+    /**
+     * @return the sum of the records addressed to the given key
+     */
+    public double getBalance(PublicKey recipient) {
+        Owner owner = owners.get(recipient);
+        return owner == null ? 0 : owner.balance;
+    }
+
+    /**
+     * @return the records addressed to the given key, in the order they were added; the collection cannot be modified
+     */
+    public Collection<TransactionRecord> getRecordsOf(PublicKey recipient) {
+        Owner owner = owners.get(recipient);
+        if (owner == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableCollection(owner.records);
+    }
+
+    private void removeFromOwner(TransactionRecord record) {
+        Owner owner = owners.get(record.getRecipient());
+        owner.records.remove(record);
+        if (owner.records.isEmpty()) {
+            // start again from 0 so the rounding errors do not accumulate
+            owners.remove(record.getRecipient());
+        } else {
+            owner.balance -= record.getAmount();
+        }
+    }
+
+    private static class Owner implements Serializable {
+        private Set<TransactionRecord> records = new LinkedHashSet<>();
+        private double balance;
+    }
+}
@@ -0,0 +1,164 @@
+package currency;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.*;
+
+/**
+ * A copy of the unspent transaction records at a given block on the chain, written on disk so a node that
+ * restarts does not have to connect every block again. Only the blocks after the snapshot's tip are replayed.
+ *
+ * The public keys are large and the same key appears in many records, so every distinct key is written once in
+ * a key table. The records that follow have a fixed size and refer to the keys by their index:
+ *
+ *     header:  magic | version | tip block id | tip height | key count | record count
+ *     keys:    length | X.509 encoding, for every key
+ *     records: record id | sender index | recipient index | amount
+ *
+ * The file is read through a memory mapping. It is written in a temporary file that replaces the old snapshot
+ * only when it is complete, so a node that stops while writing keeps the previous snapshot.
+ */
+public class UtxoSnapshot {
+    private static final int MAGIC = 0x5554584f;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + BlockId.LENGTH + 8 + 4 + 4;
+    private static final int RECORD_SIZE = 8 + 4 + 4 + 8;
+    private static final String KEY_ALGORITHM = "RSA";
+
+    private final BlockId tipId;
+    private final long tipHeight;
+    private final UnspentTransactionSet records;
+
+    private UtxoSnapshot(BlockId tipId, long tipHeight, UnspentTransactionSet records) {
+        this.tipId = tipId;
+        this.tipHeight = tipHeight;
+        this.records = records;
+    }
+
+    /**
+     * Writes the records as the unspent set after the given block.
+     */
+    public static void write(File file, Block tip, Collection<TransactionRecord> records) throws IOException {
+        Map<PublicKey, Integer> keyIndexes = new LinkedHashMap<>();
+        for (TransactionRecord record : records) {
+            indexOf(keyIndexes, record.getSender());
+            indexOf(keyIndexes, record.getRecipient());
+        }
+
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.write(tip.getId().toByteArray());
+            output.writeLong(tip.getHeight());
+            output.writeInt(keyIndexes.size());
+            output.writeInt(records.size());
+
+            for (PublicKey key : keyIndexes.keySet()) {
+                byte[] encoded = key.getEncoded();
+                output.writeInt(encoded.length);
+                output.write(encoded);
+            }
+
+            for (TransactionRecord record : records) {
+                output.writeLong(record.getId());
+                output.writeInt(indexOf(keyIndexes, record.getSender()));
+                output.writeInt(indexOf(keyIndexes, record.getRecipient()));
+                output.writeLong(Double.doubleToLongBits(record.getAmount()));
+            }
+        }
+
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the snapshot or null if the file does not exist
+     * @throws IOException if the file cannot be read or it is not a complete snapshot
+     */
+    public static UtxoSnapshot load(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("The snapshot " + file + " is truncated.");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("The file " + file + " is not a snapshot of the unspent transactions.");
+            }
+            byte[] idBytes = new byte[BlockId.LENGTH];
+            buffer.get(idBytes);
+            BlockId tipId = new BlockId(idBytes);
+            long tipHeight = buffer.getLong();
+            int keyCount = buffer.getInt();
+            int recordCount = buffer.getInt();
+
+            KeyFactory keyFactory = KeyFactory.getInstance(KEY_ALGORITHM);
+            PublicKey[] keys = new PublicKey[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                byte[] encoded = new byte[buffer.getInt()];
+                buffer.get(encoded);
+                keys[i] = keyFactory.generatePublic(new X509EncodedKeySpec(encoded));
+            }
+
+            if (buffer.remaining() != (long) recordCount * RECORD_SIZE) {
+                throw new IOException("The snapshot " + file + " does not have " + recordCount + " records.");
+            }
+
+            UnspentTransactionSet records = new UnspentTransactionSet();
+            for (int i = 0; i < recordCount; i++) {
+                long id = buffer.getLong();
+                PublicKey sender = keyAt(keys, buffer.getInt());
+                PublicKey recipient = keyAt(keys, buffer.getInt());
+                double amount = Double.longBitsToDouble(buffer.getLong());
+                records.add(new TransactionRecord(id, sender, recipient, amount));
+            }
+
+            return new UtxoSnapshot(tipId, tipHeight, records);
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException | RuntimeException e) {
+            // a corrupted key or a length that points outside of the file
+            throw new IOException("The snapshot " + file + " cannot be read.", e);
+        }
+    }
+
+    public BlockId getTipId() {
+        return tipId;
+    }
+
+    public long getTipHeight() {
+        return tipHeight;
+    }
+
+    public UnspentTransactionSet getRecords() {
+        return records;
+    }
+
+    private static int indexOf(Map<PublicKey, Integer> keyIndexes, PublicKey key) {
+        if (key == null) {
+            return -1;
+        }
+        Integer index = keyIndexes.get(key);
+        if (index == null) {
+            index = keyIndexes.size();
+            keyIndexes.put(key, index);
+        }
+        return index;
+    }
+
+    private static PublicKey keyAt(PublicKey[] keys, int index) {
+        return index == -1 ? null : keys[index];
+    }
+}
@@ -0,0 +1,155 @@
+package currency;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the currency objects written by WireEncoder. A decoder should be used for a single message, because
+ * the keys are referred by their index in the message.
+ */
+public class WireDecoder extends DataInputStream {
+    private static final String KEY_ALGORITHM = "RSA";
+    // the lengths are checked, so a corrupted message does not allocate a large array
+    private static final int MAX_ARRAY_LENGTH = 16 * 1024 * 1024;
+
+    private final List<PublicKey> keys;
+    private KeyFactory keyFactory;
+
+    public WireDecoder(InputStream inputStream) {
+        super(inputStream);
+        keys = new ArrayList<>();
+    }
+
+    public BlockId readBlockId() throws IOException {
+        return new BlockId(readLong(), readLong(), readLong(), readLong());
+    }
+
+    public BlockHeader readBlockHeader() throws IOException {
+        byte[] bytes = new byte[BlockHeader.HEADER_LENGTH];
+        readFully(bytes);
+        return new BlockHeader(bytes);
+    }
+
+    public Block readBlock() throws IOException {
+        BlockId previousBlockId = readBlockId();
+        long previousBlockNonce = readLong();
+        long nonce = readLong();
+        long height = readLong();
+        long minerId = readLong();
+        return new Block(previousBlockId, previousBlockNonce, nonce, height, minerId, readTransactions());
+    }
+
+    public Transaction readTransaction() throws IOException {
+        long id = readLong();
+        int typeOrdinal = readUnsignedByte();
+        if (typeOrdinal >= TransactionType.values().length) {
+            throw new IOException("Unknown transaction type " + typeOrdinal + ".");
+        }
+        TransactionType type = TransactionType.values()[typeOrdinal];
+        List<TransactionRecord> inputs = readRecords();
+        List<TransactionRecord> outputs = readRecords();
+        PublicKey senderPublicKey = readKey();
+        byte[] signature = readByteArray();
+        return new Transaction(id, type, inputs, outputs, senderPublicKey, signature);
+    }
+
+    public List<Transaction> readTransactions() throws IOException {
+        int count = readLength();
+        List<Transaction> transactions = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            transactions.add(readTransaction());
+        }
+        return transactions;
+    }
+
+    public TransactionRecord readRecord() throws IOException {
+        long id = readLong();
+        PublicKey sender = readKey();
+        PublicKey recipient = readKey();
+        double amount = readDouble();
+        return new TransactionRecord(id, sender, recipient, amount);
+    }
+
+    public List<TransactionRecord> readRecords() throws IOException {
+        int count = readLength();
+        List<TransactionRecord> records = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            records.add(readRecord());
+        }
+        return records;
+    }
+
+    public TransactionsWithoutBlockWrapper readTransactionsWithoutBlock() throws IOException {
+        List<TransactionRecord> records = readRecords();
+        return new TransactionsWithoutBlockWrapper(records, readTransactions());
+    }
+
+    public PublicKey readKey() throws IOException {
+        int index = readInt();
+        if (index == WireEncoder.NULL) {
+            return null;
+        }
+        if (index < keys.size()) {
+            return keys.get(index);
+        }
+        if (index != keys.size()) {
+            throw new IOException("The key " + index + " was not defined.");
+        }
+
+        BigInteger modulus = readBigInteger();
+        BigInteger exponent = readBigInteger();
+        try {
+            if (keyFactory == null) {
+                keyFactory = KeyFactory.getInstance(KEY_ALGORITHM);
+            }
+            PublicKey key = keyFactory.generatePublic(new RSAPublicKeySpec(modulus, exponent));
+            keys.add(key);
+            return key;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot decode the public key.", e);
+        }
+    }
+
+    /**
+     * @return the array written by WireEncoder.writeByteArray, which may be null
+     */
+    public byte[] readByteArray() throws IOException {
+        int length = readInt();
+        if (length == WireEncoder.NULL) {
+            return null;
+        }
+        if (length < 0 || length > MAX_ARRAY_LENGTH) {
+            throw new IOException("Invalid array length " + length + ".");
+        }
+        byte[] bytes = new byte[length];
+        readFully(bytes);
+        return bytes;
+    }
+
+    private BigInteger readBigInteger() throws IOException {
+        byte[] bytes = readByteArray();
+        if (bytes == null || bytes.length == 0) {
+            throw new IOException("Missing number in the public key.");
+        }
+        return new BigInteger(bytes);
+    }
+
+    /**
+     * Reads the size of a list, which should not be negative.
+     */
+    public int readLength() throws IOException {
+        int length = readInt();
+        if (length < 0) {
+            throw new IOException("Invalid length " + length + ".");
+        }
+        return length;
+    }
+}
@@ -0,0 +1,127 @@
+package currency;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the currency objects in the binary wire format, read by WireDecoder.
+ *
+ * The public keys are the largest part of a block or a transaction and the same few keys appear in many records.
+ * A key is written only the first time it appears in a message, as the RSA modulus and exponent; after that,
+ * only its index is written. An encoder should be used for a single message.
+ */
+public class WireEncoder extends DataOutputStream {
+    static final int NULL = -1;
+
+    private final Map<PublicKey, Integer> keyIndexes;
+
+    public WireEncoder(OutputStream outputStream) {
+        super(outputStream);
+        keyIndexes = new HashMap<>();
+    }
+
+    public void writeBlockId(BlockId blockId) throws IOException {
+        writeLong(blockId.getFirst());
+        writeLong(blockId.getSecond());
+        writeLong(blockId.getThird());
+        writeLong(blockId.getFourth());
+    }
+
+    public void writeBlockHeader(BlockHeader header) throws IOException {
+        write(header.toByteArray());
+    }
+
+    public void writeBlock(Block block) throws IOException {
+        writeBlockId(block.getPreviousBlockId());
+        writeLong(block.getPreviousBlockNonce());
+        writeLong(block.getNonce());
+        writeLong(block.getHeight());
+        writeLong(block.getMinerId());
+        writeTransactions(block.getTransactions());
+    }
+
+    public void writeTransaction(Transaction transaction) throws IOException {
+        writeLong(transaction.getId());
+        writeByte(transaction.getType().ordinal());
+        writeRecords(transaction.getInputs());
+        writeRecords(transaction.getOutputs());
+        writeKey(transaction.getSenderPublicKey());
+        writeByteArray(transaction.getSignature());
+    }
+
+    public void writeTransactions(List<Transaction> transactions) throws IOException {
+        writeInt(transactions.size());
+        for (Transaction transaction : transactions) {
+            writeTransaction(transaction);
+        }
+    }
+
+    public void writeRecord(TransactionRecord record) throws IOException {
+        writeLong(record.getId());
+        writeKey(record.getSender());
+        writeKey(record.getRecipient());
+        writeDouble(record.getAmount());
+    }
+
+    public void writeRecords(List<TransactionRecord> records) throws IOException {
+        writeInt(records.size());
+        for (TransactionRecord record : records) {
+            writeRecord(record);
+        }
+    }
+
+    public void writeTransactionsWithoutBlock(TransactionsWithoutBlockWrapper wrapper) throws IOException {
+        writeRecords(wrapper.getRecordsWithoutBlock());
+        writeTransactions(wrapper.getTransactionsWithoutBlock());
+    }
+
+    /**
+     * Writes NULL for a null key, the index of a key that was already written or the next index followed by the
+     * key's modulus and exponent.
+     */
+    public void writeKey(PublicKey key) throws IOException {
+        if (key == null) {
+            writeInt(NULL);
+            return;
+        }
+
+        Integer index = keyIndexes.get(key);
+        if (index != null) {
+            writeInt(index);
+            return;
+        }
+        if (!(key instanceof RSAPublicKey)) {
+            throw new IOException("Only RSA keys can be encoded, received " + key.getAlgorithm() + ".");
+        }
+
+        index = keyIndexes.size();
+        keyIndexes.put(key, index);
+        writeInt(index);
+        RSAPublicKey rsaKey = (RSAPublicKey) key;
+        writeBigInteger(rsaKey.getModulus());
+        writeBigInteger(rsaKey.getPublicExponent());
+    }
+
+    /**
+     * Writes the length of the array (NULL for a null array) and its content.
+     */
+    public void writeByteArray(byte[] bytes) throws IOException {
+        if (bytes == null) {
+            writeInt(NULL);
+        } else {
+            writeInt(bytes.length);
+            write(bytes);
+        }
+    }
+
+    private void writeBigInteger(BigInteger value) throws IOException {
+        writeByteArray(value.toByteArray());
+    }
+}
@@ -1,6 +1,7 @@
 package gui;
 
 import currency.Block;
+import currency.BlockHeader;
 import currency.Client;
 import currency.Transaction;
 import currency.utils.PublicAndPrivateKeyUtils;
@@ -39,7 +40,7 @@ public class Presenter implements Observer, ActionListener {
 
     private Client client;
     private View view;
-    private Block rootBlock;
+    private BlockHeader rootBlock;
 
     public Presenter(String ip, int port, String bootstrapIp, int bootstrapPort) {
         try {
@@ -57,7 +58,7 @@ public class Presenter implements Observer, ActionListener {
         view.updateBalance(client.getBalance());
         view.setSendButtonActionListener(this);
 
-        rootBlock = client.getGenesisBlock();
+        rootBlock = client.getGenesisHeader();
         updateBlockchain();
     }
 
@@ -78,7 +79,7 @@ public class Presenter implements Observer, ActionListener {
                     break;
                 case BLOCK:
                     Block block = (Block) message.getData();
-                    desc = "Block " + block.hashCode() + " mined by node " + block.getMinerId() + " with " + block.getTransactions().size() + " transactions.\n";
+                    desc = "Block " + block.getId() + " mined by node " + block.getMinerId() + " with " + block.getTransactions().size() + " transactions.\n";
                     view.appendReceivedBlock(desc);
                     break;
                 case BLOCKCHAIN:
@@ -99,11 +100,11 @@ public class Presenter implements Observer, ActionListener {
     }
 
     private void updateBlockchain() {
-        DefaultTreeForTreeLayout<Block> treeForTreeLayout = new DefaultTreeForTreeLayout<>(rootBlock);
+        DefaultTreeForTreeLayout<BlockHeader> treeForTreeLayout = new DefaultTreeForTreeLayout<>(rootBlock);
         addEdgesDepthFirst(treeForTreeLayout, rootBlock);
 
-        TreeLayout<Block> layout = new TreeLayout<>(treeForTreeLayout, new BlockExtentProvider(),
-                new DefaultConfiguration<Block>(25, 10, Configuration.Location.Left));
+        TreeLayout<BlockHeader> layout = new TreeLayout<>(treeForTreeLayout, new BlockExtentProvider(),
+                new DefaultConfiguration<BlockHeader>(25, 10, Configuration.Location.Left));
 
         // put the tree layout on a swing container that knows how to paint the tree
         TreePane pane = new TreePane(layout);
@@ -116,8 +117,8 @@ public class Presenter implements Observer, ActionListener {
      * @param treeLayout
      * @param root
      */
-    private void addEdgesDepthFirst(DefaultTreeForTreeLayout<Block> treeLayout, Block root) {
-        for (Block child : root.getChildren()) {
+    private void addEdgesDepthFirst(DefaultTreeForTreeLayout<BlockHeader> treeLayout, BlockHeader root) {
+        for (BlockHeader child : client.getChildren(root)) {
             treeLayout.addChild(root, child);
             addEdgesDepthFirst(treeLayout, child);
         }
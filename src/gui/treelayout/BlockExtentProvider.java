@@ -1,19 +1,19 @@
 package gui.treelayout;
 
-import currency.Block;
+import currency.BlockHeader;
 import org.abego.treelayout.NodeExtentProvider;
 
 /**
  * Created by Sorin Nutu on 6/14/2015.
  */
-public class BlockExtentProvider implements NodeExtentProvider<Block> {
+public class BlockExtentProvider implements NodeExtentProvider<BlockHeader> {
     @Override
-    public double getWidth(Block block) {
+    public double getWidth(BlockHeader block) {
         return 100;
     }
 
     @Override
-    public double getHeight(Block block) {
+    public double getHeight(BlockHeader block) {
         return 20;
     }
 }
@@ -11,7 +11,7 @@ import java.util.Map;
 
 import javax.swing.*;
 
-import currency.Block;
+import currency.BlockHeader;
 import org.abego.treelayout.TreeForTreeLayout;
 import org.abego.treelayout.TreeLayout;
 
@@ -21,17 +21,17 @@ import org.abego.treelayout.TreeLayout;
  * @author Udo Borkowski (ub@abego.org)
  */
 public class TreePane extends JComponent {
-    private final TreeLayout<Block> treeLayout;
+    private final TreeLayout<BlockHeader> treeLayout;
 
-    private TreeForTreeLayout<Block> getTree() {
+    private TreeForTreeLayout<BlockHeader> getTree() {
         return treeLayout.getTree();
     }
 
-    private Iterable<Block> getChildren(Block parent) {
+    private Iterable<BlockHeader> getChildren(BlockHeader parent) {
         return getTree().getChildren(parent);
     }
 
-    private Rectangle2D.Double getBoundsOfNode(Block node) {
+    private Rectangle2D.Double getBoundsOfNode(BlockHeader node) {
         return treeLayout.getNodeBounds().get(node);
     }
 
@@ -41,7 +41,7 @@ public class TreePane extends JComponent {
      *
      * @param treeLayout
      */
-    public TreePane(final TreeLayout<Block> treeLayout) {
+    public TreePane(final TreeLayout<BlockHeader> treeLayout) {
         this.treeLayout = treeLayout;
 
         Dimension size = treeLayout.getBounds().getBounds().getSize();
@@ -53,12 +53,12 @@ public class TreePane extends JComponent {
                 int x = e.getX();
                 int y = e.getY();
 
-                for (Map.Entry<Block, Rectangle2D.Double> box : treeLayout.getNodeBounds().entrySet()) {
+                for (Map.Entry<BlockHeader, Rectangle2D.Double> box : treeLayout.getNodeBounds().entrySet()) {
                     Rectangle2D.Double rectangle = box.getValue();
                     if (x >= rectangle.getX() && x <= rectangle.getX() + rectangle.getWidth() &&
                             y >= rectangle.getY() && y <= rectangle.getY() + rectangle.getHeight()) {
-                        String message = "Block " + box.getKey().hashCode() + ", mined by node " + box.getKey().getMinerId() + "\n";
-                        message += "It contains " + box.getKey().getTransactions().size() + " transactions.";
+                        String message = "Block " + box.getKey().getId() + ", mined by node " + box.getKey().getMinerId() + "\n";
+                        message += "Its height is " + box.getKey().getHeight() + ".";
                         JOptionPane.showMessageDialog(TreePane.this, message);
                     }
                 }
@@ -74,12 +74,12 @@ public class TreePane extends JComponent {
     private final static Color BORDER_COLOR = Color.darkGray;
     private final static Color TEXT_COLOR = Color.black;
 
-    private void paintEdges(Graphics g, Block parent) {
+    private void paintEdges(Graphics g, BlockHeader parent) {
         if (!getTree().isLeaf(parent)) {
             Rectangle2D.Double b1 = getBoundsOfNode(parent);
             double x1 = b1.getCenterX();
             double y1 = b1.getCenterY();
-            for (Block child : getChildren(parent)) {
+            for (BlockHeader child : getChildren(parent)) {
                 Rectangle2D.Double b2 = getBoundsOfNode(child);
                 g.drawLine((int) x1, (int) y1, (int) b2.getCenterX(),
                         (int) b2.getCenterY());
@@ -89,7 +89,7 @@ public class TreePane extends JComponent {
         }
     }
 
-    private void paintBox(Graphics g, Block textInBox) {
+    private void paintBox(Graphics g, BlockHeader textInBox) {
         // draw the box in the background
         g.setColor(BOX_COLOR);
         Rectangle2D.Double box = getBoundsOfNode(textInBox);
@@ -101,7 +101,7 @@ public class TreePane extends JComponent {
 
         // draw the text on top of the box (possibly multiple lines)
         g.setColor(TEXT_COLOR);
-        String[] lines = ("" + textInBox.hashCode()).split("\n");
+        String[] lines = ("" + textInBox.getId()).split("\n");
         FontMetrics m = getFontMetrics(getFont());
         int x = (int) box.x + ARC_SIZE / 2;
         int y = (int) box.y + m.getAscent() + m.getLeading() + 1;
@@ -118,7 +118,7 @@ public class TreePane extends JComponent {
         paintEdges(g, getTree().getRoot());
 
         // paint the boxes
-        for (Block textInBox : treeLayout.getNodeBounds().keySet()) {
+        for (BlockHeader textInBox : treeLayout.getNodeBounds().keySet()) {
             paintBox(g, textInBox);
         }
     }
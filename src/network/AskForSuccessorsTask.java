@@ -0,0 +1,47 @@
+package network;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+public class AskForSuccessorsTask extends MaintenanceTask {
+    private static final long INTERVAL_MILLIS = 6000;
+
+    private Node correspondingNode;
+    private Dispatcher dispatcher;
+    private Logger networkLogger;
+
+    public AskForSuccessorsTask(Node correspondingNode, Dispatcher dispatcher) {
+        super("ask for successors", INTERVAL_MILLIS);
+        this.correspondingNode = correspondingNode;
+        this.networkLogger = correspondingNode.getNetworkLogger();
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    protected CompletableFuture<Boolean> runOnce() {
+        if (correspondingNode.getSuccessor().equals(correspondingNode.getNodeInfo())) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        // create a reference for every message, the dispatcher may return the same message with the RETRY tag
+        // and the next message that will be sent will be incorrect
+        Message message = new Message(MessageType.GET_SUCCESSOR, null);
+        networkLogger.info("Trimite mesaj catre " + correspondingNode.getFingerTable().get(0) + " pentru a-l intreba de succesor.");
+        return dispatcher.sendMessage(message, true, 0).thenApply(new Function<Message, Boolean>() {
+            @Override
+            public Boolean apply(Message answer) {
+                networkLogger.info("Succesorul succesorului raspuns: " + answer.getType());
+                if (answer.getType() == MessageType.RETRY) {
+                    // the successor is replaced by the stabilize task
+                    return true;
+                }
+                NodeInfo nextSuccessor = (NodeInfo) answer.getObject();
+                boolean changed = nextSuccessor != null && !nextSuccessor.equals(correspondingNode.getNextSuccessor());
+                correspondingNode.setNextSuccessor(nextSuccessor);
+                networkLogger.info("Succesorul succesorului este " + nextSuccessor);
+                return changed;
+            }
+        });
+    }
+}
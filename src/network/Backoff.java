@@ -0,0 +1,32 @@
+package network;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter: the delay doubles with every failed attempt, up to a maximum, and it is spread
+ * by +/- 20% so the nodes that lost the same peer do not retry at the same moment.
+ */
+public class Backoff {
+    private static final double JITTER = 0.2;
+
+    private Backoff() {
+    }
+
+    /**
+     * @param failures the number of consecutive failures, at least 1
+     * @return the delay before the next attempt, in milliseconds
+     */
+    public static long delay(int failures, long minMillis, long maxMillis) {
+        // 2^30 is already larger than any maximum that is used
+        int exponent = Math.min(Math.max(failures, 1) - 1, 30);
+        return jitter(Math.min(minMillis << exponent, maxMillis));
+    }
+
+    /**
+     * @return the delay spread by +/- 20%
+     */
+    public static long jitter(long millis) {
+        double jitter = 1 + JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return (long) (millis * jitter);
+    }
+}
@@ -0,0 +1,170 @@
+package network;
+
+import currency.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes the messages in a compact binary format, without class descriptors:
+ *
+ *     version | message type | tag | object
+ *
+ * The object starts with a byte that tells its kind (null, long, node info, block, list ...), followed by its
+ * fields; the lists and the broadcast wrappers contain other objects. The currency objects are written by
+ * WireEncoder, which writes every public key only once per message. An object of another class cannot be
+ * encoded: the message is refused when it is sent, so a peer never deserializes classes chosen by the sender.
+ *
+ * The version is increased when the format changes; a message with another version is refused.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    public static final int VERSION = 1;
+
+    private static final int NULL = 0;
+    private static final int LONG = 1;
+    private static final int NODE_INFO = 2;
+    private static final int BLOCK_ID = 3;
+    private static final int BLOCK_HEADER = 4;
+    private static final int BLOCK = 5;
+    private static final int TRANSACTION = 6;
+    private static final int BROADCAST = 7;
+    private static final int LIST = 8;
+    private static final int TRANSACTIONS_WITHOUT_BLOCK = 9;
+    private static final int STRING = 10;
+
+    private static final MessageType[] TYPES = MessageType.values();
+
+    @Override
+    public byte[] encode(Message message) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(256);
+        WireEncoder encoder = new WireEncoder(byteArrayOutputStream);
+
+        encoder.writeByte(VERSION);
+        encoder.writeByte(message.getType().ordinal());
+        encoder.writeInt(message.getTag());
+        writeObject(encoder, message.getObject());
+        encoder.flush();
+
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    @Override
+    public Message decode(byte[] data, int length) throws IOException {
+        WireDecoder decoder = new WireDecoder(new ByteArrayInputStream(data, 0, length));
+
+        int version = decoder.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported message version " + version + ", expected " + VERSION + ".");
+        }
+        int typeOrdinal = decoder.readUnsignedByte();
+        if (typeOrdinal >= TYPES.length) {
+            throw new IOException("Unknown message type " + typeOrdinal + ".");
+        }
+        MessageType type = TYPES[typeOrdinal];
+        int tag = decoder.readInt();
+        Object object = readObject(decoder);
+
+        if (decoder.available() > 0) {
+            throw new IOException("The message has " + decoder.available() + " bytes after its end.");
+        }
+        return new Message(type, object, tag);
+    }
+
+    private void writeObject(WireEncoder encoder, Object object) throws IOException {
+        if (object == null) {
+            encoder.writeByte(NULL);
+        } else if (object instanceof Long) {
+            encoder.writeByte(LONG);
+            encoder.writeLong((Long) object);
+        } else if (object instanceof NodeInfo) {
+            NodeInfo nodeInfo = (NodeInfo) object;
+            encoder.writeByte(NODE_INFO);
+            writeString(encoder, nodeInfo.getIp());
+            encoder.writeInt(nodeInfo.getPort());
+            encoder.writeLong(nodeInfo.getKey());
+        } else if (object instanceof BlockId) {
+            encoder.writeByte(BLOCK_ID);
+            encoder.writeBlockId((BlockId) object);
+        } else if (object instanceof BlockHeader) {
+            encoder.writeByte(BLOCK_HEADER);
+            encoder.writeBlockHeader((BlockHeader) object);
+        } else if (object instanceof Block) {
+            encoder.writeByte(BLOCK);
+            encoder.writeBlock((Block) object);
+        } else if (object instanceof Transaction) {
+            encoder.writeByte(TRANSACTION);
+            encoder.writeTransaction((Transaction) object);
+        } else if (object instanceof BroadcastMessageWrapper) {
+            BroadcastMessageWrapper wrapper = (BroadcastMessageWrapper) object;
+            encoder.writeByte(BROADCAST);
+            encoder.writeLong(wrapper.getStart());
+            encoder.writeLong(wrapper.getEnd());
+            writeObject(encoder, wrapper.getMessage());
+        } else if (object instanceof List) {
+            List<?> list = (List<?>) object;
+            encoder.writeByte(LIST);
+            encoder.writeInt(list.size());
+            for (Object element : list) {
+                writeObject(encoder, element);
+            }
+        } else if (object instanceof TransactionsWithoutBlockWrapper) {
+            encoder.writeByte(TRANSACTIONS_WITHOUT_BLOCK);
+            encoder.writeTransactionsWithoutBlock((TransactionsWithoutBlockWrapper) object);
+        } else if (object instanceof String) {
+            encoder.writeByte(STRING);
+            writeString(encoder, (String) object);
+        } else {
+            throw new IOException("Cannot encode an object of class " + object.getClass().getName() + ".");
+        }
+    }
+
+    private Object readObject(WireDecoder decoder) throws IOException {
+        int kind = decoder.readUnsignedByte();
+        switch (kind) {
+            case NULL:
+                return null;
+            case LONG:
+                return decoder.readLong();
+            case NODE_INFO:
+                String ip = readString(decoder);
+                int port = decoder.readInt();
+                return new NodeInfo(ip, port, decoder.readLong());
+            case BLOCK_ID:
+                return decoder.readBlockId();
+            case BLOCK_HEADER:
+                return decoder.readBlockHeader();
+            case BLOCK:
+                return decoder.readBlock();
+            case TRANSACTION:
+                return decoder.readTransaction();
+            case BROADCAST:
+                long start = decoder.readLong();
+                long end = decoder.readLong();
+                return new BroadcastMessageWrapper(start, end, readObject(decoder));
+            case LIST:
+                int size = decoder.readLength();
+                List<Object> list = new ArrayList<>(Math.min(size, 1024));
+                for (int i = 0; i < size; i++) {
+                    list.add(readObject(decoder));
+                }
+                return list;
+            case TRANSACTIONS_WITHOUT_BLOCK:
+                return decoder.readTransactionsWithoutBlock();
+            case STRING:
+                return readString(decoder);
+            default:
+                throw new IOException("Unknown object kind " + kind + ".");
+        }
+    }
+
+    private static void writeString(WireEncoder encoder, String value) throws IOException {
+        encoder.writeByteArray(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(WireDecoder decoder) throws IOException {
+        byte[] bytes = decoder.readByteArray();
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,49 @@
+package network;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * A task that periodically checks if the predecessor is alive. If it cannot receive messages,
+ * the dispatcher returns a RETRY message and the predecessor is set to null.
+ *
+ * The predecessor should be removed to let another node to be accepted as predecessor by the current node.
+ */
+public class CheckPredecessorTask extends MaintenanceTask {
+    private static final long INTERVAL_MILLIS = 5000;
+
+    private Node correspondingNode;
+    private Dispatcher dispatcher;
+    private Logger networkLogger;
+
+    public CheckPredecessorTask(Node correspondingNode, Dispatcher dispatcher) {
+        super("check predecessor", INTERVAL_MILLIS);
+        this.correspondingNode = correspondingNode;
+        this.networkLogger = correspondingNode.getNetworkLogger();
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    protected CompletableFuture<Boolean> runOnce() {
+        final NodeInfo predecessor = correspondingNode.getPredecessor();
+        networkLogger.info("Check predecessor, the current is: " + predecessor);
+        if (predecessor == null || predecessor.equals(correspondingNode.getNodeInfo())) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        Message message = new Message(MessageType.CHECK_PREDECESSOR, null);
+        networkLogger.info("Astept mesajul de la predecesor.");
+        return dispatcher.sendMessage(message, false, predecessor).thenApply(new Function<Message, Boolean>() {
+            @Override
+            public Boolean apply(Message answer) {
+                boolean dead = answer.getType() == MessageType.RETRY;
+                if (dead) {
+                    correspondingNode.setPredecessor(null);
+                }
+                networkLogger.info("Predecesorul meu este " + correspondingNode.getPredecessor() + " si mesajul este " + answer.getType());
+                return dead;
+            }
+        });
+    }
+}
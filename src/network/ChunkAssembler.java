@@ -0,0 +1,121 @@
+package network;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rebuilds the messages from the chunks received on a connection. The chunks of a transfer arrive in order,
+ * but they can be interleaved with the chunks of other transfers.
+ *
+ * A chunk that does not fit the transfer (a count or an index out of range, a count that changes) is refused
+ * with an IOException, which closes the connection: the frames after it cannot be trusted. The memory of a
+ * partial message grows with the received chunks, and all the partial messages of a connection hold at most
+ * maxPendingBytes.
+ *
+ * An assembler is used by a single reading thread.
+ */
+public class ChunkAssembler {
+    // a larger message is refused, so a broken sender cannot make the receiver allocate without a limit
+    public static final int MAX_CHUNKS = 1024;
+    public static final int MAX_MESSAGE_SIZE = MAX_CHUNKS * OutgoingTransfer.CHUNK_SIZE;
+    // two messages of the maximum size can be received at the same time
+    public static final long DEFAULT_MAX_PENDING_BYTES = 2L * MAX_MESSAGE_SIZE;
+
+    private final MessageCodec codec;
+    private final long maxPendingBytes;
+    private final Map<Integer, PartialMessage> partialMessages = new HashMap<>();
+    private long pendingBytes;
+
+    public ChunkAssembler(MessageCodec codec) {
+        this(codec, DEFAULT_MAX_PENDING_BYTES);
+    }
+
+    public ChunkAssembler(MessageCodec codec, long maxPendingBytes) {
+        this.codec = codec;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    /**
+     * @return the message, if this was its last chunk, or null if more chunks are expected
+     */
+    public Message add(MessageChunk chunk) throws IOException {
+        int count = chunk.getCount();
+        if (count < 1 || count > MAX_CHUNKS) {
+            throw new IOException("The message has " + count + " chunks, the limit is " + MAX_CHUNKS + ".");
+        }
+        if (chunk.getIndex() < 0 || chunk.getIndex() >= count) {
+            throw new IOException("Invalid chunk index " + chunk.getIndex() + " of " + count + ".");
+        }
+        if (chunk.getData().length > OutgoingTransfer.CHUNK_SIZE) {
+            throw new IOException("The chunk has " + chunk.getData().length + " bytes.");
+        }
+        if (count == 1) {
+            return codec.decode(chunk.getData(), chunk.getData().length);
+        }
+
+        if (pendingBytes + chunk.getData().length > maxPendingBytes) {
+            throw new IOException("The partial messages would hold more than " + maxPendingBytes + " bytes.");
+        }
+
+        PartialMessage partial = partialMessages.get(chunk.getTransferId());
+        if (partial == null) {
+            partial = new PartialMessage(count);
+            partialMessages.put(chunk.getTransferId(), partial);
+        }
+        if (count != partial.count) {
+            throw new IOException("The transfer " + chunk.getTransferId() + " has " + partial.count +
+                    " chunks, received a chunk of " + count + ".");
+        }
+        if (chunk.getIndex() != partial.received) {
+            throw new IOException("Expected the chunk " + partial.received + " of the transfer " +
+                    chunk.getTransferId() + ", received " + chunk.getIndex() + ".");
+        }
+        partial.append(chunk.getData());
+        pendingBytes += chunk.getData().length;
+
+        if (partial.received < partial.count) {
+            return null;
+        }
+        partialMessages.remove(chunk.getTransferId());
+        pendingBytes -= partial.length;
+        return codec.decode(partial.data, partial.length);
+    }
+
+    /**
+     * @return the number of messages that are not complete yet
+     */
+    public int getPendingTransfers() {
+        return partialMessages.size();
+    }
+
+    /**
+     * @return the number of bytes received for the messages that are not complete yet
+     */
+    public long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    private static class PartialMessage {
+        private final int count;
+        private byte[] data;
+        private int length;
+        private int received;
+
+        PartialMessage(int count) {
+            this.count = count;
+            this.data = new byte[OutgoingTransfer.CHUNK_SIZE];
+        }
+
+        void append(byte[] chunkData) {
+            if (length + chunkData.length > data.length) {
+                // every chunk except the last one is full
+                data = Arrays.copyOf(data, Math.min(2 * data.length, count * OutgoingTransfer.CHUNK_SIZE));
+            }
+            System.arraycopy(chunkData, 0, data, length, chunkData.length);
+            length += chunkData.length;
+            received++;
+        }
+    }
+}
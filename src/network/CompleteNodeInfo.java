@@ -1,31 +1,20 @@
 package network;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-
 /**
  * Created by Sorin Nutu on 2/27/2015.
  */
 public class CompleteNodeInfo {
     private NodeInfo nodeInfo;
-    private Streams streams;
+    private Connection connection;
 
-    public CompleteNodeInfo(NodeInfo nodeInfo, Streams streams) {
+    public CompleteNodeInfo(NodeInfo nodeInfo, Connection connection) {
         this.nodeInfo = nodeInfo;
-        this.streams = streams;
+        this.connection = connection;
     }
 
     public CompleteNodeInfo() {
     }
 
-    public ObjectOutputStream getOutputStream() {
-        return streams.getObjectOutputStream();
-    }
-
-    public ObjectInputStream getInputStream() {
-        return streams.getObjectInputStream();
-    }
-
     public long getKey() {
         return nodeInfo.getKey();
     }
@@ -46,15 +35,15 @@ public class CompleteNodeInfo {
         this.nodeInfo = nodeInfo;
     }
 
-    public Streams getStreams() {
-        return streams;
+    public Connection getConnection() {
+        return connection;
     }
 
-    public void setStreams(Streams streams) {
-        this.streams = streams;
+    public void setConnection(Connection connection) {
+        this.connection = connection;
     }
 
     public void closeSocket() {
-        streams.closeSocket();
+        connection.close();
     }
 }
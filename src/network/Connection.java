@@ -0,0 +1,471 @@
+package network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A non-blocking connection with another node. It is registered on one I/O thread of the Transport, which does
+ * all the reads and writes; the other threads only add messages to its queue.
+ *
+ * The messages are encoded by the thread that sends them and written in frames (see OutgoingTransfer). The small
+ * messages are written before the next chunk of a large message, so the Chord maintenance messages do not wait
+ * for a whole block transfer. Several frames are gathered in the same buffer when they fit.
+ *
+ * The messages wait in three lanes, so a slow node never blocks the threads that send to it:
+ *     control: the Chord messages and the answers. They are written first. When the lane is full, the message is
+ * not sent and the dispatcher completes its future with RETRY.
+ *     block: the broadcast blocks. They are written before the other broadcasts and they do not make room for
+ * them. When the lane is full, the oldest block is dropped; a node that misses a block keeps the blocks mined
+ * after it as orphans and asks a peer for the missing parent.
+ *     broadcast: the other broadcast messages and the transactions. When the lane is full, the oldest one is
+ * dropped.
+ * A broadcast that is the same as one that still waits in the queue (the same payload and interval) is not
+ * queued again.
+ */
+public class Connection {
+    public static final int DEFAULT_CONTROL_CAPACITY = 1024;
+    public static final int DEFAULT_BLOCK_CAPACITY = 64;
+    public static final int DEFAULT_BROADCAST_CAPACITY = 128;
+
+    private final SocketChannel channel;
+    // the node at the other end or null if the connection was accepted by this node
+    private final NodeInfo remote;
+    private final ConnectionHandler handler;
+    private final Executor ioThread;
+    private final Selector selector;
+    private final BufferPool bufferPool;
+    private final MessageCodec codec;
+
+    private final Lane controlLane;
+    private final Lane blockLane;
+    private final Lane broadcastLane;
+    // the keys of the broadcasts that wait in the broadcast lane
+    private final Set<Object> queuedBroadcasts = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong coalescedMessages = new AtomicLong();
+    private final AtomicInteger nextTransferId = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private volatile boolean closed;
+    // the last time a message was sent or received, used to find the idle connections
+    private volatile long lastActivity = System.currentTimeMillis();
+    // the last time something was read; a peer that does not read or answer looks active while we send to it
+    private volatile long lastReceived = lastActivity;
+
+    // the fields below are used only by the I/O thread
+    private final ChunkAssembler assembler;
+    // the large messages that are being sent
+    private final Deque<OutgoingTransfer> transfers = new ArrayDeque<>();
+    // a transfer whose next frame did not fit in the write buffer
+    private OutgoingTransfer waitingTransfer;
+    private SelectionKey key;
+    private ByteBuffer readBuffer;
+    private ByteBuffer writeBuffer;
+
+    Connection(SocketChannel channel, NodeInfo remote, ConnectionHandler handler, Executor ioThread,
+               Selector selector, BufferPool bufferPool, MessageCodec codec, int controlCapacity,
+               int blockCapacity, int broadcastCapacity) {
+        this.channel = channel;
+        this.remote = remote;
+        this.handler = handler;
+        this.ioThread = ioThread;
+        this.selector = selector;
+        this.bufferPool = bufferPool;
+        this.codec = codec;
+        this.assembler = new ChunkAssembler(codec);
+        this.controlLane = new Lane(controlCapacity);
+        this.blockLane = new Lane(blockCapacity);
+        this.broadcastLane = new Lane(broadcastCapacity);
+    }
+
+    /**
+     * Queues the message and returns without waiting for it to be written. If the queue is full, the handler
+     * is told that the message (or the oldest broadcast of the same lane) was not sent.
+     */
+    public void sendMessage(Message message) {
+        if (closed) {
+            handler.messageNotSent(this, message);
+            return;
+        }
+        lastActivity = System.currentTimeMillis();
+
+        boolean broadcast = MessageType.isBroadcast(message.getType());
+        Lane lane = controlLane;
+        if (message.getType() == MessageType.BROADCAST_BLOCK) {
+            lane = blockLane;
+        } else if (broadcast) {
+            lane = broadcastLane;
+        }
+        Object broadcastKey = null;
+        if (broadcast) {
+            // the key is taken now, the wrapper of a broadcast is changed by the sender after it is sent
+            broadcastKey = createBroadcastKey(message);
+            if (broadcastKey != null && !queuedBroadcasts.add(broadcastKey)) {
+                coalescedMessages.incrementAndGet();
+                return;
+            }
+        }
+
+        boolean reserved = lane.reserve();
+        if (!reserved && lane != controlLane && dropOldest(lane)) {
+            reserved = lane.reserve();
+        }
+        if (!reserved) {
+            droppedMessages.incrementAndGet();
+            forgetBroadcast(broadcastKey);
+            handler.messageNotSent(this, message);
+            return;
+        }
+
+        try {
+            lane.queue.add(new OutgoingTransfer(message, nextTransferId.getAndIncrement(), codec, broadcastKey));
+        } catch (IOException e) {
+            e.printStackTrace();
+            lane.size.decrementAndGet();
+            forgetBroadcast(broadcastKey);
+            handler.messageNotSent(this, message);
+            return;
+        }
+
+        // a single flush task is enough for all the messages queued until it runs
+        if (flushScheduled.compareAndSet(false, true)) {
+            ioThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flushScheduled.set(false);
+                    if (!closed) {
+                        try {
+                            flush();
+                        } catch (IOException e) {
+                            closeNow();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Closes the connection after the I/O thread finishes its current work. The messages that were not written
+     * are dropped.
+     */
+    public void close() {
+        ioThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeNow();
+            }
+        });
+    }
+
+    public NodeInfo getRemote() {
+        return remote;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return the time in milliseconds when the last message was sent or received
+     */
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * @return the time in milliseconds when the last bytes were received from the peer
+     */
+    public long getLastReceived() {
+        return lastReceived;
+    }
+
+    /**
+     * @return the number of messages that wait to be written, without the large messages that are being written
+     */
+    public int getQueuedMessages() {
+        return controlLane.size.get() + blockLane.size.get() + broadcastLane.size.get();
+    }
+
+    /**
+     * @return the number of messages that were not sent because the queue was full
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * @return the number of broadcasts that were not sent because the same broadcast was already queued
+     */
+    public long getCoalescedMessages() {
+        return coalescedMessages.get();
+    }
+
+    /**
+     * Registers the channel on the selector of the I/O thread. The messages sent before are written when the
+     * connection is established.
+     */
+    void registerLater(final int operations) {
+        ioThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    key = channel.register(selector, operations, Connection.this);
+                    flush();
+                } catch (IOException e) {
+                    closeNow();
+                }
+            }
+        });
+    }
+
+    /**
+     * Called by the I/O thread when the channel is ready.
+     */
+    void handleEvent(SelectionKey selectedKey) {
+        try {
+            if (selectedKey.isConnectable()) {
+                channel.finishConnect();
+                selectedKey.interestOps(SelectionKey.OP_READ);
+                flush();
+            }
+            if (selectedKey.isValid() && selectedKey.isReadable()) {
+                read();
+            }
+            if (selectedKey.isValid() && selectedKey.isWritable()) {
+                flush();
+            }
+        } catch (IOException e) {
+            closeNow();
+        }
+    }
+
+    void closeNow() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (readBuffer != null) {
+            bufferPool.release(readBuffer);
+            readBuffer = null;
+        }
+        if (writeBuffer != null) {
+            bufferPool.release(writeBuffer);
+            writeBuffer = null;
+        }
+        handler.connectionClosed(this);
+    }
+
+    private void read() throws IOException {
+        if (readBuffer == null) {
+            readBuffer = bufferPool.acquire();
+        }
+        if (channel.read(readBuffer) == -1) {
+            throw new EOFException("The other node closed the connection.");
+        }
+        lastReceived = System.currentTimeMillis();
+
+        readBuffer.flip();
+        while (readBuffer.remaining() >= OutgoingTransfer.FRAME_HEADER_SIZE) {
+            int length = readBuffer.getInt(readBuffer.position() + OutgoingTransfer.FRAME_HEADER_SIZE - 4);
+            if (length < 0 || length > OutgoingTransfer.CHUNK_SIZE) {
+                throw new IOException("Invalid chunk length " + length + ".");
+            }
+            if (readBuffer.remaining() < OutgoingTransfer.FRAME_HEADER_SIZE + length) {
+                // wait for the rest of the frame
+                break;
+            }
+
+            int transferId = readBuffer.getInt();
+            int index = readBuffer.getInt();
+            int count = readBuffer.getInt();
+            byte[] data = new byte[readBuffer.getInt()];
+            readBuffer.get(data);
+
+            Message message = assembler.add(new MessageChunk(transferId, index, count, data));
+            if (message != null) {
+                lastActivity = System.currentTimeMillis();
+                handler.messageReceived(this, message);
+            }
+        }
+        readBuffer.compact();
+
+        // keep the buffer only while a frame is partially read
+        if (readBuffer.position() == 0) {
+            bufferPool.release(readBuffer);
+            readBuffer = null;
+        }
+    }
+
+    /**
+     * Writes as much as the socket accepts. If some data is left, the I/O thread waits until the channel is
+     * writable again.
+     */
+    private void flush() throws IOException {
+        if (key == null || !channel.isConnected()) {
+            // the connection is not established yet; it is flushed when it is
+            return;
+        }
+
+        while (true) {
+            if ((writeBuffer == null || !writeBuffer.hasRemaining()) && !fillWriteBuffer()) {
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            channel.write(writeBuffer);
+            if (writeBuffer.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return false if there is nothing to write; the write buffer is released
+     */
+    private boolean fillWriteBuffer() {
+        if (writeBuffer == null) {
+            writeBuffer = bufferPool.acquire();
+        }
+        writeBuffer.clear();
+
+        OutgoingTransfer transfer;
+        while ((transfer = nextTransfer()) != null) {
+            if (transfer.nextFrameSize() > writeBuffer.remaining()) {
+                waitingTransfer = transfer;
+                break;
+            }
+            transfer.writeNextFrame(writeBuffer);
+            if (transfer.hasNext()) {
+                transfers.add(transfer);
+            }
+        }
+        writeBuffer.flip();
+
+        if (!writeBuffer.hasRemaining()) {
+            bufferPool.release(writeBuffer);
+            writeBuffer = null;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the transfer that has the next frame to write: the one that did not fit in the previous buffer,
+     * then the small control messages, the small blocks, the other small broadcasts and then the large transfers,
+     * in turns
+     */
+    private OutgoingTransfer nextTransfer() {
+        if (waitingTransfer != null) {
+            OutgoingTransfer transfer = waitingTransfer;
+            waitingTransfer = null;
+            return transfer;
+        }
+
+        OutgoingTransfer transfer = nextSmallTransfer(controlLane);
+        if (transfer == null) {
+            transfer = nextSmallTransfer(blockLane);
+        }
+        if (transfer == null) {
+            transfer = nextSmallTransfer(broadcastLane);
+        }
+        return transfer != null ? transfer : transfers.poll();
+    }
+
+    /**
+     * @return the first small message of the lane; the large messages before it are moved to the transfers
+     */
+    private OutgoingTransfer nextSmallTransfer(Lane lane) {
+        OutgoingTransfer transfer;
+        while ((transfer = poll(lane)) != null && !transfer.isSmall()) {
+            transfers.add(transfer);
+        }
+        return transfer;
+    }
+
+    private OutgoingTransfer poll(Lane lane) {
+        OutgoingTransfer transfer = lane.queue.poll();
+        if (transfer != null) {
+            lane.size.decrementAndGet();
+            // it is being written, the same broadcast may be queued again
+            forgetBroadcast(transfer.getBroadcastKey());
+        }
+        return transfer;
+    }
+
+    /**
+     * Makes room in a broadcast lane. Called by the senders, not by the I/O thread.
+     * @return false if the lane was emptied in the meantime
+     */
+    private boolean dropOldest(Lane lane) {
+        OutgoingTransfer oldest = poll(lane);
+        if (oldest == null) {
+            return false;
+        }
+        droppedMessages.incrementAndGet();
+        handler.messageNotSent(this, oldest.getMessage());
+        return true;
+    }
+
+    private void forgetBroadcast(Object broadcastKey) {
+        if (broadcastKey != null) {
+            queuedBroadcasts.remove(broadcastKey);
+        }
+    }
+
+    /**
+     * @return a key that is equal for the same broadcast sent twice on the same interval or null if the message
+     * does not have a wrapper
+     */
+    private static Object createBroadcastKey(Message message) {
+        if (!(message.getObject() instanceof BroadcastMessageWrapper)) {
+            return null;
+        }
+        BroadcastMessageWrapper wrapper = (BroadcastMessageWrapper) message.getObject();
+        return Arrays.asList(message.getType(), wrapper.getStart(), wrapper.getEnd(), wrapper.getMessage());
+    }
+
+    /**
+     * The messages of a priority and their number, which is kept separately because the size of the queue is
+     * not constant time.
+     */
+    private static class Lane {
+        private final Queue<OutgoingTransfer> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final int capacity;
+
+        private Lane(int capacity) {
+            this.capacity = capacity;
+        }
+
+        /**
+         * @return false if the lane is full
+         */
+        private boolean reserve() {
+            while (true) {
+                int current = size.get();
+                if (current >= capacity) {
+                    return false;
+                }
+                if (size.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
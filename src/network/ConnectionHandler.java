@@ -0,0 +1,19 @@
+package network;
+
+/**
+ * Receives the events of a connection. The methods are called on the I/O thread of the connection, so they
+ * should return quickly; a message that needs more work is handled on another thread.
+ */
+public interface ConnectionHandler {
+    void messageReceived(Connection connection, Message message);
+
+    /**
+     * Called when a message could not be encoded or the connection was closed before it was sent.
+     */
+    void messageNotSent(Connection connection, Message message);
+
+    /**
+     * Called once, when the connection is closed by any side or could not be opened.
+     */
+    void connectionClosed(Connection connection);
+}
@@ -1,109 +1,127 @@
 package network;
 
 import java.io.IOException;
-import java.net.Socket;
-import java.net.UnknownHostException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Future;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
 
 /**
  * The dispatcher helps with multiplexing a communication channel between multiple threads.
  *
- * When a thread sends a message, it will return a Future object.
+ * When a thread sends a message, it will return a CompletableFuture.
  * Internally, the dispatcher assigns a tag to the message and maps the tag to the returned future.
  * When the answer to a message is received, its tag is retrieved and the message is assigned
- * to the corresponding future in the right thread.
+ * to the corresponding future in the right thread. The messages that do not wait for an answer keep the tag
+ * NO_ANSWER_TAG, which is never assigned to a future.
+ *
+ * Every message that waits for an answer has a deadline. If the answer does not arrive in time, the future is
+ * completed with a RETRY message, the same as when the connection is closed, so a node that stopped answering
+ * but did not close the connection does not block the caller. A future that is completed in any way (or
+ * cancelled) is removed from the dispatcher and a late answer is ignored.
+ *
+ * There is no lock for the whole dispatcher. The state of every destination (its connection and the tags of the
+ * messages that wait for its answer) is guarded by its own lock, so the threads that send to different nodes do
+ * not wait for each other. The futures are completed outside of any lock, because the callers may chain other
+ * messages on them.
+ *
+ * The connections are kept by a PeerConnectionPool, one for every destination; a connection is opened by the
+ * transport when the first message is sent and the answers are received on the I/O thread of the transport.
+ * Opening a connection does not wait for it to be established, so a finger that does not answer does not delay
+ * the messages for the other nodes. After a connection with a node fails, the messages for it are completed with
+ * RETRY immediately until the pool is able to connect again.
  *
  * Created by Sorin Nutu on 2/27/2015.
  */
 public class Dispatcher {
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+    // the tag of the messages without a future
+    public static final int NO_ANSWER_TAG = 0;
+
+    // a single thread for the deadlines of all the dispatchers; it only completes futures
+    private static final ScheduledThreadPoolExecutor DEADLINES = createDeadlineExecutor();
+
     private AtomicInteger nextTag;
     private Map<Integer, FutureMessage> futures;
     private Node correspondingNode;
     private Logger networkLogger;
-    private Map<NodeInfo, MessageSenderThread> senderThreads;
-    /*
-        Store the messages that wait for an answer. When the connection with a NodeInfo is closed,
-        remove all the messages that are waiting from the futures map, set their state to RETRY and
-        release them.
-     */
-    private Map<NodeInfo, Collection<Integer>> messagesWaitingForAnswer;
+    private PeerConnectionPool connectionPool;
+    private ConcurrentMap<NodeInfo, Destination> destinations;
 
     public Dispatcher(Node correspondingNode) {
         this.correspondingNode = correspondingNode;
         this.networkLogger = correspondingNode.getNetworkLogger();
-        nextTag = new AtomicInteger(0);
+        nextTag = new AtomicInteger(NO_ANSWER_TAG + 1);
         futures = new ConcurrentHashMap<Integer, FutureMessage>();
-        senderThreads = new ConcurrentHashMap<NodeInfo, MessageSenderThread>();
-        messagesWaitingForAnswer = new HashMap<NodeInfo, Collection<Integer>>();
+        destinations = new ConcurrentHashMap<NodeInfo, Destination>();
+        connectionPool = new PeerConnectionPool(correspondingNode.getTransport(), this);
+        connectionPool.start();
     }
 
-    public synchronized Future<Message> sendMessage(Message messageToSend, boolean waitForAnswer, int fingerTableIndex) {
+    public CompletableFuture<Message> sendMessage(Message messageToSend, boolean waitForAnswer, int fingerTableIndex) {
         return sendMessage(messageToSend, waitForAnswer, correspondingNode.getFingerTable().get(fingerTableIndex));
     }
 
-    public synchronized Future<Message> sendMessage(Message messageToSend, boolean waitForAnswer, NodeInfo destination) {
-        int tag;
-        FutureMessage futureMessage = null;
+    public CompletableFuture<Message> sendMessage(Message messageToSend, boolean waitForAnswer, NodeInfo destination) {
+        return sendMessage(messageToSend, waitForAnswer, destination, DEFAULT_TIMEOUT_MILLIS);
+    }
 
-        // do not create a tag and a future if an answer is not required
-        if (MessageType.waitForAnswer(messageToSend.getType())) {
-            tag = nextTag.getAndIncrement();
-            futureMessage = new FutureMessage();
-            messageToSend.setTag(tag);
-            futures.put(tag, futureMessage);
-
-            if (messagesWaitingForAnswer.containsKey(destination)) {
-                messagesWaitingForAnswer.get(destination).add(tag);
-            } else {
-                Collection<Integer> tags = new ArrayList<Integer>();
-                tags.add(tag);
-                messagesWaitingForAnswer.put(destination, tags);
-            }
+    /**
+     * @param timeoutMillis how long to wait for the answer; then the future receives a RETRY message
+     * @return the future answer or null if the message type does not have an answer
+     */
+    public CompletableFuture<Message> sendMessage(Message messageToSend, boolean waitForAnswer,
+                                                  NodeInfo destination, long timeoutMillis) {
+        if (networkLogger != null) {
+            networkLogger.info((new Date()).toString() + " " + "Trimit mesajul " + messageToSend + " catre " + destination.getKey() + " cu waitanswer = " + waitForAnswer);
+        } else {
+            networkLogger = correspondingNode.getNetworkLogger();
         }
+        return send(messageToSend, destination, timeoutMillis, false);
+    }
 
-        if (!senderThreads.containsKey(destination)) {
-            Streams streams = null;
-            try {
-                Socket socket = new Socket(destination.getIp(), destination.getPort());
-                streams = new Streams(socket);
-            } catch (UnknownHostException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                // the socket could not be opened; tell the node to retry
-                handleMessageFailure(messageToSend, destination);
-                // do not start threads or try to send messages if the socket could not be opened
-                return futureMessage;
-            }
-
-            MessageSenderThread senderThread = new MessageSenderThread(streams, this, destination);
-            senderThread.start();
+    /**
+     * Sends a PING used by the connection pool to check a node.
+     * @param probe true if the circuit of the node is half open and this message decides if it is closed again
+     */
+    CompletableFuture<Message> sendPing(NodeInfo destination, long timeoutMillis, boolean probe) {
+        return send(new Message(MessageType.PING, null), destination, timeoutMillis, probe);
+    }
 
-            MessageReceiverThread receiverThread = new MessageReceiverThread(streams.getObjectInputStream(), this, destination);
-            receiverThread.start();
+    private CompletableFuture<Message> send(Message messageToSend, NodeInfo destination, long timeoutMillis,
+                                            boolean probe) {
+        FutureMessage futureMessage = null;
 
-            senderThreads.put(destination, senderThread);
+        // do not create a tag and a future if an answer is not required
+        if (MessageType.waitForAnswer(messageToSend.getType())) {
+            futureMessage = register(messageToSend, destination, timeoutMillis);
         }
 
-        MessageSenderThread senderThread = senderThreads.get(destination);
+        Connection connection;
+        try {
+            connection = connectionPool.getConnection(destination, getDestination(destination).handler, probe);
+        } catch (IOException e) {
+            // the address cannot be used; tell the node to retry
+            handleMessageFailure(messageToSend, destination);
+            return futureMessage;
+        }
 
-        if (networkLogger != null) {
-            networkLogger.info((new Date()).toString() + " " + "Trimit mesajul " + messageToSend + " catre " + destination.getKey() + " cu waitanswer = " + waitForAnswer);
-        } else {
-            networkLogger = correspondingNode.getNetworkLogger();
+        if (connection == null) {
+            // the node failed recently, do not wait for it again
+            if (futureMessage != null) {
+                complete(futureMessage, new Message(MessageType.RETRY, null, futureMessage.getTag()));
+            }
+            return futureMessage;
         }
-        senderThread.sendMessage(messageToSend);
+
+        connection.sendMessage(messageToSend);
 
         return futureMessage;
     }
 
-    public synchronized void receiveMessage(Message received, NodeInfo source) {
-        int tag = received.getTag();
-        FutureMessage futureMessage = futures.get(tag);
-        futures.remove(tag);
+    public void receiveMessage(Message received, NodeInfo source) {
+        FutureMessage futureMessage = futures.get(received.getTag());
 
         if (networkLogger != null) {
             networkLogger.info((new Date()).toString() + " " + "Am primit mesajul " + received);
@@ -111,64 +129,215 @@ public class Dispatcher {
             networkLogger = correspondingNode.getNetworkLogger();
         }
 
-        // this also releases the semaphore and permits the message to be read
-        futureMessage.setMessage(received);
-        removeMessageFromWaitingMap(received, source);
+        // the future was already completed with RETRY or cancelled
+        if (futureMessage == null) {
+            return;
+        }
+
+        // this also runs the actions chained on the future
+        complete(futureMessage, received);
     }
 
     /**
      * Method called when a message cannot be sent.
      * @param message the message that was not delivered
      */
-    public synchronized void handleMessageFailure(Message message, NodeInfo destination) {
+    public void handleMessageFailure(Message message, NodeInfo destination) {
+        System.err.println((new Date()).toString() + " " + "The message could not be sent: " + message);
+
+        // nobody waits for the message; its tag does not belong to a future
+        if (!MessageType.waitForAnswer(message.getType())) {
+            return;
+        }
+
         int tag = message.getTag();
         FutureMessage futureMessage = futures.get(tag);
-        futures.remove(tag);
+        if (futureMessage != null && futureMessage.getDestination().equals(destination)) {
+            // a new message, the caller may send the original one again
+            complete(futureMessage, new Message(MessageType.RETRY, null, tag));
 
-        System.err.println((new Date()).toString() + " " + "The message could not be sent: " + message);
+            System.out.println("Dispatcher: Schimb tipul in RETRY pe mesajul cu tagul " + tag + " pentru ca nu s-a putut trimite.");
+        }
+    }
 
-        if (futureMessage != null) {
-            message.setType(MessageType.RETRY);
-            futureMessage.setMessage(message);
+    /**
+     * Method called when the connection with a node is closed or could not be opened.
+     * Change the state of all the waiting messages to RETRY and release their futures.
+     */
+    public void handleConnectionError(NodeInfo nodeInfo) {
+        releaseWaitingMessages(nodeInfo);
+    }
 
-            System.out.println("Dispatcher: Schimb tipul in RETRY pe mesajul cu tagul " + tag + " pentru ca nu s-a putut trimite.");
+    /**
+     * @return the number of messages that wait for an answer
+     */
+    public int getWaitingMessages() {
+        return futures.size();
+    }
 
-            removeMessageFromWaitingMap(message, destination);
+    /**
+     * @return true if there are messages that wait for an answer from the node
+     */
+    public boolean hasWaitingMessages(NodeInfo nodeInfo) {
+        Destination state = destinations.get(nodeInfo);
+        if (state == null) {
+            return false;
         }
+        synchronized (state) {
+            return !state.waitingTags.isEmpty();
+        }
+    }
 
-        // remove the destination threads; it is finished.
-        senderThreads.remove(destination);
+    public PeerConnectionPool getConnectionPool() {
+        return connectionPool;
     }
 
-    private void removeMessageFromWaitingMap(Message message, NodeInfo nodeInfo) {
-        int tag = message.getTag();
-        Iterator<Integer> iterator = messagesWaitingForAnswer.get(nodeInfo).iterator();
-        while (iterator.hasNext()) {
-            int messageTag = iterator.next();
-            if (messageTag == tag) {
-                iterator.remove();
-                break;
+    /**
+     * Stops the maintenance of the connections. The connections are closed with the transport.
+     */
+    public void close() {
+        connectionPool.stop();
+    }
+
+    /**
+     * Assigns a tag to the message and creates its future. The future removes itself from the dispatcher when
+     * it is completed, whatever completes it.
+     */
+    private FutureMessage register(Message message, NodeInfo destination, long timeoutMillis) {
+        int tag = nextTag.getAndIncrement();
+        if (tag == NO_ANSWER_TAG) {
+            // the counter wrapped around
+            tag = nextTag.getAndIncrement();
+        }
+        final FutureMessage futureMessage = new FutureMessage(tag, destination);
+        message.setTag(tag);
+
+        futures.put(tag, futureMessage);
+        Destination state = getDestination(destination);
+        synchronized (state) {
+            state.waitingTags.add(tag);
+        }
+
+        final ScheduledFuture<?> deadline = DEADLINES.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (complete(futureMessage, new Message(MessageType.RETRY, null, futureMessage.getTag()))) {
+                    System.out.println("Dispatcher: Mesajul cu tagul " + futureMessage.getTag() + " nu a primit raspuns la timp.");
+                }
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+        // also called when the future is cancelled by the caller
+        futureMessage.whenComplete(new BiConsumer<Message, Throwable>() {
+            @Override
+            public void accept(Message message, Throwable throwable) {
+                deadline.cancel(false);
+                forget(futureMessage);
             }
+        });
+        return futureMessage;
+    }
+
+    /**
+     * Removes the future before completing it, so the actions chained on it see the dispatcher without it.
+     * @return false if the future was already completed
+     */
+    private boolean complete(FutureMessage futureMessage, Message answer) {
+        forget(futureMessage);
+        return futureMessage.complete(answer);
+    }
+
+    private void forget(FutureMessage futureMessage) {
+        futures.remove(futureMessage.getTag());
+        Destination state = getDestination(futureMessage.getDestination());
+        synchronized (state) {
+            state.waitingTags.remove(futureMessage.getTag());
         }
     }
 
     /**
-     * Method called from MessageReceiverThread when the other node closes the socket.
-     * Change the state of all the waiting messages to RETRY and release their futures.
+     * @return the handler of the connections with the node
      */
-    public synchronized void handleConnectionError(NodeInfo nodeInfo) {
-        Message message = new Message(MessageType.RETRY, null);
-        Iterator<Integer> iterator = messagesWaitingForAnswer.get(nodeInfo).iterator();
-        while (iterator.hasNext()) {
-            int tag = iterator.next();
-            FutureMessage futureMessage = futures.get(tag);
-            futures.remove(tag);
+    private ConnectionHandler createHandler(final NodeInfo destination) {
+        return new ConnectionHandler() {
+            @Override
+            public void messageReceived(Connection connection, Message message) {
+                receiveMessage(message, destination);
+            }
+
+            @Override
+            public void messageNotSent(Connection connection, Message message) {
+                handleMessageFailure(message, destination);
+            }
+
+            @Override
+            public void connectionClosed(Connection connection) {
+                if (connectionPool.connectionClosed(destination, connection)) {
+                    releaseWaitingMessages(destination);
+                }
+            }
+        };
+    }
+
+    /**
+     * Completes with RETRY all the messages that wait for an answer from the node.
+     */
+    private void releaseWaitingMessages(NodeInfo nodeInfo) {
+        List<FutureMessage> released = new ArrayList<>();
+        Destination state = getDestination(nodeInfo);
+        synchronized (state) {
+            for (int tag : state.waitingTags) {
+                FutureMessage futureMessage = futures.get(tag);
+                if (futureMessage != null) {
+                    released.add(futureMessage);
+                }
+            }
+            state.waitingTags.clear();
+        }
 
-            futureMessage.setMessage(message);
-            iterator.remove();
+        for (FutureMessage futureMessage : released) {
+            complete(futureMessage, new Message(MessageType.RETRY, null, futureMessage.getTag()));
+            System.out.println("Dispatcher: Trimit RETRY pe mesajul cu tagul " + futureMessage.getTag());
+        }
+    }
+
+    private Destination getDestination(NodeInfo nodeInfo) {
+        Destination state = destinations.get(nodeInfo);
+        if (state == null) {
+            Destination created = new Destination(createHandler(nodeInfo));
+            state = destinations.putIfAbsent(nodeInfo, created);
+            if (state == null) {
+                state = created;
+            }
+        }
+        return state;
+    }
+
+    private static ScheduledThreadPoolExecutor createDeadlineExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "dispatcher-deadlines");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // most of the answers arrive in time, do not keep their cancelled deadlines in the queue
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * The messages that wait for an answer from a node and the handler of its connections. When the connection is
+     * closed, all the waiting messages are removed from the futures map, their state is set to RETRY and they are
+     * released. The tags are guarded by the object's lock.
+     */
+    private static class Destination {
+        private final ConnectionHandler handler;
+        private final Set<Integer> waitingTags = new HashSet<>();
 
-            System.out.println("Dispatcher: Trimit RETRY pe mesajul cu tagul " + tag);
+        private Destination(ConnectionHandler handler) {
+            this.handler = handler;
         }
-        messagesWaitingForAnswer.remove(nodeInfo);
     }
 }
@@ -0,0 +1,147 @@
+package network;
+
+import java.util.*;
+
+/**
+ * The finger table of a node. Finger 0 is the successor and finger i is the successor of (id + 2 ^ i).
+ *
+ * The fingers are kept in an immutable Snapshot that is replaced on every change (copy on write). The changes
+ * are rare (stabilize and fix fingers, every few seconds) and the reads are frequent (every lookup and broadcast
+ * routes through the table), so the readers never lock: they take the current snapshot and use it for the whole
+ * routing decision, without seeing a change made in the middle of it. The keys of the fingers are also kept in
+ * an array, so the interval scans do not read the NodeInfo objects.
+ *
+ * The writers are synchronized on the table; a thread that changes the successor and finger 0 together holds
+ * the lock of the table for both.
+ */
+public class FingerTable {
+    private volatile Snapshot snapshot;
+
+    /**
+     * Creates a table with the successor and the other fingers not found yet.
+     */
+    public FingerTable(NodeInfo successor, int size) {
+        NodeInfo[] fingers = new NodeInfo[size];
+        fingers[0] = successor;
+        for (int i = 1; i < size; i++) {
+            // the fingers that were not found yet have the port and the key -1
+            fingers[i] = new NodeInfo("localhost", -1, -1);
+        }
+        snapshot = new Snapshot(fingers);
+    }
+
+    /**
+     * @return the current fingers; they do not change if the table is changed
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    public NodeInfo get(int index) {
+        return snapshot.get(index);
+    }
+
+    public int size() {
+        return snapshot.size();
+    }
+
+    public synchronized void set(int index, NodeInfo nodeInfo) {
+        NodeInfo[] fingers = snapshot.fingers.clone();
+        fingers[index] = nodeInfo;
+        snapshot = new Snapshot(fingers);
+    }
+
+    @Override
+    public String toString() {
+        return snapshot.asList().toString();
+    }
+
+    /**
+     * An immutable copy of the fingers.
+     */
+    public static class Snapshot {
+        private final NodeInfo[] fingers;
+        private final long[] keys;
+
+        public Snapshot(List<NodeInfo> fingers) {
+            this(fingers.toArray(new NodeInfo[fingers.size()]));
+        }
+
+        private Snapshot(NodeInfo[] fingers) {
+            this.fingers = fingers;
+            this.keys = new long[fingers.length];
+            for (int i = 0; i < fingers.length; i++) {
+                keys[i] = fingers[i] == null ? -1 : fingers[i].getKey();
+            }
+        }
+
+        public NodeInfo get(int index) {
+            return fingers[index];
+        }
+
+        /**
+         * @return the key of the finger or -1 if it was not found yet
+         */
+        public long getKey(int index) {
+            return keys[index];
+        }
+
+        public int size() {
+            return fingers.length;
+        }
+
+        public List<NodeInfo> asList() {
+            return Collections.unmodifiableList(Arrays.asList(fingers));
+        }
+
+        /**
+         * Chord routing: the finger that is the closest to the key without reaching it, so the lookup halves the
+         * distance to the key with every hop. The fingers that were not found yet are ignored.
+         *
+         * @param nodeId the id of the node
+         * @param key the sought id
+         * @return the index of the finger or 0 (the successor) if no finger is between the node and the key
+         */
+        public int closestPrecedingFinger(long nodeId, long key) {
+            return closestPrecedingFinger(nodeId, key, keys.length);
+        }
+
+        /**
+         * @return at most count different fingers that precede the key, the closest to the key first; the
+         * successor is the last one if there are fewer
+         */
+        public List<NodeInfo> closestPrecedingFingers(long nodeId, long key, int count) {
+            List<NodeInfo> result = new ArrayList<>(count);
+            Set<Long> added = new HashSet<>();
+            int index = closestPrecedingFinger(nodeId, key);
+            while (result.size() < count) {
+                // consecutive fingers often point to the same node
+                if (added.add(keys[index])) {
+                    result.add(fingers[index]);
+                }
+                if (index == 0) {
+                    break;
+                }
+                index = closestPrecedingFinger(nodeId, key, index);
+            }
+            return result;
+        }
+
+        /**
+         * @param end the fingers before this index are checked
+         */
+        int closestPrecedingFinger(long nodeId, long key, int end) {
+            long keyDistance = SocketListener.ringDistance(nodeId, key);
+            for (int i = end - 1; i > 0; i--) {
+                if (keys[i] < 0) {
+                    continue;
+                }
+                long fingerDistance = SocketListener.ringDistance(nodeId, keys[i]);
+                if (fingerDistance > 0 && fingerDistance < keyDistance) {
+                    return i;
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * This class represents a task that refreshes the finger table for a node.
+ * On every run a new index is checked, by looking up the successor of the id:
+ *   currentId + 2 ^ index, index = 1 to LOG_NODES - 1
+ *
+ * The lookup starts at the successor of this node, see Node.findFingerSuccessor.
+ * If the answer different from the node in the finger table, the finger table is updated.
+ *
+ * One finger per run leaves a node that just joined with an empty table for LOG_NODES runs, so after the join
+ * and after every change of the successor all the fingers are looked up at once. The fingers that fall in the
+ * interval of the successor take the successor without a lookup, and every answer also fills the next fingers
+ * that fall before the node that was found. Then the fingers are fixed one at a time again.
+ */
+public class FixFingersTask extends MaintenanceTask {
+    private static final long INTERVAL_MILLIS = 5000;
+
+    private long currentNodeId;
+    private int next;
+    private Node correspondingNode;
+    private Logger networkLogger;
+    // the successor when all the fingers were refreshed the last time
+    private NodeInfo refreshedSuccessor;
+    private volatile int bulkRefreshes;
+
+    public FixFingersTask(long currentNodeId, Node correspondingNode) {
+        super("fix fingers", INTERVAL_MILLIS);
+        this.currentNodeId = currentNodeId;
+        this.correspondingNode = correspondingNode;
+        this.networkLogger = correspondingNode.getNetworkLogger();
+        next = 0;
+    }
+
+    @Override
+    protected CompletableFuture<Boolean> runOnce() {
+        // suppose the successor is always available if the network has more than 2 nodes
+        NodeInfo successor = correspondingNode.getFingerTable().get(0);
+        if (successor.equals(correspondingNode.getNodeInfo())) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        if (!successor.equals(refreshedSuccessor)) {
+            refreshedSuccessor = successor;
+            next = 0;
+            return refreshAll(successor);
+        }
+
+        next = next + 1;
+        if (next >= Node.LOG_NODES) {
+            next = 1;
+        }
+        final int index = next;
+        networkLogger.info(currentNodeId + ": Fixing finger: " + index);
+        networkLogger.info(currentNodeId + ": Current value of finger: " + correspondingNode.getFingerTable().get(index));
+
+        final long fingerId = fingerId(index);
+        return correspondingNode.findFingerSuccessor(fingerId).thenApply(new Function<NodeInfo, Boolean>() {
+            @Override
+            public Boolean apply(NodeInfo nodeInfo) {
+                /*
+                If the lookup fails (a node did not answer), do not try to change the finger.
+                Wait for the StabilizeTask to fix the successor and then the lookup will succeed.
+                The finger will be fixed in the next round.
+                 */
+                if (nodeInfo == null) {
+                    return true;
+                }
+
+                networkLogger.info("Finger " + index + " = " + fingerId + "  == " + nodeInfo.getKey());
+                boolean changed = setFinger(index, nodeInfo);
+                networkLogger.info(currentNodeId + ": Fixed the fingertable on position + " + index + ". It points to " + nodeInfo.getKey() + ".");
+                return changed;
+            }
+        });
+    }
+
+    /**
+     * @return the number of times all the fingers were looked up together
+     */
+    public int getBulkRefreshes() {
+        return bulkRefreshes;
+    }
+
+    /**
+     * Looks up all the fingers in parallel.
+     *
+     * @return a future that completes with true when all the lookups are answered, if a finger changed or a
+     * lookup failed
+     */
+    private CompletableFuture<Boolean> refreshAll(NodeInfo successor) {
+        bulkRefreshes++;
+        networkLogger.info(currentNodeId + ": Refreshing all the fingers, the successor is " + successor);
+
+        final AtomicBoolean changed = new AtomicBoolean();
+        List<CompletableFuture<NodeInfo>> lookups = new ArrayList<>();
+        for (int index = 1; index < Node.LOG_NODES; index++) {
+            final int fingerIndex = index;
+            final long fingerId = fingerId(index);
+            // the node knows the successor of these ids
+            if (SocketListener.belongsToIntervalForBroadcast(fingerId, currentNodeId, successor.getKey())) {
+                if (setFinger(index, successor)) {
+                    changed.set(true);
+                }
+                continue;
+            }
+
+            lookups.add(correspondingNode.findFingerSuccessor(fingerId).thenApply(new Function<NodeInfo, NodeInfo>() {
+                @Override
+                public NodeInfo apply(NodeInfo nodeInfo) {
+                    if (nodeInfo == null) {
+                        // fixed later, one at a time
+                        changed.set(true);
+                    } else if (fillFingers(fingerIndex, nodeInfo)) {
+                        changed.set(true);
+                    }
+                    return nodeInfo;
+                }
+            }));
+        }
+        networkLogger.info(currentNodeId + ": Sent " + lookups.size() + " lookups for " + (Node.LOG_NODES - 1) + " fingers.");
+
+        return CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[lookups.size()]))
+                .thenApply(new Function<Void, Boolean>() {
+                    @Override
+                    public Boolean apply(Void ignored) {
+                        networkLogger.info(currentNodeId + ": Refreshed all the fingers: " + correspondingNode.getFingerTable());
+                        return changed.get();
+                    }
+                });
+    }
+
+    /**
+     * The node found for a finger is also the successor of the next fingers that fall between the finger's id
+     * and the node, so they are filled even if their own lookups fail.
+     *
+     * @return true if a finger changed
+     */
+    private boolean fillFingers(int index, NodeInfo nodeInfo) {
+        boolean changed = setFinger(index, nodeInfo);
+        long fingerId = fingerId(index);
+        for (int i = index + 1; i < Node.LOG_NODES; i++) {
+            if (!SocketListener.belongsToIntervalForBroadcast(fingerId(i), fingerId, nodeInfo.getKey())) {
+                break;
+            }
+            if (setFinger(i, nodeInfo)) {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return true if the finger changed
+     */
+    private boolean setFinger(int index, NodeInfo nodeInfo) {
+        // check if the found finger is already present in the table
+        if (correspondingNode.getFingerTable().get(index).equals(nodeInfo)) {
+            return false;
+        }
+        networkLogger.info(correspondingNode.getFingerTable().get(index).toString() + " nu e egal cu " + nodeInfo.toString());
+
+        // replace the finger
+        correspondingNode.getFingerTable().set(index, nodeInfo);
+
+        networkLogger.info("Finger " + index + " == " + nodeInfo);
+        return true;
+    }
+
+    private long fingerId(int index) {
+        return (currentNodeId + (1 << index)) % Node.NUMBER_OF_NODES;
+    }
+}
@@ -1,47 +1,29 @@
 package network;
 
-import java.util.concurrent.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
+ * The answer to a message sent through the Dispatcher. It is completed with the answer, or with a RETRY message if
+ * the message could not be sent, the connection was closed or the deadline passed before the answer arrived.
+ *
+ * Cancelling the future removes the message from the dispatcher, so a late answer is ignored.
+ *
  * Created by Sorin Nutu on 2/27/2015.
  */
-public class FutureMessage implements Future<Message> {
+public class FutureMessage extends CompletableFuture<Message> {
+    private final int tag;
+    private final NodeInfo destination;
 
-    protected Message message;
-    private Semaphore semaphore;
-
-    public FutureMessage() {
-        semaphore = new Semaphore(0);
-    }
-
-    @Override
-    public boolean cancel(boolean mayInterruptIfRunning) {
-        return false;
-    }
-
-    @Override
-    public boolean isCancelled() {
-        return false;
-    }
-
-    @Override
-    public boolean isDone() {
-        return false;
-    }
-
-    @Override
-    public Message get() throws InterruptedException, ExecutionException {
-        semaphore.acquire();
-        return message;
+    public FutureMessage(int tag, NodeInfo destination) {
+        this.tag = tag;
+        this.destination = destination;
     }
 
-    @Override
-    public Message get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-        return null;
+    public int getTag() {
+        return tag;
     }
 
-    public void setMessage(Message message) {
-        this.message = message;
-        semaphore.release();
+    public NodeInfo getDestination() {
+        return destination;
     }
 }
@@ -0,0 +1,164 @@
+package network;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Finds the successor of an id by asking every hop from this node, instead of letting the hops forward the
+ * request (the recursive lookup, see handleFindSuccessor).
+ *
+ * Every node that is asked with FIND_NEXT_HOP answers with SUCCESSOR_FOUND if it knows the successor of the id,
+ * otherwise with NEXT_HOPS: its fingers that are the closest to the id without passing it. The candidates are
+ * asked in the order of their distance to the id, at most alpha at a time, so a node that does not answer is
+ * replaced by the next candidate without waiting for its timeout. The other nodes do not keep any state for the
+ * lookup and nothing is forwarded along the ring.
+ */
+public class IterativeLookup {
+    public enum Mode {
+        RECURSIVE, ITERATIVE
+    }
+
+    public static final int DEFAULT_ALPHA = 2;
+    // the number of nodes sent in a NEXT_HOPS answer
+    public static final int NEXT_HOPS = 3;
+    // a lookup on a consistent ring needs about LOG_NODES / 2 rounds
+    private static final int MAX_QUERIES = 4 * Node.LOG_NODES;
+
+    private final Dispatcher dispatcher;
+    private final long key;
+    private final int alpha;
+    private final CompletableFuture<NodeInfo> result = new CompletableFuture<>();
+
+    // the fields below are guarded by the object's lock
+    private final TreeSet<NodeInfo> candidates;
+    private final Set<Long> known = new HashSet<>();
+    private final Map<Long, Integer> rounds = new HashMap<>();
+    private int queries;
+    private int inFlight;
+    private boolean found;
+    private int resultRounds;
+
+    public IterativeLookup(Dispatcher dispatcher, long key, int alpha) {
+        this.dispatcher = dispatcher;
+        this.key = key;
+        this.alpha = alpha;
+        // the closest to the id first
+        this.candidates = new TreeSet<>(new Comparator<NodeInfo>() {
+            @Override
+            public int compare(NodeInfo first, NodeInfo second) {
+                int byDistance = Long.compare(distanceToKey(first), distanceToKey(second));
+                return byDistance != 0 ? byDistance : Long.compare(first.getKey(), second.getKey());
+            }
+        });
+    }
+
+    /**
+     * @param firstHops the nodes asked first, usually the closest preceding fingers of this node
+     * @return the successor of the id or null if no node could be asked
+     */
+    public CompletableFuture<NodeInfo> start(Collection<NodeInfo> firstHops) {
+        synchronized (this) {
+            for (NodeInfo nodeInfo : firstHops) {
+                addCandidate(nodeInfo, 1);
+            }
+        }
+        queryNext();
+        return result;
+    }
+
+    /**
+     * @return the number of nodes that were asked
+     */
+    public synchronized int getQueries() {
+        return queries;
+    }
+
+    /**
+     * @return the number of round trips until the successor was found, one for every hop on the path
+     */
+    public synchronized int getRounds() {
+        return resultRounds;
+    }
+
+    /**
+     * Sends FIND_NEXT_HOP to the node. The answer is SUCCESSOR_FOUND, NEXT_HOPS or RETRY.
+     */
+    protected CompletableFuture<Message> query(NodeInfo nodeInfo) {
+        return dispatcher.sendMessage(new Message(MessageType.FIND_NEXT_HOP, key), true, nodeInfo);
+    }
+
+    private void queryNext() {
+        List<NodeInfo> next = new ArrayList<>();
+        boolean failed;
+        synchronized (this) {
+            while (!found && inFlight < alpha && !candidates.isEmpty() && queries < MAX_QUERIES) {
+                next.add(candidates.pollFirst());
+                inFlight++;
+                queries++;
+            }
+            // every candidate was asked and none of them knows the successor
+            failed = !found && inFlight == 0 && next.isEmpty();
+        }
+        if (failed) {
+            result.complete(null);
+            return;
+        }
+
+        for (final NodeInfo nodeInfo : next) {
+            query(nodeInfo).whenComplete(new BiConsumer<Message, Throwable>() {
+                @Override
+                public void accept(Message answer, Throwable throwable) {
+                    handleAnswer(nodeInfo, answer);
+                }
+            });
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handleAnswer(NodeInfo asked, Message answer) {
+        NodeInfo successor = null;
+        boolean done;
+        synchronized (this) {
+            inFlight--;
+            int round = rounds.get(asked.getKey());
+            if (answer != null && answer.getType() == MessageType.SUCCESSOR_FOUND) {
+                // with alpha > 1 the successor may be found by several nodes, the first answer is used
+                if (!found) {
+                    found = true;
+                    resultRounds = round;
+                    successor = (NodeInfo) answer.getObject();
+                }
+            } else if (answer != null && answer.getType() == MessageType.NEXT_HOPS) {
+                for (NodeInfo nodeInfo : (List<NodeInfo>) answer.getObject()) {
+                    // only the nodes that are closer to the id, so the lookup always progresses
+                    if (distanceToKey(nodeInfo) < distanceToKey(asked)) {
+                        addCandidate(nodeInfo, round + 1);
+                    }
+                }
+            }
+            // a RETRY answer: the node is not reachable, the other candidates are asked
+            done = found;
+        }
+
+        if (successor != null) {
+            result.complete(successor);
+        } else if (!done) {
+            queryNext();
+        }
+    }
+
+    /**
+     * Should be called with the object's lock.
+     */
+    private void addCandidate(NodeInfo nodeInfo, int round) {
+        if (nodeInfo != null && nodeInfo.getKey() >= 0 && known.add(nodeInfo.getKey())) {
+            candidates.add(nodeInfo);
+            rounds.put(nodeInfo.getKey(), round);
+        }
+    }
+
+    private long distanceToKey(NodeInfo nodeInfo) {
+        return SocketListener.ringDistance(nodeInfo.getKey(), key);
+    }
+}
@@ -0,0 +1,27 @@
+package network;
+
+import java.io.*;
+
+/**
+ * Encodes the messages with Java serialization. It accepts any serializable object in a message, but the
+ * class descriptors are written in every message and the keys use their X.509 form.
+ */
+public class JavaSerializationCodec implements MessageCodec {
+    @Override
+    public byte[] encode(Message message) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (ObjectOutputStream outputStream = new ObjectOutputStream(byteArrayOutputStream)) {
+            outputStream.writeObject(message);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    @Override
+    public Message decode(byte[] data, int length) throws IOException {
+        try (ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(data, 0, length))) {
+            return (Message) inputStream.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("The message contains an unknown class.", e);
+        }
+    }
+}
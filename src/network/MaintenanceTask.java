@@ -0,0 +1,179 @@
+package network;
+
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+
+/**
+ * A periodic Chord task (stabilize, fix fingers, check predecessor, ask for successors). The tasks of all the
+ * nodes in the process run on a shared scheduler instead of a sleeping thread for every task and node.
+ *
+ * A run does not block the scheduler: it sends its messages and returns a future that completes with true if the
+ * run changed the ring state of the node (a successor, a finger or the predecessor) or a peer did not answer.
+ * The next run is scheduled when the future completes. The interval is adaptive: it drops to the minimum after a
+ * change, because the ring is churning and the other pointers are probably wrong too, and it doubles after every
+ * run without changes, up to the maximum. Every delay is spread by +/- 20%, so the nodes started together do not
+ * send their maintenance messages at the same moment.
+ */
+public abstract class MaintenanceTask implements Runnable {
+    // the interval after a change is the base interval divided by this factor
+    private static final int CHURN_FACTOR = 5;
+    // the interval of a stable ring is the base interval multiplied by this factor
+    private static final int STABLE_FACTOR = 2;
+    private static final int SCHEDULER_THREADS = 2;
+
+    // the runs only send messages, the answers are handled by the futures
+    private static final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(SCHEDULER_THREADS,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "chord-maintenance");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final String name;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+
+    // the runs of a task do not overlap, the next one is scheduled when the previous one completed
+    private volatile long intervalMillis;
+    private volatile boolean started;
+    private volatile ScheduledFuture<?> nextRun;
+
+    // the metrics, guarded by the object's lock
+    private long runs;
+    private long changedRuns;
+    private long failedRuns;
+    private long totalRunNanos;
+    private long maxRunNanos;
+
+    /**
+     * @param baseIntervalMillis the interval of a ring that is neither churning nor known to be stable; the
+     *                           system property Node.MAINTENANCE_INTERVAL_PROPERTY replaces it if it is set
+     */
+    protected MaintenanceTask(String name, long baseIntervalMillis) {
+        this.name = name;
+        long base = Long.getLong(Node.MAINTENANCE_INTERVAL_PROPERTY, baseIntervalMillis);
+        this.minIntervalMillis = Math.max(base / CHURN_FACTOR, 1);
+        this.maxIntervalMillis = base * STABLE_FACTOR;
+        this.intervalMillis = base;
+    }
+
+    /**
+     * Sends the messages of one run.
+     *
+     * @return a future that completes with true if the run changed the state of the node
+     */
+    protected abstract CompletableFuture<Boolean> runOnce();
+
+    public void start() {
+        started = true;
+        schedule();
+    }
+
+    public void stop() {
+        started = false;
+        ScheduledFuture<?> run = nextRun;
+        if (run != null) {
+            run.cancel(false);
+        }
+    }
+
+    @Override
+    public void run() {
+        final long start = System.nanoTime();
+        CompletableFuture<Boolean> result;
+        try {
+            result = runOnce();
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+
+        result.whenComplete(new BiConsumer<Boolean, Throwable>() {
+            @Override
+            public void accept(Boolean changed, Throwable throwable) {
+                if (throwable != null) {
+                    throwable.printStackTrace();
+                }
+                completed(System.nanoTime() - start, changed != null && changed, throwable != null);
+                if (started) {
+                    schedule();
+                }
+            }
+        });
+    }
+
+    private void schedule() {
+        try {
+            nextRun = SCHEDULER.schedule(this, Backoff.jitter(intervalMillis), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void completed(long runNanos, boolean changed, boolean failed) {
+        runs++;
+        totalRunNanos += runNanos;
+        maxRunNanos = Math.max(maxRunNanos, runNanos);
+        if (failed) {
+            failedRuns++;
+        }
+        if (changed) {
+            changedRuns++;
+            intervalMillis = minIntervalMillis;
+        } else {
+            intervalMillis = Math.min(intervalMillis * 2, maxIntervalMillis);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the delay before the next run, without the jitter
+     */
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public long getMinIntervalMillis() {
+        return minIntervalMillis;
+    }
+
+    public long getMaxIntervalMillis() {
+        return maxIntervalMillis;
+    }
+
+    public synchronized long getRuns() {
+        return runs;
+    }
+
+    public synchronized long getChangedRuns() {
+        return changedRuns;
+    }
+
+    public synchronized long getFailedRuns() {
+        return failedRuns;
+    }
+
+    /**
+     * @return the average time from the start of a run until its answers were handled
+     */
+    public synchronized double getAverageRunMillis() {
+        return runs == 0 ? 0 : totalRunNanos / 1e6 / runs;
+    }
+
+    public synchronized double getMaxRunMillis() {
+        return maxRunNanos / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: %d runs, %d changed, %d failed, %.1f ms on average, %.1f ms at most, " +
+                        "next in %d ms", name, runs, changedRuns, failedRuns, getAverageRunMillis(),
+                getMaxRunMillis(), intervalMillis);
+    }
+}
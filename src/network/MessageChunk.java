@@ -0,0 +1,36 @@
+package network;
+
+/**
+ * A part of a serialized message. Every message is sent as one or more chunks, so a large message (a block or
+ * a batch of blocks) does not occupy the connection until it is entirely written: the small messages are sent
+ * between its chunks. Every chunk is written as a frame (see OutgoingTransfer).
+ */
+public class MessageChunk {
+    private int transferId;
+    private int index;
+    private int count;
+    private byte[] data;
+
+    public MessageChunk(int transferId, int index, int count, byte[] data) {
+        this.transferId = transferId;
+        this.index = index;
+        this.count = count;
+        this.data = data;
+    }
+
+    public int getTransferId() {
+        return transferId;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
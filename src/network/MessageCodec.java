@@ -0,0 +1,13 @@
+package network;
+
+import java.io.IOException;
+
+/**
+ * Converts a message to the bytes that are sent on a connection and back. Both ends of a connection should
+ * use the same codec; it is chosen when the Transport is created.
+ */
+public interface MessageCodec {
+    byte[] encode(Message message) throws IOException;
+
+    Message decode(byte[] data, int length) throws IOException;
+}
@@ -0,0 +1,212 @@
+package network;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the handlers of the received messages (SocketListenerMessageHandlingThread). A handler may block for a
+ * long time, for example while it forwards a FIND_SUCCESSOR message and waits for the answer, so the number of
+ * handlers that run at the same time is limited; the others wait in the order they were received.
+ *
+ * There are two modes:
+ *     THREAD_POOL: a pool with maxConcurrentHandlers platform threads and a queue of maxQueuedHandlers; when the
+ *     queue is full the handler is refused.
+ *     VIRTUAL_THREADS: every handler runs on its own virtual thread and waits for a permit before it starts.
+ * A blocked virtual thread does not hold a platform thread, so many forwards can wait at once. Virtual threads
+ * need Java 21; on an older runtime the executor falls back to THREAD_POOL (see getMode()) and the caller
+ * should log it.
+ *
+ * The executor measures how long the handlers wait before they start and how long they run.
+ */
+public class MessageHandlerExecutor {
+    public enum Mode {
+        THREAD_POOL, VIRTUAL_THREADS
+    }
+
+    public static final int DEFAULT_MAX_CONCURRENT_HANDLERS = 64;
+    public static final int DEFAULT_MAX_QUEUED_HANDLERS = 1024;
+
+    private final Mode mode;
+    private final ExecutorService executor;
+    // null in THREAD_POOL mode, where the size of the pool is the limit
+    private final Semaphore permits;
+
+    private final AtomicLong submittedHandlers = new AtomicLong();
+    private final AtomicLong completedHandlers = new AtomicLong();
+    private final AtomicLong rejectedHandlers = new AtomicLong();
+    private final AtomicInteger runningHandlers = new AtomicInteger();
+    private final AtomicLong totalQueueNanos = new AtomicLong();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+    private final AtomicLong totalRunNanos = new AtomicLong();
+    private final AtomicLong maxRunNanos = new AtomicLong();
+
+    public MessageHandlerExecutor(Mode requestedMode, int maxConcurrentHandlers) {
+        this(requestedMode, maxConcurrentHandlers, DEFAULT_MAX_QUEUED_HANDLERS);
+    }
+
+    /**
+     * @param maxQueuedHandlers the handlers that can wait for a thread of the pool; not used for virtual threads
+     */
+    public MessageHandlerExecutor(Mode requestedMode, int maxConcurrentHandlers, int maxQueuedHandlers) {
+        if (maxConcurrentHandlers < 1) {
+            throw new IllegalArgumentException("At least one handler should be able to run.");
+        }
+        if (maxQueuedHandlers < 1) {
+            throw new IllegalArgumentException("At least one handler should be able to wait.");
+        }
+
+        ExecutorService virtualThreadExecutor = requestedMode == Mode.VIRTUAL_THREADS ? newVirtualThreadExecutor() : null;
+        if (virtualThreadExecutor != null) {
+            mode = Mode.VIRTUAL_THREADS;
+            executor = virtualThreadExecutor;
+            permits = new Semaphore(maxConcurrentHandlers, true);
+        } else {
+            mode = Mode.THREAD_POOL;
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrentHandlers, maxConcurrentHandlers, 10L,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(maxQueuedHandlers), new ThreadFactory() {
+                private final AtomicInteger index = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "message-handler-" + index.getAndIncrement());
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+            permits = null;
+        }
+    }
+
+    /**
+     * Returns immediately; the handler runs when a permit (or a pool thread) is free.
+     *
+     * @return false if the handler is refused because the queue of the pool is full or the executor is shut down
+     */
+    public boolean execute(final Runnable handler) {
+        final long submitted = System.nanoTime();
+        submittedHandlers.incrementAndGet();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (permits != null) {
+                        permits.acquireUninterruptibly();
+                    }
+                    long started = System.nanoTime();
+                    record(started - submitted, totalQueueNanos, maxQueueNanos);
+                    runningHandlers.incrementAndGet();
+                    try {
+                        handler.run();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    } finally {
+                        runningHandlers.decrementAndGet();
+                        record(System.nanoTime() - started, totalRunNanos, maxRunNanos);
+                        completedHandlers.incrementAndGet();
+                        if (permits != null) {
+                            permits.release();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            submittedHandlers.decrementAndGet();
+            rejectedHandlers.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return the mode that is used, which is THREAD_POOL if virtual threads were requested but are not available
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getSubmittedHandlers() {
+        return submittedHandlers.get();
+    }
+
+    public long getCompletedHandlers() {
+        return completedHandlers.get();
+    }
+
+    /**
+     * @return the handlers that were refused because the queue of the pool was full
+     */
+    public long getRejectedHandlers() {
+        return rejectedHandlers.get();
+    }
+
+    public int getRunningHandlers() {
+        return runningHandlers.get();
+    }
+
+    /**
+     * @return the handlers that were submitted and did not start yet
+     */
+    public long getWaitingHandlers() {
+        return submittedHandlers.get() - completedHandlers.get() - runningHandlers.get();
+    }
+
+    public double getAverageQueueMillis() {
+        // the waiting time is known as soon as the handler starts
+        long started = completedHandlers.get() + runningHandlers.get();
+        return started == 0 ? 0 : totalQueueNanos.get() / 1e6 / started;
+    }
+
+    public double getMaxQueueMillis() {
+        return maxQueueNanos.get() / 1e6;
+    }
+
+    public double getAverageRunMillis() {
+        long completed = completedHandlers.get();
+        return completed == 0 ? 0 : totalRunNanos.get() / 1e6 / completed;
+    }
+
+    public double getMaxRunMillis() {
+        return maxRunNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d handlers completed, %d running, %d waiting, %d rejected; queue avg %.2f ms, " +
+                        "max %.2f ms; run avg %.2f ms, max %.2f ms", mode, getCompletedHandlers(), getRunningHandlers(),
+                getWaitingHandlers(), getRejectedHandlers(), getAverageQueueMillis(), getMaxQueueMillis(), getAverageRunMillis(),
+                getMaxRunMillis());
+    }
+
+    private static void record(long nanos, AtomicLong total, AtomicLong max) {
+        total.addAndGet(nanos);
+        long current;
+        while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+            // another handler changed the maximum, compare again
+        }
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() is looked up at runtime, so the code still compiles and runs
+     * on the Java versions without virtual threads.
+     *
+     * @return the executor or null if the runtime does not have virtual threads
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            // a runtime where virtual threads are a preview feature that is not enabled
+            return null;
+        }
+    }
+}
@@ -23,21 +23,43 @@ public enum MessageType {
 
     RETRY,
 
-    GET_BLOCKCHAIN, // ask the successor for the block chain and unspent transactions
+    GET_HEADERS, // the object is a locator (list of block ids), returns the headers of the blocks after it
+    GET_BLOCKS, // the object is a list of block ids, returns the blocks that are found
+    GET_TRANSACTIONS_WITHOUT_BLOCK, // ask the successor for the records and transactions that are not in a block
+    GET_BLOCK, // ask for a single block from the block store, the object is the block id
 
     BROADCAST_TRANSACTION,
     BROADCAST_BLOCK,
-    BROADCAST_MESSAGE;
+    BROADCAST_MESSAGE,
+
+    PING, // sent on the idle connections, the answer is the same message
+
+    FIND_NEXT_HOP, // the object is the sought id, see IterativeLookup; returns SUCCESSOR_FOUND or NEXT_HOPS
+    NEXT_HOPS; // the object is a list with the closest preceding fingers of the node
 
     private static Set<MessageType> answerNotNeeded = new HashSet<MessageType>() {
         {
             add(MessageType.BROADCAST_MESSAGE);
             add(NOTIFY_SUCCESSOR);
+            add(BROADCAST_TRANSACTION);
+            add(BROADCAST_BLOCK);
+        }
+    };
+
+    // the messages that are forwarded through the ring; they are written after the Chord messages and the answers
+    private static Set<MessageType> broadcasts = new HashSet<MessageType>() {
+        {
             add(BROADCAST_MESSAGE);
+            add(BROADCAST_TRANSACTION);
+            add(BROADCAST_BLOCK);
         }
     };
 
     public static boolean waitForAnswer(MessageType type) {
         return !answerNotNeeded.contains(type);
     }
+
+    public static boolean isBroadcast(MessageType type) {
+        return broadcasts.contains(type);
+    }
 }
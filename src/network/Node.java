@@ -1,16 +1,20 @@
 package network;
 
 import currency.Block;
-import currency.BlockchainAndTransactionsWrapper;
+import currency.BlockHeader;
+import currency.BlockId;
 import currency.Client;
 import currency.Transaction;
+import currency.TransactionsWithoutBlockWrapper;
 
 import java.io.IOException;
-import java.net.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.function.Function;
 import java.util.logging.FileHandler;
 import java.util.logging.Handler;
 import java.util.logging.Logger;
@@ -26,20 +30,33 @@ public class Node {
     protected static final int LOG_NODES = 10;
     protected static final long NUMBER_OF_NODES = 1 << LOG_NODES;
     protected static final long STORED_SUCCESSORS = 2;
+    // THREAD_POOL or VIRTUAL_THREADS, see MessageHandlerExecutor
+    public static final String HANDLER_MODE_PROPERTY = "network.handlerMode";
+    // RECURSIVE or ITERATIVE, see IterativeLookup; used when the fingers are fixed
+    public static final String LOOKUP_MODE_PROPERTY = "network.lookupMode";
+    // the base interval of the Chord maintenance tasks in milliseconds, see MaintenanceTask
+    public static final String MAINTENANCE_INTERVAL_PROPERTY = "network.maintenanceInterval";
+    // a batch of blocks takes longer to prepare and send than a Chord answer
+    protected static final long BLOCKS_TIMEOUT_MILLIS = 60000;
+    // the delays between the attempts to send a message to a node that does not answer
+    protected static final long RETRY_MIN_BACKOFF_MILLIS = 100;
+    protected static final long RETRY_MAX_BACKOFF_MILLIS = 5000;
 
     protected long id;
     protected int port;
     protected String ip;
-    protected List<NodeInfo> fingerTable;
+    protected FingerTable fingerTable;
     // the successor list is required to handle node failures
     protected List<Integer> bootstrapNodes;
-    protected ServerSocket serverSocket;
 
     protected NodeInfo predecessor;
     protected NodeInfo successor;
     protected NodeInfo nextSuccessor;
 
+    protected Transport transport;
+    protected MessageHandlerExecutor handlerExecutor;
     protected Dispatcher dispatcher;
+    protected List<MaintenanceTask> maintenanceTasks;
     // the network node needs to know about the client because other clients could ask for the block chain
     protected Client client;
 
@@ -55,7 +72,7 @@ public class Node {
 
         this.client = client;
 
-        fingerTable = new ArrayList<>(LOG_NODES);
+        transport = new Transport();
         dispatcher = new Dispatcher(this);
 
         // the identifier for this node in the ring
@@ -75,36 +92,38 @@ public class Node {
             dispatcher.sendMessage(new Message(MessageType.NOTIFY_SUCCESSOR, getNodeInfo()), false, successor);
         }
 
-        fingerTable.add(successor);
-        // fill the fingertable
-        for (int i = 1; i < LOG_NODES; i++) {
-            fingerTable.add(new NodeInfo("localhost", -1, -1));
-        }
+        fingerTable = new FingerTable(successor, LOG_NODES);
 
         startChordThreads(port);
     }
 
     protected void startChordThreads(final int port) {
-        // run the SocketListener in a separate thread to handle incoming messages
-        new Thread() {
-            @Override
-            public void run() {
-                listen(port);
-            }
-        }.start();
-
-        // periodically run the stabilize procedure to check if a node joined between this node and its successor
-        // and to inform the successor that this node is its predecessor (in case the current node just joined)
-        new StabilizeThread(this, dispatcher).start();
-
-        // create a separate thread that will fix the fingers
-        new FixFingersThread(dispatcher, id, this).start();
-
-        // check for predecessor thread
-        new CheckPredecessorThread(this, dispatcher).start();
+        // the incoming messages are read by the transport threads and handled by the SocketListener
+        listen(port);
+
+        maintenanceTasks = Arrays.asList(
+                // periodically run the stabilize procedure to check if a node joined between this node and its
+                // successor and to inform the successor that this node is its predecessor (in case the current
+                // node just joined)
+                new StabilizeTask(this, dispatcher),
+                // fix the fingers, one at a time
+                new FixFingersTask(id, this),
+                // check if the predecessor is alive
+                new CheckPredecessorTask(this, dispatcher),
+                // ask the successor about its successor
+                new AskForSuccessorsTask(this, dispatcher));
+
+        // the tasks of all the nodes run on a shared scheduler
+        for (MaintenanceTask task : maintenanceTasks) {
+            task.start();
+        }
+    }
 
-        // thread that asks the successor about its successor
-        new AskForSuccessorsThread(this, dispatcher).start();
+    /**
+     * @return the Chord maintenance tasks, with their intervals and timing metrics
+     */
+    public List<MaintenanceTask> getMaintenanceTasks() {
+        return maintenanceTasks;
     }
 
     protected NodeInfo findSuccessor(String ip, int port) {
@@ -142,22 +161,28 @@ public class Node {
     }
 
     protected void listen(int port) {
+        handlerExecutor = createHandlerExecutor();
         try {
-            serverSocket = new ServerSocket(port);
-        } catch (UnknownHostException e) {
-            e.printStackTrace();
+            transport.listen(port, new SocketListener(this, dispatcher, handlerExecutor));
         } catch (IOException e) {
             e.printStackTrace();
         }
-        while (true) {
-            Socket client;
-            try {
-                client = serverSocket.accept();
-                dealWithClient(client);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    }
+
+    /**
+     * The handlers run on virtual threads, unless the system property HANDLER_MODE_PROPERTY asks for a thread pool
+     * or the runtime does not have virtual threads.
+     */
+    protected MessageHandlerExecutor createHandlerExecutor() {
+        MessageHandlerExecutor.Mode mode = MessageHandlerExecutor.Mode.valueOf(
+                System.getProperty(HANDLER_MODE_PROPERTY, MessageHandlerExecutor.Mode.VIRTUAL_THREADS.name()));
+        MessageHandlerExecutor executor = new MessageHandlerExecutor(mode,
+                MessageHandlerExecutor.DEFAULT_MAX_CONCURRENT_HANDLERS, MessageHandlerExecutor.DEFAULT_MAX_QUEUED_HANDLERS);
+        if (executor.getMode() != mode) {
+            networkLogger.warning(id + ": The runtime does not have virtual threads, the messages are handled by a " +
+                    "pool of " + MessageHandlerExecutor.DEFAULT_MAX_CONCURRENT_HANDLERS + " threads.");
         }
+        return executor;
     }
 
     /**
@@ -213,12 +238,11 @@ public class Node {
     }
 
     /**
-     * Ask the successor for its block chain and unspent transactions database.
-     * They will be wrapped in a BlockchainAndTransactionsWrapper object.
+     * Ask the successor for the records and transactions that are not in a block, after the chain was synchronized.
      * @return
      */
-    public BlockchainAndTransactionsWrapper askSuccessorForBlockchain() {
-        Message message = new Message(MessageType.GET_BLOCKCHAIN, null);
+    public TransactionsWithoutBlockWrapper askSuccessorForTransactionsWithoutBlock() {
+        Message message = new Message(MessageType.GET_TRANSACTIONS_WITHOUT_BLOCK, null);
         Message answer = null;
 
         try {
@@ -227,7 +251,106 @@ public class Node {
             e.printStackTrace();
         }
 
-        return (BlockchainAndTransactionsWrapper) answer.getObject();
+        return (TransactionsWithoutBlockWrapper) answer.getObject();
+    }
+
+    /**
+     * Ask a node for the headers of its chain after the first block in the locator that it knows.
+     * The message is sent only once.
+     * @return the headers or null if the node did not answer
+     */
+    @SuppressWarnings("unchecked")
+    public List<BlockHeader> askForHeaders(List<BlockId> locator, NodeInfo peer)
+            throws ExecutionException, InterruptedException {
+        Message message = new Message(MessageType.GET_HEADERS, new ArrayList<>(locator));
+        Message answer = dispatcher.sendMessage(message, true, peer).get();
+
+        if (answer.getType() == MessageType.RETRY) {
+            return null;
+        }
+        return (List<BlockHeader>) answer.getObject();
+    }
+
+    /**
+     * Ask a node for a batch of blocks without waiting for the answer, so several batches can be requested at once.
+     * The answer is a list with the blocks that the node has or a RETRY message if the node did not answer in
+     * BLOCKS_TIMEOUT_MILLIS.
+     */
+    public Future<Message> requestBlocks(List<BlockId> blockIds, NodeInfo peer) {
+        Message message = new Message(MessageType.GET_BLOCKS, new ArrayList<>(blockIds));
+        return dispatcher.sendMessage(message, true, peer, BLOCKS_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @return the nodes that can be asked for blocks: the successor first, then the other known nodes, without duplicates
+     */
+    public List<NodeInfo> getSyncPeers() {
+        List<NodeInfo> peers = new ArrayList<>();
+        addSyncPeer(peers, successor);
+        addSyncPeer(peers, nextSuccessor);
+        for (NodeInfo finger : fingerTable.snapshot().asList()) {
+            addSyncPeer(peers, finger);
+        }
+        return peers;
+    }
+
+    private void addSyncPeer(List<NodeInfo> peers, NodeInfo peer) {
+        // the fingers that were not found yet have the port -1
+        if (peer != null && peer.getPort() != -1 && peer.getKey() != id && !peers.contains(peer)) {
+            peers.add(peer);
+        }
+    }
+
+    /**
+     * Asks the sync peers, one at a time, for a block that is kept in their block stores. It is used to find the
+     * parent of an orphan block, which this node missed.
+     * @return the block or null if no peer has it
+     */
+    public Block askForBlock(BlockId blockId) {
+        for (NodeInfo peer : getSyncPeers()) {
+            try {
+                Message answer = dispatcher.sendMessage(new Message(MessageType.GET_BLOCK, blockId), true, peer).get();
+                if (answer.getType() != MessageType.RETRY && answer.getObject() != null) {
+                    return (Block) answer.getObject();
+                }
+            } catch (ExecutionException | InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    public Block getStoredBlock(BlockId blockId) {
+        return client.getStoredBlock(blockId);
+    }
+
+    /**
+     * Finds the successor of the id for a finger. In the RECURSIVE mode (the default) the successor of this node
+     * forwards the request through the ring; in the ITERATIVE mode this node asks every hop, see IterativeLookup.
+     * The mode is selected by the system property LOOKUP_MODE_PROPERTY.
+     *
+     * @return a future with the successor or null if the lookup failed and should be tried again later
+     */
+    public CompletableFuture<NodeInfo> findFingerSuccessor(long fingerId) {
+        IterativeLookup.Mode mode = IterativeLookup.Mode.valueOf(
+                System.getProperty(LOOKUP_MODE_PROPERTY, IterativeLookup.Mode.RECURSIVE.name()));
+
+        if (mode == IterativeLookup.Mode.ITERATIVE) {
+            FingerTable.Snapshot fingers = fingerTable.snapshot();
+            if (SocketListener.belongsToIntervalForBroadcast(fingerId, id, fingers.getKey(0))) {
+                return CompletableFuture.completedFuture(fingers.get(0));
+            }
+            IterativeLookup lookup = new IterativeLookup(dispatcher, fingerId, IterativeLookup.DEFAULT_ALPHA);
+            return lookup.start(fingers.closestPrecedingFingers(id, fingerId, IterativeLookup.NEXT_HOPS));
+        }
+
+        return dispatcher.sendMessage(new Message(MessageType.FIND_SUCCESSOR_FIX_FINGER, fingerId), true, 0)
+                .thenApply(new Function<Message, NodeInfo>() {
+                    @Override
+                    public NodeInfo apply(Message received) {
+                        return received.getType() == MessageType.RETRY ? null : (NodeInfo) received.getObject();
+                    }
+                });
     }
 
     /**
@@ -243,23 +366,36 @@ public class Node {
         boolean success = false;
         Future<Message> future;
         Message answer;
+        int failures = 0;
 
         do {
+            if (failures > 0) {
+                // the dispatcher fails at once while the node is unreachable, do not ask it again immediately
+                Thread.sleep(Backoff.delay(failures, RETRY_MIN_BACKOFF_MILLIS, RETRY_MAX_BACKOFF_MILLIS));
+            }
             future = dispatcher.sendMessage(message, true, finger);
             answer = future.get();
 
             if (answer.getType() != MessageType.RETRY) {
                 success = true;
+            } else {
+                failures++;
             }
         } while (!success);
 
         return answer;
     }
 
-    public BlockchainAndTransactionsWrapper getBlockchainAndTransactions() {
-        return new BlockchainAndTransactionsWrapper(client.getUnspentTransactions(),
-                client.getBlockchain(), client.getOrphanBlocks(),
-                client.getTransactionsWithoutBlock(), client.getLastBlockInChain());
+    public List<BlockHeader> getHeadersAfter(List<BlockId> locator) {
+        return client.getHeadersAfter(locator);
+    }
+
+    public List<Block> getBlocks(List<BlockId> blockIds) {
+        return client.getBlocks(blockIds);
+    }
+
+    public TransactionsWithoutBlockWrapper getTransactionsWithoutBlock() {
+        return client.getTransactionsWithoutBlockWrapper();
     }
 
     protected void initLogger() {
@@ -276,10 +412,6 @@ public class Node {
         }
     }
 
-    protected void dealWithClient(Socket client) {
-        new Thread(new SocketListener(client, this, dispatcher)).start();
-    }
-
     public long getId() {
         return id;
     }
@@ -300,7 +432,7 @@ public class Node {
         this.successor = successor;
     }
 
-    public List<NodeInfo> getFingerTable() {
+    public FingerTable getFingerTable() {
         return fingerTable;
     }
 
@@ -324,6 +456,14 @@ public class Node {
         this.nextSuccessor = nextSuccessor;
     }
 
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public MessageHandlerExecutor getHandlerExecutor() {
+        return handlerExecutor;
+    }
+
     public Logger getNetworkLogger() {
         return networkLogger;
     }
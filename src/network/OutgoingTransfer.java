@@ -0,0 +1,96 @@
+package network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An encoded message that is written in chunks of at most CHUNK_SIZE bytes. Every chunk is sent as a frame:
+ *
+ *     transfer id | chunk index | chunk count | data length | data
+ */
+public class OutgoingTransfer {
+    public static final int CHUNK_SIZE = 64 * 1024;
+    public static final int FRAME_HEADER_SIZE = 4 * 4;
+    public static final int MAX_FRAME_SIZE = FRAME_HEADER_SIZE + CHUNK_SIZE;
+
+    private final Message message;
+    private final int transferId;
+    private final byte[] data;
+    private final int count;
+    // identifies a broadcast while it waits in the queue, see Connection; null for the other messages
+    private final Object broadcastKey;
+    private int nextIndex;
+
+    public OutgoingTransfer(Message message, int transferId, MessageCodec codec) throws IOException {
+        this(message, transferId, codec, null);
+    }
+
+    public OutgoingTransfer(Message message, int transferId, MessageCodec codec, Object broadcastKey)
+            throws IOException {
+        this.message = message;
+        this.transferId = transferId;
+        this.broadcastKey = broadcastKey;
+        this.data = codec.encode(message);
+        // the receiver would close the connection
+        if (data.length > ChunkAssembler.MAX_MESSAGE_SIZE) {
+            throw new IOException("The message has " + data.length + " bytes, the limit is " +
+                    ChunkAssembler.MAX_MESSAGE_SIZE + ".");
+        }
+        // an empty message still needs one chunk
+        this.count = Math.max(1, (data.length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    public boolean hasNext() {
+        return nextIndex < count;
+    }
+
+    public MessageChunk next() {
+        int from = nextIndex * CHUNK_SIZE;
+        MessageChunk chunk = new MessageChunk(transferId, nextIndex, count,
+                Arrays.copyOfRange(data, from, from + nextChunkLength()));
+        nextIndex++;
+        return chunk;
+    }
+
+    /**
+     * @return the number of bytes of the frame that contains the next chunk
+     */
+    public int nextFrameSize() {
+        return FRAME_HEADER_SIZE + nextChunkLength();
+    }
+
+    /**
+     * Writes the next chunk as a frame, without copying it in a MessageChunk first. The buffer should have at
+     * least nextFrameSize() bytes remaining.
+     */
+    public void writeNextFrame(ByteBuffer buffer) {
+        int length = nextChunkLength();
+        buffer.putInt(transferId);
+        buffer.putInt(nextIndex);
+        buffer.putInt(count);
+        buffer.putInt(length);
+        buffer.put(data, nextIndex * CHUNK_SIZE, length);
+        nextIndex++;
+    }
+
+    private int nextChunkLength() {
+        int from = nextIndex * CHUNK_SIZE;
+        return Math.min(from + CHUNK_SIZE, data.length) - from;
+    }
+
+    /**
+     * @return true if the message fits in a single chunk
+     */
+    public boolean isSmall() {
+        return count == 1;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public Object getBroadcastKey() {
+        return broadcastKey;
+    }
+}
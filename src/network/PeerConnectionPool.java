@@ -0,0 +1,248 @@
+package network;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps the connections of a dispatcher with the other nodes and the health of every peer.
+ *
+ * Every peer has a circuit breaker:
+ *     CLOSED: the peer is healthy; a connection is opened when a message is sent.
+ *     OPEN: the connection failed; the messages fail at once with RETRY, without trying to connect, until the
+ * backoff passes. The backoff doubles with every consecutive failure, up to MAX_BACKOFF_MILLIS.
+ *     HALF_OPEN: the backoff passed and the maintenance task connects again in the background and sends a PING.
+ * If the answer arrives, the circuit is CLOSED again, otherwise it is OPEN with a longer backoff.
+ *
+ * The maintenance task also sends a PING on the connections that received nothing for pingIntervalMillis, so a
+ * peer that stopped without closing the connection is found before a real message waits for it, even while the
+ * node keeps sending broadcasts to it. It closes the connections that were idle (nothing sent or received) for
+ * idleTimeoutMillis and have no message waiting for an answer.
+ */
+public class PeerConnectionPool {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public static final long IDLE_TIMEOUT_MILLIS = 60000;
+    public static final long PING_INTERVAL_MILLIS = 5000;
+    public static final long PING_TIMEOUT_MILLIS = 3000;
+    public static final long MIN_BACKOFF_MILLIS = 500;
+    public static final long MAX_BACKOFF_MILLIS = 30000;
+    private static final long MAINTENANCE_PERIOD_MILLIS = 1000;
+
+    // a single thread runs the maintenance of all the pools; it only starts connections and sends messages
+    private static final ScheduledExecutorService MAINTENANCE = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "peer-pool-maintenance");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final Transport transport;
+    private final Dispatcher dispatcher;
+    private final long idleTimeoutMillis;
+    private final long pingIntervalMillis;
+    private final ConcurrentMap<NodeInfo, Peer> peers = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> maintenanceTask;
+
+    public PeerConnectionPool(Transport transport, Dispatcher dispatcher) {
+        this(transport, dispatcher, IDLE_TIMEOUT_MILLIS, PING_INTERVAL_MILLIS);
+    }
+
+    public PeerConnectionPool(Transport transport, Dispatcher dispatcher, long idleTimeoutMillis,
+                              long pingIntervalMillis) {
+        this.transport = transport;
+        this.dispatcher = dispatcher;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.pingIntervalMillis = pingIntervalMillis;
+    }
+
+    public void start() {
+        maintenanceTask = MAINTENANCE.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    maintain(System.currentTimeMillis());
+                } catch (RuntimeException e) {
+                    // the task would not be scheduled again
+                    e.printStackTrace();
+                }
+            }
+        }, MAINTENANCE_PERIOD_MILLIS, MAINTENANCE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (maintenanceTask != null) {
+            maintenanceTask.cancel(false);
+        }
+    }
+
+    /**
+     * @param probe true for the PING sent by the pool to a HALF_OPEN peer
+     * @return the connection with the peer, which is opened if needed, or null if the circuit of the peer is not
+     * closed and the message should fail immediately
+     * @throws IOException if the address of the peer cannot be used
+     */
+    public Connection getConnection(NodeInfo nodeInfo, ConnectionHandler handler, boolean probe) throws IOException {
+        Peer peer = getPeer(nodeInfo);
+        synchronized (peer) {
+            if (peer.state == State.OPEN || (peer.state == State.HALF_OPEN && !probe)) {
+                return null;
+            }
+            if (peer.connection == null) {
+                try {
+                    // only starts the connection, it does not wait for it
+                    peer.connection = transport.connect(nodeInfo, handler);
+                } catch (IOException e) {
+                    recordFailure(peer, System.currentTimeMillis());
+                    throw e;
+                }
+            }
+            return peer.connection;
+        }
+    }
+
+    /**
+     * Called when a connection with the peer is closed. It is a failure unless the pool closed it because it
+     * was idle.
+     * @return false if the pool closed the connection because it was idle; the messages that wait for the peer
+     * were sent on another connection
+     */
+    public boolean connectionClosed(NodeInfo nodeInfo, Connection connection) {
+        Peer peer = getPeer(nodeInfo);
+        synchronized (peer) {
+            if (peer.connection == connection) {
+                peer.connection = null;
+            }
+            if (peer.evicted == connection) {
+                peer.evicted = null;
+                return false;
+            }
+            if (peer.state != State.OPEN) {
+                recordFailure(peer, System.currentTimeMillis());
+            }
+            return true;
+        }
+    }
+
+    public State getState(NodeInfo nodeInfo) {
+        Peer peer = peers.get(nodeInfo);
+        if (peer == null) {
+            return State.CLOSED;
+        }
+        synchronized (peer) {
+            return peer.state;
+        }
+    }
+
+    /**
+     * Checks every peer: starts the probes of the OPEN peers whose backoff passed, pings the idle connections and
+     * closes the connections that were idle for too long.
+     *
+     * @param now the current time in milliseconds
+     */
+    void maintain(long now) {
+        List<NodeInfo> probes = new ArrayList<>();
+        List<NodeInfo> pings = new ArrayList<>();
+        List<Connection> evicted = new ArrayList<>();
+
+        for (Map.Entry<NodeInfo, Peer> entry : peers.entrySet()) {
+            Peer peer = entry.getValue();
+            synchronized (peer) {
+                if (peer.state == State.OPEN && now >= peer.nextAttempt) {
+                    peer.state = State.HALF_OPEN;
+                    probes.add(entry.getKey());
+                } else if (peer.state == State.CLOSED && peer.connection != null) {
+                    long idle = now - peer.connection.getLastActivity();
+                    // the messages sent to the peer do not show that it is alive
+                    long silent = now - peer.connection.getLastReceived();
+                    if (idle >= idleTimeoutMillis && !dispatcher.hasWaitingMessages(entry.getKey())) {
+                        peer.evicted = peer.connection;
+                        peer.connection = null;
+                        evicted.add(peer.evicted);
+                    } else if (silent >= pingIntervalMillis) {
+                        pings.add(entry.getKey());
+                    }
+                }
+            }
+        }
+
+        for (Connection connection : evicted) {
+            connection.close();
+        }
+        for (NodeInfo nodeInfo : probes) {
+            ping(nodeInfo, true);
+        }
+        for (NodeInfo nodeInfo : pings) {
+            ping(nodeInfo, false);
+        }
+    }
+
+    private void ping(final NodeInfo nodeInfo, boolean probe) {
+        CompletableFuture<Message> answer = dispatcher.sendPing(nodeInfo, PING_TIMEOUT_MILLIS, probe);
+        answer.whenComplete(new BiConsumer<Message, Throwable>() {
+            @Override
+            public void accept(Message message, Throwable throwable) {
+                boolean alive = message != null && message.getType() != MessageType.RETRY;
+                Peer peer = getPeer(nodeInfo);
+                Connection dead = null;
+                synchronized (peer) {
+                    if (alive) {
+                        if (peer.state == State.HALF_OPEN) {
+                            peer.state = State.CLOSED;
+                            peer.failures = 0;
+                        }
+                    } else if (peer.state != State.OPEN) {
+                        // the peer did not answer in time but the connection may still be open
+                        recordFailure(peer, System.currentTimeMillis());
+                        dead = peer.connection;
+                        peer.connection = null;
+                    }
+                }
+                if (dead != null) {
+                    dead.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Opens the circuit of the peer. Should be called with the lock of the peer.
+     */
+    private void recordFailure(Peer peer, long now) {
+        peer.failures++;
+        peer.state = State.OPEN;
+        peer.nextAttempt = now + Backoff.delay(peer.failures, MIN_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+    }
+
+    private Peer getPeer(NodeInfo nodeInfo) {
+        Peer peer = peers.get(nodeInfo);
+        if (peer == null) {
+            Peer created = new Peer();
+            peer = peers.putIfAbsent(nodeInfo, created);
+            if (peer == null) {
+                peer = created;
+            }
+        }
+        return peer;
+    }
+
+    /**
+     * The connection and the circuit breaker of a peer, guarded by the object's lock.
+     */
+    private static class Peer {
+        private Connection connection;
+        // the connection closed by the pool because it was idle; its closing is not a failure
+        private Connection evicted;
+        private State state = State.CLOSED;
+        private int failures;
+        private long nextAttempt;
+    }
+}
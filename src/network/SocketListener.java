@@ -1,67 +1,56 @@
 package network;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
 import java.util.Date;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
+ * Handles the messages received on the connections accepted by the node. The transport reads the messages; every
+ * message is handled by the MessageHandlerExecutor of the node and the answer is written on the connection it
+ * came from.
+ *
  * Created by Sorin Nutu on 2/17/2015.
  */
-public class SocketListener implements Runnable {
+public class SocketListener implements ConnectionHandler {
 
-    private Socket client;
-    private ObjectInputStream reader;
-    private ObjectOutputStream writer;
     private Node correspondingNode;
     private Dispatcher dispatcher;
-    private ThreadPoolExecutor executor;
+    private MessageHandlerExecutor executor;
     private Logger networkLogger;
 
-    public SocketListener(Socket client, Node correspondingNode, Dispatcher dispatcher) {
-        this.client = client;
+    public SocketListener(Node correspondingNode, Dispatcher dispatcher, MessageHandlerExecutor executor) {
         this.correspondingNode = correspondingNode;
         this.networkLogger = correspondingNode.getNetworkLogger();
-        try {
-            reader = new ObjectInputStream(client.getInputStream());
-            writer = new ObjectOutputStream(client.getOutputStream());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
         this.dispatcher = dispatcher;
-
-        // use a unbounded queue because all the messages should be processed
-        executor = new ThreadPoolExecutor(1, Integer.MAX_VALUE, 10L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        this.executor = executor;
     }
 
     @Override
-    public void run() {
-        Object messageObject;
-        try {
-            while((messageObject = reader.readObject()) != null) {
-                Message message = (Message) messageObject;
+    public void messageReceived(Connection connection, Message message) {
+        networkLogger.info("Am primit in SocketListener:" + message);
 
-                networkLogger.info("Am primit in SocketListener:" + message);
-
-                // handle the message in a separate thread, so the caller should not wait until the current
-                // message is entirely processed
-                SocketListenerMessageHandlingThread thread = new SocketListenerMessageHandlingThread(message,
-                        correspondingNode, writer, dispatcher);
-                executor.execute(thread);
+        // the answer does not need the node, send it from the I/O thread even if all the handlers are busy
+        if (message.getType() == MessageType.PING) {
+            connection.sendMessage(message);
+            return;
+        }
 
-            }
-        } catch (IOException e) {
-            networkLogger.info((new Date()).toString() + " " + correspondingNode.getId() + ": Lost contact with a node that closed the socket." + client.getPort() + " " + client.getLocalPort());
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
+        // handle the message on another thread, so the I/O thread does not wait until the current
+        // message is entirely processed
+        if (!executor.execute(new SocketListenerMessageHandlingThread(message, correspondingNode, connection, dispatcher))) {
+            networkLogger.warning(correspondingNode.getId() + ": Too many messages wait to be handled, dropped " + message);
         }
     }
 
+    @Override
+    public void messageNotSent(Connection connection, Message message) {
+        System.err.println((new Date()).toString() + " " + correspondingNode.getId() + ": Could not send the answer " + message);
+    }
+
+    @Override
+    public void connectionClosed(Connection connection) {
+        networkLogger.info((new Date()).toString() + " " + correspondingNode.getId() + ": Lost contact with a node that closed the socket.");
+    }
+
 
     /**
      * @param id
@@ -120,4 +109,11 @@ public class SocketListener implements Runnable {
         }
         return false;
     }
+
+    /**
+     * @return the number of ids passed when going clockwise from the first id to the second one
+     */
+    protected static long ringDistance(long from, long to) {
+        return ((to - from) % Node.NUMBER_OF_NODES + Node.NUMBER_OF_NODES) % Node.NUMBER_OF_NODES;
+    }
 }
@@ -1,14 +1,14 @@
 package network;
 
 import currency.Block;
-import currency.BlockchainAndTransactionsWrapper;
+import currency.BlockId;
 import currency.Transaction;
+import currency.TransactionsWithoutBlockWrapper;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.util.Date;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.List;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
@@ -18,20 +18,21 @@ public class SocketListenerMessageHandlingThread implements Runnable {
 
     private Message message;
     private Node correspondingNode;
-    private ObjectOutputStream writer;
+    private Connection connection;
     private Dispatcher dispatcher;
     private Logger networkLogger;
 
     public SocketListenerMessageHandlingThread(Message message, Node correspondingNode,
-                                               ObjectOutputStream writer, Dispatcher dispatcher) {
+                                               Connection connection, Dispatcher dispatcher) {
         this.message = message;
         this.correspondingNode = correspondingNode;
         this.networkLogger = correspondingNode.getNetworkLogger();
-        this.writer = writer;
+        this.connection = connection;
         this.dispatcher = dispatcher;
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public void run() {
         try {
             if (message.getType() == MessageType.FIND_SUCCESSOR_JOIN) {
@@ -65,6 +66,11 @@ public class SocketListenerMessageHandlingThread implements Runnable {
                 }
             }
 
+            // a step of an iterative lookup, the asking node contacts the next hop itself
+            if (message.getType() == MessageType.FIND_NEXT_HOP) {
+                handleFindNextHop(message);
+            }
+
             // respond with the predecessor of the current node
             if (message.getType() == MessageType.GET_PREDECESSOR) {
                 int tag = message.getTag();
@@ -116,13 +122,30 @@ public class SocketListenerMessageHandlingThread implements Runnable {
                 handleBroadcastMessage(wrapper, MessageType.BROADCAST_BLOCK);
             }
 
-            if (message.getType() == MessageType.GET_BLOCKCHAIN) {
-                // add the wrapper to the existing message, the tag should be the same
-                BlockchainAndTransactionsWrapper wrapper = correspondingNode.getBlockchainAndTransactions();
+            // the answers are added to the existing message, the tag should be the same
+            if (message.getType() == MessageType.GET_HEADERS) {
+                message.setObject(correspondingNode.getHeadersAfter((List<BlockId>) message.getObject()));
+                writeAnswer(message);
+            }
+
+            if (message.getType() == MessageType.GET_BLOCKS) {
+                message.setObject(correspondingNode.getBlocks((List<BlockId>) message.getObject()));
+                writeAnswer(message);
+            }
+
+            if (message.getType() == MessageType.GET_TRANSACTIONS_WITHOUT_BLOCK) {
+                TransactionsWithoutBlockWrapper wrapper = correspondingNode.getTransactionsWithoutBlock();
                 message.setObject(wrapper);
                 writeAnswer(message);
             }
 
+            if (message.getType() == MessageType.GET_BLOCK) {
+                // the answer is null if the block is not stored
+                Block block = correspondingNode.getStoredBlock((BlockId) message.getObject());
+                message.setObject(block);
+                writeAnswer(message);
+            }
+
         } catch (IOException e) {
             networkLogger.info((new Date()).toString() + " " + correspondingNode.getId() + ": Lost contact with a node that closed the socket.");
         } catch (ClassNotFoundException e) {
@@ -141,10 +164,14 @@ public class SocketListenerMessageHandlingThread implements Runnable {
         long intervalStart = wrapper.getStart();
         long intervalEnd = wrapper.getEnd();
 
+        // the same fingers for the whole decision, even if the table changes in the meantime
+        FingerTable.Snapshot fingers = correspondingNode.getFingerTable().snapshot();
+        NodeInfo successor = fingers.get(0);
+
         String logMessage = "Node " + correspondingNode.getId() + ":\n";
         logMessage += "**I received a broadcast message with intervalStart = " + intervalStart + " and intervalEnd = " + intervalEnd + "\n";
 
-        long successorKey = correspondingNode.getFingerTable().get(0).getKey();
+        long successorKey = successor.getKey();
         logMessage += "My successor is " + successorKey + "\n";
 
         if (successorKey == correspondingNode.getId()) {
@@ -155,55 +182,55 @@ public class SocketListenerMessageHandlingThread implements Runnable {
 
         // send the message further only if the successor is in the given interval
         if (SocketListener.belongsToIntervalForBroadcast(successorKey, intervalStart, intervalEnd)) {
-            int finger = getFingerForBroadcast(intervalStart, intervalEnd);
-            logMessage += "The finger for broadcast is " + finger + " with key " + correspondingNode.getFingerTable().get(finger).getKey() + "\n";
+            int finger = getFingerForBroadcast(fingers, intervalStart, intervalEnd);
+            logMessage += "The finger for broadcast is " + finger + " with key " + fingers.getKey(finger) + "\n";
 
             // if the closest finger to the middle is the same with successor, find another one
-            if (correspondingNode.getFingerTable().get(finger).getKey() == correspondingNode.getFingerTable().get(0).getKey()) {
-                finger = getLastFingerInInterval(intervalStart, intervalEnd);
-                logMessage += "The finger is equal to the successor. New finger: " + finger + " with key " + correspondingNode.getFingerTable().get(finger).getKey() + "\n";
+            if (fingers.getKey(finger) == successorKey) {
+                finger = getLastFingerInInterval(fingers, intervalStart, intervalEnd);
+                logMessage += "The finger is equal to the successor. New finger: " + finger + " with key " + fingers.getKey(finger) + "\n";
 
                 // if the last finger in interval points to the same node as the successor, send the message only once
-                if (successorKey == correspondingNode.getFingerTable().get(finger).getKey()) {
-                    wrapper.setStart(correspondingNode.getFingerTable().get(0).getKey());
+                if (successorKey == fingers.getKey(finger)) {
+                    wrapper.setStart(successorKey);
                     wrapper.setEnd(intervalEnd);
 
                     Message first = new Message(type, wrapper);
-                    logMessage += "I will sent the message only to successor: " + successorKey + " with intervalStart = " + correspondingNode.getFingerTable().get(0).getKey() + " and intervalEnd = " + intervalEnd + "\n";
-                    dispatcher.sendMessage(first, false, 0);
+                    logMessage += "I will sent the message only to successor: " + successorKey + " with intervalStart = " + successorKey + " and intervalEnd = " + intervalEnd + "\n";
+                    dispatcher.sendMessage(first, false, successor);
                 } else {
                     // send a message to successor and one to the newly found finger
-                    long fingerKey = correspondingNode.getFingerTable().get(finger).getKey();
+                    long fingerKey = fingers.getKey(finger);
 
-                    logMessage += "****I will sent it to successor with intervalStart = " + correspondingNode.getFingerTable().get(0).getKey() + " and intervalEnd = " + (fingerKey - 1) + "\n";
+                    logMessage += "****I will sent it to successor with intervalStart = " + successorKey + " and intervalEnd = " + (fingerKey - 1) + "\n";
                     logMessage += "****I will sent it to a finger with intervalStart = " + fingerKey + " and intervalEnd = " + intervalEnd + "\n";
 
-                    wrapper.setStart(correspondingNode.getFingerTable().get(0).getKey());
+                    wrapper.setStart(successorKey);
                     wrapper.setEnd(fingerKey - 1);
 
                     Message first = new Message(type, wrapper);
-                    dispatcher.sendMessage(first, false, 0);
+                    dispatcher.sendMessage(first, false, successor);
 
                     BroadcastMessageWrapper secondWrapper = new BroadcastMessageWrapper(fingerKey, intervalEnd, wrapper.getMessage());
                     Message second = new Message(type, secondWrapper);
-                    dispatcher.sendMessage(second, false, finger);
+                    dispatcher.sendMessage(second, false, fingers.get(finger));
                 }
             } else {
                 // send the message to the successor and to the finger
-                long fingerKey = correspondingNode.getFingerTable().get(finger).getKey();
+                long fingerKey = fingers.getKey(finger);
 
-                logMessage += "**I will sent it to successor with intervalStart = " + correspondingNode.getFingerTable().get(0).getKey() + " and intervalEnd = " + (fingerKey - 1) + "\n";
+                logMessage += "**I will sent it to successor with intervalStart = " + successorKey + " and intervalEnd = " + (fingerKey - 1) + "\n";
                 logMessage += "**I will sent it to a finger with intervalStart = " + fingerKey + " and intervalEnd = " + intervalEnd + "\n";
 
-                wrapper.setStart(correspondingNode.getFingerTable().get(0).getKey());
+                wrapper.setStart(successorKey);
                 wrapper.setEnd(fingerKey - 1);
 
                 Message first = new Message(type, wrapper);
-                dispatcher.sendMessage(first, false, 0);
+                dispatcher.sendMessage(first, false, successor);
 
                 BroadcastMessageWrapper secondWrapper = new BroadcastMessageWrapper(fingerKey, intervalEnd, wrapper.getMessage());
                 Message second = new Message(type, secondWrapper);
-                dispatcher.sendMessage(second, false, finger);
+                dispatcher.sendMessage(second, false, fingers.get(finger));
             }
         }
 
@@ -216,19 +243,19 @@ public class SocketListenerMessageHandlingThread implements Runnable {
      *
      * @return the finger id or -1 if there is no finger in the interval
      */
-    private int getFingerForBroadcast(long start, long end) {
+    private int getFingerForBroadcast(FingerTable.Snapshot fingers, long start, long end) {
         long min = Long.MAX_VALUE;
         int finger = -1;
 
         long distance = (end - start + Node.NUMBER_OF_NODES) % Node.NUMBER_OF_NODES;
         long middle = (start + distance / 2) % Node.NUMBER_OF_NODES;
 
-        for (int i = 0; i < Node.LOG_NODES; i++) {
-            NodeInfo node = correspondingNode.getFingerTable().get(i);
+        for (int i = 0; i < fingers.size(); i++) {
+            long key = fingers.getKey(i);
             // check if the finger is populated!
-            if (node.getKey() != -1 && SocketListener.belongsToIntervalForBroadcast(node.getKey(), start, end)) {
-                if (Math.abs(node.getKey() - middle) < min) {
-                    min = Math.abs(node.getKey() - middle);
+            if (key != -1 && SocketListener.belongsToIntervalForBroadcast(key, start, end)) {
+                if (Math.abs(key - middle) < min) {
+                    min = Math.abs(key - middle);
                     finger = i;
                 }
             }
@@ -237,11 +264,11 @@ public class SocketListenerMessageHandlingThread implements Runnable {
         return finger;
     }
 
-    private int getLastFingerInInterval(long start, long end) {
+    private int getLastFingerInInterval(FingerTable.Snapshot fingers, long start, long end) {
         int last = 0;
-        for (int i = 0; i < Node.LOG_NODES; i++) {
-            NodeInfo node = correspondingNode.getFingerTable().get(i);
-            if (node.getKey() != -1 && SocketListener.belongsToIntervalForBroadcast(node.getKey(), start, end)) {
+        for (int i = 0; i < fingers.size(); i++) {
+            long key = fingers.getKey(i);
+            if (key != -1 && SocketListener.belongsToIntervalForBroadcast(key, start, end)) {
                 last = i;
             }
         }
@@ -260,61 +287,70 @@ public class SocketListenerMessageHandlingThread implements Runnable {
 
     private void handleFindSuccessor(Message message) throws IOException, ClassNotFoundException {
         // store the message tag to attach it back later
-        int tag = message.getTag();
-        Message answer = null;
+        final int tag = message.getTag();
         long id = (Long) message.getObject();
 
         if (SocketListener.belongsToOpenInterval(id, correspondingNode.getId(), correspondingNode.getSuccessor().getKey())) {
             // the node is between this one and its successor, send the successor id
-            answer = new Message(MessageType.SUCCESSOR_FOUND, correspondingNode.getSuccessor());
+            Message answer = new Message(MessageType.SUCCESSOR_FOUND, correspondingNode.getSuccessor(), tag);
             networkLogger.info((new Date()).toString() + " " + id + " is between " + correspondingNode.getId() + " and my successor " + correspondingNode.getSuccessor().getKey());
             networkLogger.info((new Date()).toString() + " " + "Its successor will be " + correspondingNode.getSuccessor());
+            writeAnswer(answer);
         } else {
             networkLogger.info((new Date()).toString() + " " + id + " is NOT between " + correspondingNode.getId() + " and " + correspondingNode.getSuccessor().getKey());
 
             // find the closest preceding node
-            int closestPreceding = closestPrecedingNode(id);
-            networkLogger.info((new Date()).toString() + " " + "Send the request further to " +
-                    correspondingNode.getFingerTable().get(closestPreceding));
+            final NodeInfo closestPreceding = closestPrecedingNode(id);
+            networkLogger.info((new Date()).toString() + " " + "Send the request further to " + closestPreceding);
 
-            // forward the message and retrieve it from the Future object
+            // forward the message and answer when the next node answers, without waiting on this thread
             // this is not a response, it is a message for a node to which this node may send messages
             // from other threads, so use the dispatcher
-            Future<Message> messageFuture = dispatcher.sendMessage(message, true, closestPreceding);
-            try {
-                answer = messageFuture.get();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
-            }
+            dispatcher.sendMessage(message, true, closestPreceding).thenAccept(new Consumer<Message>() {
+                @Override
+                public void accept(Message answer) {
+                    // put back the tag; a RETRY answer tells the asking node to try again
+                    answer.setTag(tag);
+                    writeAnswer(answer);
+                }
+            });
         }
-
-        // put back the tag
-        answer.setTag(tag);
-
-        writeAnswer(answer);
     }
 
-    private int closestPrecedingNode(long key) {
-        /*for (int i = correspondingNode.getFingerTable().size() - 1; i >= 0; i--) {
-            long fingerId = correspondingNode.getFingerTable().get(i).getKey();
+    private void handleFindNextHop(Message message) {
+        long id = (Long) message.getObject();
+        NodeInfo successor = correspondingNode.getSuccessor();
+
+        if (id == correspondingNode.getId()) {
+            writeAnswer(new Message(MessageType.SUCCESSOR_FOUND, correspondingNode.getNodeInfo(), message.getTag()));
+        } else if (successor.getKey() == correspondingNode.getId() ||
+                SocketListener.belongsToIntervalForBroadcast(id, correspondingNode.getId(), successor.getKey())) {
+            // the id is in (node, successor] or this is the single node in the ring
+            writeAnswer(new Message(MessageType.SUCCESSOR_FOUND, successor, message.getTag()));
+        } else {
+            List<NodeInfo> nextHops = correspondingNode.getFingerTable().snapshot().closestPrecedingFingers(
+                    correspondingNode.getId(), id, IterativeLookup.NEXT_HOPS);
+            writeAnswer(new Message(MessageType.NEXT_HOPS, nextHops, message.getTag()));
+        }
+    }
 
-            if (belongsToOpenInterval(fingerId, correspondingNode.getId(), key)) {
-                return correspondingNode.getFingerTable().get(i);
-            }
-        }*/
-        return 0; // the successor
+    /**
+     * @return the closest finger that precedes the key and is not known to be down, or the successor
+     */
+    private NodeInfo closestPrecedingNode(long key) {
+        FingerTable.Snapshot fingers = correspondingNode.getFingerTable().snapshot();
+
+        // a finger whose connection failed recently would answer RETRY at once; the next closer finger costs
+        // only one more hop
+        PeerConnectionPool connectionPool = dispatcher.getConnectionPool();
+        int index = fingers.closestPrecedingFinger(correspondingNode.getId(), key);
+        while (index > 0 && connectionPool.getState(fingers.get(index)) != PeerConnectionPool.State.CLOSED) {
+            index = fingers.closestPrecedingFinger(correspondingNode.getId(), key, index);
+        }
+        return fingers.get(index);
     }
 
     private void writeAnswer(Message message) {
-        synchronized (writer) {
-            try {
-                writer.writeUnshared(message);
-            } catch (IOException e) {
-                networkLogger.info("Could not send the answer back!");
-                e.printStackTrace();
-            }
-        }
+        connection.sendMessage(message);
     }
 }
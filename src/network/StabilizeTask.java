@@ -0,0 +1,127 @@
+package network;
+
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+public class StabilizeTask extends MaintenanceTask {
+    private static final long INTERVAL_MILLIS = 5000;
+
+    private Node correspondingNode;
+    private long id;
+    private int port;
+    private Dispatcher dispatcher;
+    private Logger networkLogger;
+
+    public StabilizeTask(Node correspondingNode, Dispatcher dispatcher) {
+        super("stabilize", INTERVAL_MILLIS);
+        this.correspondingNode = correspondingNode;
+        this.networkLogger = correspondingNode.getNetworkLogger();
+        this.id = correspondingNode.getId();
+        this.port = correspondingNode.getPort();
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * The current node asks the successor about its predecessor.
+     * It verifies if n's immediate successor is consistent, and tells the successor about n.
+     *
+     * The described task is run periodically.
+     */
+    @Override
+    protected CompletableFuture<Boolean> runOnce() {
+        if (correspondingNode.getSuccessor().getKey() == id && correspondingNode.getSuccessor().getPort() == port) {
+            networkLogger.info((new Date()).toString() + " " + "Stabilize first node . . ");
+            return CompletableFuture.completedFuture(stabilizeFirstNodeInRing());
+        }
+
+        networkLogger.info((new Date()).toString() + " " + "Stabilize node (ask successor about predecessor and notify predecessor) ");
+        // ask the successor for its predecessor
+        Message message = new Message(MessageType.GET_PREDECESSOR, null);
+        return dispatcher.sendMessage(message, true, 0).thenApply(new Function<Message, Boolean>() {
+            @Override
+            public Boolean apply(Message received) {
+                networkLogger.info("Stabilize: Message type = " + received.getType());
+                if (received.getType() == MessageType.RETRY) {
+                    return changeSuccessor();
+                }
+                return checkPredecessorOfSuccessor((NodeInfo) received.getObject());
+            }
+        });
+    }
+
+    /**
+     * If the dispatcher cannot send or receive the message, the Message received by the node has
+     * the type MessageType.RETRY. The successor is replaced by the next successor and it is asked in the
+     * next run, which comes soon because the ring changed.
+     */
+    private boolean changeSuccessor() {
+        NodeInfo nextSuccessor = correspondingNode.getNextSuccessor();
+        if (nextSuccessor == null) {
+            // the successor of the successor is not known yet, ask the same node again
+            return true;
+        }
+        synchronized (correspondingNode.getFingerTable()) {
+            correspondingNode.setSuccessor(nextSuccessor);
+            correspondingNode.getFingerTable().set(0, nextSuccessor);
+        }
+        networkLogger.info("Trimit un nou mesaj la " + nextSuccessor);
+        return true;
+    }
+
+    private boolean checkPredecessorOfSuccessor(NodeInfo receivedNode) {
+        boolean changed = false;
+        networkLogger.info((new Date()).toString() + " " + "Asked my successor " + correspondingNode.getSuccessor() + " about its predecessor and the answer is: " + receivedNode);
+
+        // if my successor has a predecessor different by me, there are two cases
+        // 1. I just joined and my successor does not know about me
+        // 2. Another node joined between me and my successor
+        // Should determine here if I change the successor.
+        if (receivedNode != null && receivedNode.getKey() != id &&
+                SocketListener.belongsToOpenInterval(receivedNode.getKey(), id, correspondingNode.getSuccessor().getKey())) {
+
+            synchronized (correspondingNode.getFingerTable()) {
+                // the predecessor received from my successor is in front of me, so it becomes my successor
+                correspondingNode.setSuccessor(receivedNode);
+
+                // update the finger table
+                correspondingNode.getFingerTable().set(0, receivedNode);
+            }
+            changed = true;
+            networkLogger.info((new Date()).toString() + " " + id + ": I have a new successor! It is " + receivedNode.toString());
+        }
+        // notify the successor about its predecessor, which is the current node
+        Message notifyMessage = new Message(MessageType.NOTIFY_SUCCESSOR, new NodeInfo(correspondingNode.getIp(), port, id));
+        dispatcher.sendMessage(notifyMessage, false, 0);
+        return changed;
+    }
+
+    /**
+     * The stabilize() method sends a message through a Socket to the successor. When the network has only one node,
+     * it cannot send messages to itself. This method implements the same behaviour as stabilize(), but it does not
+     * send any messages. The node's successor is the node itself.
+     *
+     * @return true if the predecessor or the successor changed
+     */
+    private boolean stabilizeFirstNodeInRing() {
+        if (correspondingNode.getPredecessor() == null) {
+            correspondingNode.setPredecessor(new NodeInfo(correspondingNode.getIp(), port, id));
+            networkLogger.info((new Date()).toString() + " " + "Stabilized the first node in ring.");
+            return true;
+        } else {
+            // if another node joined and it has this node as its successor, it notifies and the current
+            // node changes its predecessor; check if the predecessor is changed.
+            if (correspondingNode.getPredecessor().getKey() != id && correspondingNode.getPredecessor().getPort() != port) {
+                // another node joined and it is between the current node and its successor
+                // set that node as a successor
+                synchronized (correspondingNode.getFingerTable()) {
+                    correspondingNode.setSuccessor(correspondingNode.getPredecessor());
+                    correspondingNode.getFingerTable().set(0, correspondingNode.getSuccessor());
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+}
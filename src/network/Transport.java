@@ -0,0 +1,233 @@
+package network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The network layer of a node. It uses a small, fixed number of I/O threads, each with its own selector, instead of
+ * two threads for every connection. The connections are spread over the I/O threads in turns.
+ *
+ * The reads and writes are done in buffers taken from a pool shared by all the connections of the transport.
+ */
+public class Transport {
+    public static final int IO_THREADS = 2;
+    // enough buffers for a read and a write on a few busy connections
+    private static final int POOLED_BUFFERS = 32;
+
+    private final IoThread[] ioThreads;
+    private final BufferPool bufferPool;
+    private final MessageCodec codec;
+    private final int controlCapacity;
+    private final int blockCapacity;
+    private final int broadcastCapacity;
+    private final AtomicInteger nextThread = new AtomicInteger();
+
+    public Transport() {
+        this(IO_THREADS, new BinaryMessageCodec());
+    }
+
+    public Transport(int ioThreadCount, MessageCodec codec) {
+        this(ioThreadCount, codec, Connection.DEFAULT_CONTROL_CAPACITY, Connection.DEFAULT_BROADCAST_CAPACITY);
+    }
+
+    public Transport(int ioThreadCount, MessageCodec codec, int controlCapacity, int broadcastCapacity) {
+        this(ioThreadCount, codec, controlCapacity, Connection.DEFAULT_BLOCK_CAPACITY, broadcastCapacity);
+    }
+
+    /**
+     * @param controlCapacity the number of Chord messages and answers that may wait on a connection
+     * @param blockCapacity the number of broadcast blocks that may wait on a connection
+     * @param broadcastCapacity the number of other broadcasts that may wait on a connection
+     */
+    public Transport(int ioThreadCount, MessageCodec codec, int controlCapacity, int blockCapacity,
+                     int broadcastCapacity) {
+        this.codec = codec;
+        this.controlCapacity = controlCapacity;
+        this.blockCapacity = blockCapacity;
+        this.broadcastCapacity = broadcastCapacity;
+        this.bufferPool = new BufferPool(OutgoingTransfer.MAX_FRAME_SIZE, POOLED_BUFFERS);
+        this.ioThreads = new IoThread[ioThreadCount];
+        try {
+            for (int i = 0; i < ioThreadCount; i++) {
+                ioThreads[i] = new IoThread(i);
+                ioThreads[i].start();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("The selectors could not be opened.", e);
+        }
+    }
+
+    /**
+     * Accepts connections on the port. The accepted connections use the given handler.
+     */
+    public void listen(int port, final ConnectionHandler handler) throws IOException {
+        final ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.bind(new InetSocketAddress(port));
+
+        final IoThread ioThread = ioThreads[0];
+        ioThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    serverChannel.register(ioThread.selector, SelectionKey.OP_ACCEPT, handler);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts to connect to the destination and returns without waiting. The messages sent until the connection
+     * is established are queued. If the connection cannot be established, the handler is notified that it
+     * was closed.
+     *
+     * @throws IOException if the address cannot be used
+     */
+    public Connection connect(NodeInfo destination, ConnectionHandler handler) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(destination.getIp(), destination.getPort());
+        if (address.isUnresolved()) {
+            throw new UnknownHostException(destination.getIp());
+        }
+
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            boolean connected = channel.connect(address);
+
+            Connection connection = createConnection(channel, destination, handler);
+            connection.registerLater(connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT);
+            return connection;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the I/O threads and closes all the connections.
+     */
+    public void close() {
+        for (IoThread ioThread : ioThreads) {
+            ioThread.running = false;
+            ioThread.selector.wakeup();
+        }
+    }
+
+    private Connection createConnection(SocketChannel channel, NodeInfo remote, ConnectionHandler handler) {
+        IoThread ioThread = ioThreads[(nextThread.getAndIncrement() & Integer.MAX_VALUE) % ioThreads.length];
+        return new Connection(channel, remote, handler, ioThread, ioThread.selector, bufferPool, codec,
+                controlCapacity, blockCapacity, broadcastCapacity);
+    }
+
+    private void accept(SelectionKey key) {
+        try {
+            SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            Connection connection = createConnection(channel, null, (ConnectionHandler) key.attachment());
+            connection.registerLater(SelectionKey.OP_READ);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs the selector of a group of connections. The other threads give it work through execute, which wakes
+     * up the selector.
+     */
+    private class IoThread extends Thread implements Executor {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+
+        IoThread(int index) throws IOException {
+            super("transport-io-" + index);
+            selector = Selector.open();
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    break;
+                }
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    runSafely(task);
+                }
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    final SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(key);
+                    } else {
+                        runSafely(new Runnable() {
+                            @Override
+                            public void run() {
+                                ((Connection) key.attachment()).handleEvent(key);
+                            }
+                        });
+                    }
+                }
+            }
+
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).closeNow();
+                } else {
+                    try {
+                        key.channel().close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * An error in a handler should not stop the thread, the other connections still need it.
+         */
+        private void runSafely(Runnable task) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
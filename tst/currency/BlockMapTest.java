@@ -0,0 +1,48 @@
+package currency;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class BlockMapTest {
+    @Test
+    public void testBehavesLikeHashMap() {
+        Random random = new Random(42);
+        BlockMap<Block> blockMap = new BlockMap<>();
+        Map<BlockId, Block> expected = new HashMap<>();
+        List<Block> blocks = new ArrayList<>();
+
+        for (int i = 0; i < 500; i++) {
+            blocks.add(new Block(BlockId.NONE, 0, i, i));
+        }
+
+        for (int i = 0; i < 5000; i++) {
+            Block block = blocks.get(random.nextInt(blocks.size()));
+            if (random.nextInt(3) == 0) {
+                assertSame(expected.remove(block.getId()), blockMap.remove(block.getId()));
+            } else {
+                assertSame(expected.put(block.getId(), block), blockMap.put(block.getId(), block));
+            }
+            assertEquals(expected.size(), blockMap.size());
+        }
+
+        for (Block block : blocks) {
+            assertEquals(expected.containsKey(block.getId()), blockMap.containsKey(block.getId()));
+            assertSame(expected.get(block.getId()), blockMap.get(block.getId()));
+        }
+        assertEquals(expected, blockMap);
+        assertEquals(expected.keySet(), blockMap.keySet());
+    }
+
+    @Test
+    public void testIdChangesWithNonce() {
+        Block block = new Block(BlockId.NONE, 0, 0, 1);
+        BlockId before = block.getId();
+        block.incrementNonce();
+
+        assertFalse(before.equals(block.getId()));
+        assertEquals(block.getId(), new BlockId(block.getId().toByteArray()));
+    }
+}
@@ -0,0 +1,129 @@
+package currency;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class BlockStoreTest {
+    @Test
+    public void testBlocksAreKeptAfterReopening() throws IOException {
+        File directory = Files.createTempDirectory("blocks").toFile();
+        Block genesis = Block.createGenesisBlock();
+        Block child = new Block(genesis.getId(), genesis.getNonce(), genesis.getHeight(), 7);
+
+        BlockStore store = new BlockStore(directory);
+        store.append(genesis);
+        store.append(child);
+        // already stored, it is not written again
+        store.append(child);
+        assertEquals(2, store.size());
+        assertEquals(child, store.read(child.getId()));
+        store.close();
+
+        store = new BlockStore(directory);
+        assertEquals(2, store.size());
+        assertEquals(genesis.getId(), store.getIds().get(0));
+        assertEquals(child.getId(), store.getIds().get(1));
+        assertEquals(1, store.getHeight(child.getId()));
+        // the headers are read from the index, without reading the blocks
+        assertEquals(child.getId(), store.getHeader(child.getId()).getId());
+        assertEquals(7, store.getHeader(child.getId()).getMinerId());
+        assertEquals(genesis, store.read(genesis.getId()));
+        assertNull(store.read(new Block(child.getId(), 0, 1, 7).getId()));
+        store.close();
+    }
+
+    @Test
+    public void testIncompleteIndexEntryIsIgnored() throws IOException {
+        File directory = Files.createTempDirectory("blocks").toFile();
+        Block genesis = Block.createGenesisBlock();
+        Block child = new Block(genesis.getId(), genesis.getNonce(), genesis.getHeight(), 7);
+
+        BlockStore store = new BlockStore(directory);
+        store.append(genesis);
+        store.append(child);
+        store.close();
+
+        // simulate a node that stopped while writing the last index entry
+        File index = new File(directory, "index.dat");
+        try (RandomAccessFile file = new RandomAccessFile(index, "rw")) {
+            file.setLength(file.length() - 5);
+        }
+
+        store = new BlockStore(directory);
+        assertEquals(1, store.size());
+        assertFalse(store.contains(child.getId()));
+
+        // the block can be appended again and the index stays aligned
+        store.append(child);
+        store.close();
+
+        store = new BlockStore(directory);
+        assertEquals(2, store.size());
+        assertEquals(child, store.read(child.getId()));
+        store.close();
+    }
+
+    @Test
+    public void testTornBlockAtSegmentBoundaryIsOverwritten() throws IOException {
+        File directory = Files.createTempDirectory("blocks").toFile();
+        Block genesis = Block.createGenesisBlock();
+        Block child = new Block(genesis.getId(), genesis.getNonce(), genesis.getHeight(), 7);
+        Block otherChild = new Block(genesis.getId(), genesis.getNonce(), genesis.getHeight(), 8);
+
+        // every block starts a new segment
+        BlockStore store = new BlockStore(directory, 1);
+        store.append(genesis);
+        store.append(child);
+        store.close();
+
+        // simulate a node that stopped after writing the block in the new segment, before its index entry
+        File index = new File(directory, "index.dat");
+        try (RandomAccessFile file = new RandomAccessFile(index, "rw")) {
+            file.setLength(file.length() - 5);
+        }
+        assertTrue(new File(directory, "blocks-00001.dat").length() > 0);
+
+        store = new BlockStore(directory, 1);
+        assertEquals(1, store.size());
+        store.append(otherChild);
+        store.append(child);
+        assertEquals(otherChild, store.read(otherChild.getId()));
+        assertEquals(child, store.read(child.getId()));
+        store.close();
+
+        store = new BlockStore(directory, 1);
+        assertEquals(3, store.size());
+        assertEquals(genesis, store.read(genesis.getId()));
+        assertEquals(otherChild, store.read(otherChild.getId()));
+        assertEquals(child, store.read(child.getId()));
+        store.close();
+    }
+
+    @Test
+    public void testTornTailOfTheCurrentSegmentIsTruncated() throws IOException {
+        File directory = Files.createTempDirectory("blocks").toFile();
+        Block genesis = Block.createGenesisBlock();
+        Block child = new Block(genesis.getId(), genesis.getNonce(), genesis.getHeight(), 7);
+
+        BlockStore store = new BlockStore(directory);
+        store.append(genesis);
+        long genesisEnd = new File(directory, "blocks-00000.dat").length();
+        store.append(child);
+        store.close();
+
+        File index = new File(directory, "index.dat");
+        try (RandomAccessFile file = new RandomAccessFile(index, "rw")) {
+            file.setLength(file.length() - 5);
+        }
+
+        store = new BlockStore(directory);
+        assertEquals(genesisEnd, new File(directory, "blocks-00000.dat").length());
+        store.close();
+    }
+}
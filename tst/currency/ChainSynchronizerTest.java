@@ -0,0 +1,137 @@
+package currency;
+
+import network.NodeInfo;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ChainSynchronizerTest {
+    private static final NodeInfo PEER = new NodeInfo("127.0.0.1", 10001, 1);
+    private static final NodeInfo OTHER_PEER = new NodeInfo("127.0.0.1", 10002, 2);
+
+    private StubNode node;
+    private BlockStore blockStore;
+    private Map<BlockId, BlockHeader> headers;
+    private ChainSynchronizer synchronizer;
+    // the chain stored by the node: genesis - a1 - a2
+    private List<Block> localChain;
+
+    private void storeLocalChain() throws Exception {
+        node = new StubNode(5);
+        blockStore = new BlockStore(Files.createTempDirectory("blocks-sync").toFile());
+        headers = new HashMap<>();
+        synchronizer = new ChainSynchronizer(node, blockStore, new HashProofOfWork(null), new SignatureVerifier(1));
+
+        localChain = extend(new ArrayList<Block>(), Block.createGenesisBlock(), 2);
+        for (Block block : localChain) {
+            blockStore.append(block);
+            headers.put(block.getId(), blockStore.getHeader(block.getId()));
+        }
+    }
+
+    @Test
+    public void testLongerForkReplacesTheChainAfterTheLocator() throws Exception {
+        storeLocalChain();
+        // genesis - a1 - b2 - b3 - b4
+        List<Block> peerChain = extend(new ArrayList<>(localChain.subList(0, 2)), localChain.get(1), 3);
+        node.addPeer(PEER, peerChain);
+
+        List<BlockHeader> chain = synchronizer.synchronize(headersOf(localChain), headers);
+
+        assertEquals(idsOf(peerChain), idsOfHeaders(chain));
+        for (Block block : peerChain) {
+            assertTrue(blockStore.contains(block.getId()));
+        }
+        // the blocks of the old branch stay in the store
+        assertTrue(blockStore.contains(localChain.get(2).getId()));
+    }
+
+    @Test
+    public void testChainThatIsNotLongerIsRefused() throws Exception {
+        storeLocalChain();
+        // genesis - a1 - b2, as long as the known chain
+        List<Block> sameHeight = extend(new ArrayList<>(localChain.subList(0, 2)), localChain.get(1), 1);
+        node.addPeer(PEER, sameHeight);
+        assertEquals(idsOf(localChain), idsOfHeaders(synchronizer.synchronize(headersOf(localChain), headers)));
+
+        // genesis - c1
+        List<Block> shorter = extend(new ArrayList<>(localChain.subList(0, 1)), localChain.get(0), 1);
+        node = new StubNode(5);
+        node.addPeer(PEER, shorter);
+        synchronizer = new ChainSynchronizer(node, blockStore, new HashProofOfWork(null), new SignatureVerifier(1));
+        assertEquals(idsOf(localChain), idsOfHeaders(synchronizer.synchronize(headersOf(localChain), headers)));
+
+        assertFalse(blockStore.contains(sameHeight.get(2).getId()));
+        assertFalse(blockStore.contains(shorter.get(1).getId()));
+    }
+
+    @Test
+    public void testFailedBatchIsDownloadedFromAnotherPeer() throws Exception {
+        storeLocalChain();
+        List<Block> peerChain = extend(new ArrayList<>(localChain), localChain.get(2), 3);
+        node.addPeer(PEER, peerChain);
+        node.addPeer(OTHER_PEER, peerChain);
+        node.failBlockRequests(PEER);
+
+        List<BlockHeader> chain = synchronizer.synchronize(headersOf(localChain), headers);
+
+        assertEquals(idsOf(peerChain), idsOfHeaders(chain));
+        assertEquals(peerChain.size(), blockStore.size());
+    }
+
+    @Test
+    public void testChainEndsBeforeTheBlocksThatWereNotDownloaded() throws Exception {
+        storeLocalChain();
+        List<Block> peerChain = extend(new ArrayList<>(localChain), localChain.get(2), 3);
+        node.addPeer(PEER, peerChain);
+        node.failBlockRequests(PEER);
+
+        List<BlockHeader> chain = synchronizer.synchronize(headersOf(localChain), headers);
+
+        assertEquals(idsOf(localChain), idsOfHeaders(chain));
+        assertFalse(headers.containsKey(peerChain.get(3).getId()));
+        assertEquals(localChain.size(), blockStore.size());
+    }
+
+    /**
+     * Mines count blocks after the last one and adds them in the chain.
+     */
+    private static List<Block> extend(List<Block> chain, Block last, int count) {
+        if (chain.isEmpty()) {
+            chain.add(last);
+        }
+        for (int i = 0; i < count; i++) {
+            last = StubNode.mine(last, Transaction.createRewardTransaction(
+                    Collections.singletonList(new TransactionRecord(null, null, 1))));
+            chain.add(last);
+        }
+        return chain;
+    }
+
+    private List<BlockHeader> headersOf(List<Block> chain) {
+        List<BlockHeader> chainHeaders = new ArrayList<>();
+        for (Block block : chain) {
+            chainHeaders.add(headers.get(block.getId()));
+        }
+        return chainHeaders;
+    }
+
+    private static List<BlockId> idsOf(List<Block> chain) {
+        List<BlockId> ids = new ArrayList<>();
+        for (Block block : chain) {
+            ids.add(block.getId());
+        }
+        return ids;
+    }
+
+    private static List<BlockId> idsOfHeaders(List<BlockHeader> chain) {
+        List<BlockId> ids = new ArrayList<>();
+        for (BlockHeader header : chain) {
+            ids.add(header.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,63 @@
+package currency;
+
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+public class MerkleTreeTest {
+    @Test
+    public void testIncrementalRootMatchesFullComputation() throws Exception {
+        MerkleTree tree = new MerkleTree();
+        List<byte[]> leaves = new ArrayList<>();
+        assertArrayEquals(new byte[BlockHeader.HASH_LENGTH], tree.getRoot());
+
+        for (int i = 0; i < 17; i++) {
+            byte[] leaf = MessageDigest.getInstance("SHA-256").digest(("leaf " + i).getBytes());
+            leaves.add(leaf);
+            tree.addLeaf(leaf);
+
+            assertArrayEquals("Root with " + leaves.size() + " leaves", computeRoot(leaves), tree.getRoot());
+        }
+    }
+
+    @Test
+    public void testDuplicatedLastLeafChangesTheRoot() throws Exception {
+        MerkleTree tree = new MerkleTree();
+        MerkleTree duplicated = new MerkleTree();
+        for (int i = 0; i < 3; i++) {
+            byte[] leaf = MessageDigest.getInstance("SHA-256").digest(("leaf " + i).getBytes());
+            tree.addLeaf(leaf);
+            duplicated.addLeaf(leaf);
+            if (i == 2) {
+                duplicated.addLeaf(leaf);
+            }
+        }
+
+        assertFalse(Arrays.equals(tree.getRoot(), duplicated.getRoot()));
+    }
+
+    private byte[] computeRoot(List<byte[]> leaves) throws Exception {
+        List<byte[]> level = leaves;
+        while (level.size() > 1) {
+            List<byte[]> parents = new ArrayList<>();
+            for (int i = 0; i < level.size(); i += 2) {
+                if (i + 1 == level.size()) {
+                    parents.add(level.get(i));
+                    continue;
+                }
+                MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+                messageDigest.update(level.get(i));
+                messageDigest.update(level.get(i + 1));
+                parents.add(messageDigest.digest());
+            }
+            level = parents;
+        }
+        return level.get(0);
+    }
+}
@@ -0,0 +1,164 @@
+package currency;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class ReorgTest {
+    @Test
+    public void testDisconnectRestoresTheSet() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        PublicKey first = generator.generateKeyPair().getPublic();
+        PublicKey second = generator.generateKeyPair().getPublic();
+        PublicKey third = generator.generateKeyPair().getPublic();
+
+        TransactionRecord spent = new TransactionRecord(first, first, 10);
+        TransactionRecord kept = new TransactionRecord(second, second, 4);
+        TransactionRecord missing = new TransactionRecord(third, first, 1);
+        UnspentTransactionSet unspent = new UnspentTransactionSet(Arrays.asList(spent, kept));
+        UnspentTransactionSet before = new UnspentTransactionSet(unspent);
+
+        Block genesis = Block.createGenesisBlock();
+        Block block = new Block(genesis.getId(), 0, 0, 1);
+        // the record that is not in the set is not restored by the undo record
+        block.addTransaction(new Transaction(Arrays.asList(spent, missing),
+                Arrays.asList(new TransactionRecord(first, third, 6), new TransactionRecord(first, first, 4))));
+        block.addTransaction(Transaction.createRewardTransaction(
+                Collections.singletonList(new TransactionRecord(second, second, 1))));
+        Block next = new Block(block.getId(), 0, 1, 1);
+        next.addTransaction(new Transaction(Collections.singletonList(kept),
+                Collections.singletonList(new TransactionRecord(second, first, 4))));
+
+        BlockUndo undo = BlockUndo.connect(block, unspent);
+        BlockUndo nextUndo = BlockUndo.connect(next, unspent);
+        assertEquals(Collections.singletonList(spent), undo.getSpentInputs());
+        assertEquals(3, undo.getCreatedOutputs().size());
+        assertEquals(8, unspent.getBalance(first), 0);
+        assertEquals(1, unspent.getBalance(second), 0);
+        assertEquals(6, unspent.getBalance(third), 0);
+
+        nextUndo.disconnect(unspent);
+        undo.disconnect(unspent);
+        assertEquals(before, unspent);
+        for (PublicKey owner : Arrays.asList(first, second, third)) {
+            assertEquals(before.getBalance(owner), unspent.getBalance(owner), 0);
+            assertEquals(before.getRecordsOf(owner).size(), unspent.getRecordsOf(owner).size());
+        }
+
+        // a block of the chain received when the node joined does not have an undo record
+        BlockUndo.connect(next, unspent);
+        BlockUndo.fromBlock(next).disconnect(unspent);
+        assertEquals(before, unspent);
+        assertEquals(4, unspent.getBalance(second), 0);
+    }
+
+    @Test
+    public void testFailedReorgIsRolledBack() throws Exception {
+        TestClient client = new TestClient();
+        client.connectToNetwork();
+        try {
+            PublicKey other = KeyPairGenerator.getInstance("RSA").generateKeyPair().getPublic();
+            Block genesis = client.getLastBlockInChain();
+
+            // both transactions spend the record created when the client started
+            Transaction payment = transfer(client, client.getUnspentTransactions(), 10, other, 3);
+            Transaction doubleSpend = transfer(client, client.getUnspentTransactions(), 10, other, 5);
+
+            Block current = StubNode.mine(genesis, reward(client), payment);
+            client.handleReceivedBlock(current);
+            assertEquals(current, client.getLastBlockInChain());
+            client.handleReceivedTransaction(transfer(client, client.getUnspentTransactions(), 7, other, 1));
+            assertEquals(1, client.getTransactionsWithoutBlock().size());
+
+            UnspentTransactionSet unspentBefore = new UnspentTransactionSet(client.getUnspentTransactions());
+            List<Transaction> withoutBlockBefore = new ArrayList<>(client.getTransactionsWithoutBlock());
+
+            // the first block of the branch is valid, the second spends the record again
+            Block first = StubNode.mine(genesis, reward(client), payment);
+            Block second = StubNode.mine(first, reward(client), doubleSpend);
+            Block third = StubNode.mine(second, reward(client));
+            client.handleReceivedBlock(first);
+            client.handleReceivedBlock(third);
+            assertTrue(client.getOrphanBlocks().containsKey(third.getId()));
+            // the branch is longer when the second block arrives and its orphan child is added
+            client.handleReceivedBlock(second);
+
+            assertEquals(current, client.getLastBlockInChain());
+            assertEquals(unspentBefore, client.getUnspentTransactions());
+            assertEquals(unspentBefore.getBalance(client.getPublicKey()), client.getBalance(), 0);
+            assertEquals(3, client.getUnspentTransactions().getBalance(other), 0);
+            assertEquals(withoutBlockBefore, client.getTransactionsWithoutBlock());
+        } finally {
+            client.stopProofOfWorkThread();
+            client.close();
+        }
+    }
+
+    private static Transaction transfer(Client client, UnspentTransactionSet unspent, double balance,
+                                        PublicKey recipient, double amount) throws Exception {
+        return Transaction.Builder.getBuilder()
+                .withUnspentTransactions(unspent)
+                .withPublicKey(client.getPublicKey())
+                .withPrivateKey(client.getPrivateKey())
+                .withClientBalance(balance)
+                .withRecipient(recipient, amount)
+                .build();
+    }
+
+    private static Transaction reward(Client client) {
+        return Transaction.createRewardTransaction(
+                Collections.singletonList(new TransactionRecord(client.getPublicKey(), client.getPublicKey(), 1)));
+    }
+
+    /**
+     * The first client of the network, without sockets and with an empty block store.
+     */
+    private static class TestClient extends Client {
+        TestClient() {
+            super("127.0.0.1", 10000, "127.0.0.1", 10000);
+        }
+
+        @Override
+        protected void initNode() {
+            networkNode = new StubNode(1);
+            id = 1;
+            initLogger();
+        }
+
+        @Override
+        protected void initLogger() {
+            transactionsLogger = Logger.getLogger("transactions-reorg");
+        }
+
+        @Override
+        protected void initBlockStore() {
+            try {
+                blockStore = new BlockStore(Files.createTempDirectory("blocks-reorg").toFile());
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot open the block store.", e);
+            }
+        }
+
+        /**
+         * The miner reports its progress while handleReceivedBlock holds the lock of the client and waits for the
+         * miner to stop. There is no observer in the test, so the updates are dropped without taking the lock.
+         */
+        @Override
+        protected void setChanged() {
+        }
+
+        @Override
+        public void notifyObservers(Object update) {
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package currency;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SignatureCacheTest {
+    @Test
+    public void testHitsAndMisses() {
+        SignatureCache cache = new SignatureCache(16);
+        byte[] txid = {1, 2, 3};
+        byte[] signature = {4, 5, 6};
+
+        assertFalse(cache.isVerified(txid, signature));
+        cache.markVerified(txid, signature);
+        assertTrue(cache.isVerified(new byte[]{1, 2, 3}, new byte[]{4, 5, 6}));
+        // same transaction, different signature
+        assertFalse(cache.isVerified(txid, new byte[]{7}));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testCapacityIsBounded() {
+        SignatureCache cache = new SignatureCache(32);
+        for (int i = 0; i < 1000; i++) {
+            cache.markVerified(new byte[]{(byte) i, (byte) (i >> 8)}, new byte[]{1});
+        }
+        assertTrue(cache.size() <= 32);
+    }
+}
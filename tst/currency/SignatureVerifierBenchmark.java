@@ -0,0 +1,69 @@
+package currency;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how long it takes to verify the signatures of a block's transactions when the verifier uses
+ * 1, 2, 4, ... threads, up to the number of available processors.
+ *
+ * It is not a unit test; run it with the main method. The first argument is the number of transactions
+ * in the block (default 500). Every round verifies newly signed transactions, otherwise the SignatureCache
+ * would answer instead of the verifier.
+ */
+public class SignatureVerifierBenchmark {
+    private static final int ROUNDS = 5;
+
+    private static KeyPair sender;
+    private static KeyPair recipient;
+
+    public static void main(String[] args) throws Exception {
+        int transactionCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        sender = generator.generateKeyPair();
+        recipient = generator.generateKeyPair();
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.println("Verifying a block with " + transactionCount + " transactions, " + processors + " processors.");
+
+        for (int threads = 1; threads <= processors; threads *= 2) {
+            SignatureVerifier verifier = new SignatureVerifier(threads);
+            // warm up
+            verifier.verify(createSignedTransactions(transactionCount));
+
+            long elapsed = 0;
+            for (int i = 0; i < ROUNDS; i++) {
+                List<Transaction> transactions = createSignedTransactions(transactionCount);
+                long start = System.nanoTime();
+                if (!verifier.verify(transactions)) {
+                    throw new IllegalStateException("The transactions should be valid.");
+                }
+                elapsed += System.nanoTime() - start;
+            }
+            double millis = elapsed / 1e6 / ROUNDS;
+            System.out.printf("threads = %2d: %8.2f ms per block%n", threads, millis);
+
+            verifier.shutdown();
+        }
+    }
+
+    private static List<Transaction> createSignedTransactions(int count) throws Exception {
+        List<Transaction> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            UnspentTransactionSet unspent = new UnspentTransactionSet();
+            unspent.add(new TransactionRecord(sender.getPublic(), sender.getPublic(), 10));
+
+            transactions.add(Transaction.Builder.getBuilder()
+                    .withClientBalance(10)
+                    .withPrivateKey(sender.getPrivate())
+                    .withPublicKey(sender.getPublic())
+                    .withUnspentTransactions(unspent)
+                    .withRecipient(recipient.getPublic(), 5)
+                    .build());
+        }
+        return transactions;
+    }
+}
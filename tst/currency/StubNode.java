@@ -0,0 +1,112 @@
+package currency;
+
+import network.Message;
+import network.MessageType;
+import network.Node;
+import network.NodeInfo;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * A node that does not open any socket. The broadcasts are dropped and the peers used to synchronize the chain
+ * are simulated: every peer has a chain of blocks and answers the requests for headers and blocks from it.
+ */
+public class StubNode extends Node {
+    private Map<NodeInfo, List<Block>> peerChains;
+    private Set<NodeInfo> failingPeers;
+
+    public StubNode(long id) {
+        this.id = id;
+        peerChains = new LinkedHashMap<>();
+        failingPeers = new HashSet<>();
+    }
+
+    /**
+     * @param chain the blocks of the peer, starting with the genesis block
+     */
+    public void addPeer(NodeInfo peer, List<Block> chain) {
+        peerChains.put(peer, chain);
+    }
+
+    /**
+     * The requests for blocks sent to the peer are answered with RETRY, as if the peer did not answer in time.
+     */
+    public void failBlockRequests(NodeInfo peer) {
+        failingPeers.add(peer);
+    }
+
+    @Override
+    public void broadcastBlock(Block block) {
+    }
+
+    @Override
+    public void broadcastTransaction(Transaction transaction) {
+    }
+
+    @Override
+    public Block askForBlock(BlockId blockId) {
+        return null;
+    }
+
+    @Override
+    public List<NodeInfo> getSyncPeers() {
+        return new ArrayList<>(peerChains.keySet());
+    }
+
+    /**
+     * Answers as Client.getHeadersAfter: the headers after the first block in the locator that is on the peer's chain.
+     */
+    @Override
+    public List<BlockHeader> askForHeaders(List<BlockId> locator, NodeInfo peer) {
+        List<Block> chain = peerChains.get(peer);
+        int start = 0;
+        search:
+        for (BlockId blockId : locator) {
+            for (int i = 0; i < chain.size(); i++) {
+                if (chain.get(i).getId().equals(blockId)) {
+                    start = i + 1;
+                    break search;
+                }
+            }
+        }
+
+        List<BlockHeader> headers = new ArrayList<>();
+        for (int i = start; i < chain.size() && headers.size() < ChainSynchronizer.MAX_HEADERS; i++) {
+            headers.add(new BlockHeader(chain.get(i)));
+        }
+        return headers;
+    }
+
+    @Override
+    public Future<Message> requestBlocks(List<BlockId> blockIds, NodeInfo peer) {
+        if (failingPeers.contains(peer)) {
+            return CompletableFuture.completedFuture(new Message(MessageType.RETRY, null));
+        }
+
+        List<Block> blocks = new ArrayList<>();
+        for (Block block : peerChains.get(peer)) {
+            if (blockIds.contains(block.getId())) {
+                blocks.add(block);
+            }
+        }
+        return CompletableFuture.completedFuture(new Message(MessageType.GET_BLOCKS, blocks));
+    }
+
+    /**
+     * Creates a block after the previous one and searches a nonce that satisfies the proof of work.
+     */
+    public static Block mine(Block previous, Transaction... transactions) {
+        Block block = new Block(previous.getId(), previous.getNonce(), previous.getHeight(), 1);
+        for (Transaction transaction : transactions) {
+            block.addTransaction(transaction);
+        }
+
+        ProofOfWork verifier = new HashProofOfWork(null);
+        while (!verifier.verify(block)) {
+            block.incrementNonce();
+        }
+        return block;
+    }
+}
@@ -0,0 +1,49 @@
+package currency;
+
+import org.junit.Test;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class UnspentTransactionSetTest {
+    @Test
+    public void testBalanceIndex() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        PublicKey first = generator.generateKeyPair().getPublic();
+        PublicKey second = generator.generateKeyPair().getPublic();
+
+        UnspentTransactionSet unspent = new UnspentTransactionSet();
+        TransactionRecord a = new TransactionRecord(first, first, 10);
+        TransactionRecord b = new TransactionRecord(first, second, 3);
+        TransactionRecord c = new TransactionRecord(second, second, 4);
+        unspent.add(a);
+        unspent.add(b);
+        unspent.add(c);
+        assertFalse(unspent.add(c));
+
+        assertEquals(10, unspent.getBalance(first), 0);
+        assertEquals(7, unspent.getBalance(second), 0);
+        assertEquals(2, unspent.getRecordsOf(second).size());
+
+        unspent.remove(b);
+        assertEquals(4, unspent.getBalance(second), 0);
+        assertFalse(unspent.contains(b));
+
+        Iterator<TransactionRecord> iterator = unspent.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().equals(a)) {
+                iterator.remove();
+            }
+        }
+        assertEquals(0, unspent.getBalance(first), 0);
+        assertTrue(unspent.getRecordsOf(first).isEmpty());
+
+        UnspentTransactionSet copy = new UnspentTransactionSet(unspent);
+        copy.remove(c);
+        assertEquals(4, unspent.getBalance(second), 0);
+        assertEquals(0, copy.getBalance(second), 0);
+    }
+}
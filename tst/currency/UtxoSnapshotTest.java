@@ -0,0 +1,79 @@
+package currency;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+
+import static org.junit.Assert.*;
+
+public class UtxoSnapshotTest {
+    @Test
+    public void testRecordsAreRestored() throws IOException, NoSuchAlgorithmException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        PublicKey first = generator.generateKeyPair().getPublic();
+        PublicKey second = generator.generateKeyPair().getPublic();
+
+        UnspentTransactionSet unspent = new UnspentTransactionSet();
+        unspent.add(new TransactionRecord(first, first, 10));
+        unspent.add(new TransactionRecord(first, second, 2.5));
+        unspent.add(new TransactionRecord(null, second, 7));
+
+        Block tip = new Block(Block.createGenesisBlock().getId(), 0, 0, 3);
+        File file = new File(Files.createTempDirectory("snapshot").toFile(), "utxo.snapshot");
+        UtxoSnapshot.write(file, tip, unspent);
+
+        UtxoSnapshot snapshot = UtxoSnapshot.load(file);
+        assertEquals(tip.getId(), snapshot.getTipId());
+        assertEquals(1, snapshot.getTipHeight());
+        assertEquals(unspent, snapshot.getRecords());
+        assertEquals(10, snapshot.getRecords().getBalance(first), 0);
+        assertEquals(9.5, snapshot.getRecords().getBalance(second), 0);
+    }
+
+    @Test
+    public void testRestoredIdsAreNotCreatedAgain() throws IOException, NoSuchAlgorithmException {
+        PublicKey key = KeyPairGenerator.getInstance("RSA").generateKeyPair().getPublic();
+        UnspentTransactionSet unspent = new UnspentTransactionSet();
+        // a reward of the previous run, whose id is larger than the ids created until now
+        TransactionRecord reward = new TransactionRecord(key, key, 1);
+        long restoredId = reward.getId() + 1000;
+        unspent.add(new TransactionRecord(restoredId, key, key, 1));
+
+        File file = new File(Files.createTempDirectory("snapshot").toFile(), "utxo.snapshot");
+        UtxoSnapshot.write(file, Block.createGenesisBlock(), unspent);
+        UtxoSnapshot.load(file);
+
+        // the next reward is a new record
+        TransactionRecord nextReward = new TransactionRecord(key, key, 1);
+        assertTrue(nextReward.getId() > restoredId);
+        assertTrue(unspent.add(nextReward));
+        assertEquals(2, unspent.getBalance(key), 0);
+    }
+
+    @Test
+    public void testMissingSnapshot() throws IOException {
+        File file = new File(Files.createTempDirectory("snapshot").toFile(), "utxo.snapshot");
+        assertNull(UtxoSnapshot.load(file));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedSnapshotIsRejected() throws IOException, NoSuchAlgorithmException {
+        PublicKey key = KeyPairGenerator.getInstance("RSA").generateKeyPair().getPublic();
+        UnspentTransactionSet unspent = new UnspentTransactionSet();
+        unspent.add(new TransactionRecord(key, key, 10));
+
+        File file = new File(Files.createTempDirectory("snapshot").toFile(), "utxo.snapshot");
+        UtxoSnapshot.write(file, Block.createGenesisBlock(), unspent);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(randomAccessFile.length() - 3);
+        }
+
+        UtxoSnapshot.load(file);
+    }
+}
@@ -0,0 +1,102 @@
+package network;
+
+import currency.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BinaryMessageCodecTest {
+    private final MessageCodec codec = new BinaryMessageCodec();
+
+    @Test
+    public void testChordMessages() throws IOException {
+        Message message = roundTrip(new Message(MessageType.FIND_SUCCESSOR_FIX_FINGER, 513L, 12));
+        assertEquals(MessageType.FIND_SUCCESSOR_FIX_FINGER, message.getType());
+        assertEquals(513L, message.getObject());
+        assertEquals(12, message.getTag());
+
+        NodeInfo nodeInfo = new NodeInfo("localhost", 10003, 200);
+        assertEquals(nodeInfo, roundTrip(new Message(MessageType.SEND_SUCCESSOR, nodeInfo, 3)).getObject());
+        assertNull(roundTrip(new Message(MessageType.SEND_PREDECESSOR, null, 4)).getObject());
+    }
+
+    @Test
+    public void testBlockInBroadcast() throws Exception {
+        Block block = createBlock();
+        BroadcastMessageWrapper wrapper = new BroadcastMessageWrapper(100, 99, block);
+
+        Message message = roundTrip(new Message(MessageType.BROADCAST_BLOCK, wrapper, 0));
+        BroadcastMessageWrapper receivedWrapper = (BroadcastMessageWrapper) message.getObject();
+        Block received = (Block) receivedWrapper.getMessage();
+
+        assertEquals(100, receivedWrapper.getStart());
+        assertEquals(99, receivedWrapper.getEnd());
+        assertEquals(block.getId(), received.getId());
+        assertEquals(block.getTransactions(), received.getTransactions());
+        assertEquals(block.getTransactions().get(1).getInputs(), received.getTransactions().get(1).getInputs());
+        assertTrue(received.getTransactions().get(1).hasValidDigitalSignature());
+    }
+
+    @Test
+    public void testSyncMessages() throws Exception {
+        Block block = createBlock();
+        List<BlockId> ids = Arrays.asList(block.getId(), block.getPreviousBlockId());
+        assertEquals(ids, roundTrip(new Message(MessageType.GET_BLOCKS, new ArrayList<>(ids), 1)).getObject());
+
+        List<BlockHeader> headers = new ArrayList<>();
+        headers.add(new BlockHeader(block));
+        List<?> receivedHeaders = (List<?>) roundTrip(new Message(MessageType.GET_HEADERS, headers, 2)).getObject();
+        assertEquals(block.getId(), ((BlockHeader) receivedHeaders.get(0)).getId());
+    }
+
+    @Test(expected = IOException.class)
+    public void testOtherVersionIsRefused() throws IOException {
+        byte[] data = codec.encode(new Message(MessageType.GET_SUCCESSOR, null, 1));
+        data[0] = BinaryMessageCodec.VERSION + 1;
+        codec.decode(data, data.length);
+    }
+
+    @Test(expected = IOException.class)
+    public void testOtherClassIsRefused() throws IOException {
+        codec.encode(new Message(MessageType.BROADCAST_MESSAGE, new BroadcastMessageWrapper(1, 2, new java.util.Date())));
+    }
+
+    private Message roundTrip(Message message) throws IOException {
+        byte[] data = codec.encode(message);
+        return codec.decode(data, data.length);
+    }
+
+    /**
+     * A block with a reward and a signed transaction.
+     */
+    static Block createBlock() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        KeyPair sender = generator.generateKeyPair();
+        KeyPair recipient = generator.generateKeyPair();
+
+        UnspentTransactionSet unspent = new UnspentTransactionSet();
+        unspent.add(new TransactionRecord(sender.getPublic(), sender.getPublic(), 10));
+        Transaction transaction = Transaction.Builder.getBuilder()
+                .withClientBalance(10)
+                .withPrivateKey(sender.getPrivate())
+                .withPublicKey(sender.getPublic())
+                .withUnspentTransactions(unspent)
+                .withRecipient(recipient.getPublic(), 4)
+                .build();
+
+        List<TransactionRecord> reward = new ArrayList<>();
+        reward.add(new TransactionRecord(null, recipient.getPublic(), 1));
+
+        Block block = new Block(Block.createGenesisBlock().getId(), 0, 0, 5);
+        block.addTransaction(Transaction.createRewardTransaction(reward));
+        block.addTransaction(transaction);
+        return block;
+    }
+}
@@ -0,0 +1,78 @@
+package network;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Routes lookups on simulated rings, the same way as handleFindSuccessor: the node answers if the key is between
+ * it and its successor, otherwise it forwards the request to the closest preceding finger.
+ */
+public class ChordRoutingTest {
+    private static final int LOOKUPS = 10000;
+
+    @Test
+    public void testHopsOn64Nodes() {
+        checkRing(64);
+    }
+
+    @Test
+    public void testHopsOn256Nodes() {
+        checkRing(256);
+    }
+
+    @Test
+    public void testHopsOn1024Nodes() {
+        checkRing((int) Node.NUMBER_OF_NODES);
+    }
+
+    @Test
+    public void testFingersThatAreNotFixedAreIgnored() {
+        FingerTable fingerTable = new FingerTable(new NodeInfo("localhost", 10001, 10), Node.LOG_NODES);
+        fingerTable.set(1, new NodeInfo("localhost", 10002, 20));
+        FingerTable.Snapshot fingers = fingerTable.snapshot();
+
+        assertEquals(1, fingers.closestPrecedingFinger(5, 100));
+        // 20 is after the key
+        assertEquals(0, fingers.closestPrecedingFinger(5, 15));
+        // the interval wraps around 0
+        assertEquals(1, fingers.closestPrecedingFinger(1000, 30));
+    }
+
+    @Test
+    public void testSnapshotDoesNotChange() {
+        FingerTable fingerTable = new FingerTable(new NodeInfo("localhost", 10001, 10), Node.LOG_NODES);
+        FingerTable.Snapshot before = fingerTable.snapshot();
+        fingerTable.set(0, new NodeInfo("localhost", 10002, 20));
+
+        assertEquals(10, before.getKey(0));
+        assertEquals(20, fingerTable.snapshot().getKey(0));
+        assertEquals(-1, fingerTable.snapshot().getKey(1));
+    }
+
+    private void checkRing(int size) {
+        Random random = new Random(size);
+        SimulatedRing ring = new SimulatedRing(size, random);
+
+        long totalHops = 0;
+        int maxHops = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            int hops = ring.recursiveHops(ring.randomNode(random), random.nextInt((int) Node.NUMBER_OF_NODES));
+            totalHops += hops;
+            maxHops = Math.max(maxHops, hops);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        double averageHops = (double) totalHops / LOOKUPS;
+        double logSize = Math.log(size) / Math.log(2);
+        System.out.printf("%4d nodes: %.2f hops on average, at most %d, %.2f us per lookup%n", size, averageHops,
+                maxHops, elapsed / 1e3 / LOOKUPS);
+
+        // the walk on successors needs size / 2 hops on average
+        assertTrue(averageHops <= logSize);
+        assertTrue(maxHops <= Node.LOG_NODES);
+    }
+}
@@ -0,0 +1,113 @@
+package network;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ChunkAssemblerTest {
+    private static final MessageCodec CODEC = new BinaryMessageCodec();
+
+    @Test
+    public void testSmallMessageIsOneChunk() throws IOException {
+        OutgoingTransfer transfer = new OutgoingTransfer(new Message(MessageType.GET_SUCCESSOR, 5L, 7), 0, CODEC);
+        assertTrue(transfer.isSmall());
+
+        Message message = new ChunkAssembler(CODEC).add(transfer.next());
+        assertFalse(transfer.hasNext());
+        assertEquals(MessageType.GET_SUCCESSOR, message.getType());
+        assertEquals(5L, message.getObject());
+        assertEquals(7, message.getTag());
+    }
+
+    @Test
+    public void testInterleavedTransfers() throws IOException {
+        String first = createText(3 * OutgoingTransfer.CHUNK_SIZE, '1');
+        String second = createText(2 * OutgoingTransfer.CHUNK_SIZE + 10, '2');
+
+        OutgoingTransfer firstTransfer = new OutgoingTransfer(new Message(MessageType.GET_BLOCKS, first, 1), 0, CODEC);
+        OutgoingTransfer secondTransfer = new OutgoingTransfer(new Message(MessageType.GET_BLOCKS, second, 2), 1, CODEC);
+        OutgoingTransfer ping = new OutgoingTransfer(new Message(MessageType.CHECK_PREDECESSOR, null, 3), 2, CODEC);
+        assertFalse(firstTransfer.isSmall());
+
+        ChunkAssembler assembler = new ChunkAssembler(CODEC);
+        List<Message> received = new ArrayList<>();
+        boolean pingSent = false;
+        while (firstTransfer.hasNext() || secondTransfer.hasNext()) {
+            if (firstTransfer.hasNext()) {
+                addIfComplete(received, assembler.add(firstTransfer.next()));
+            }
+            if (!pingSent) {
+                // the small message arrives before the large ones are complete
+                addIfComplete(received, assembler.add(ping.next()));
+                assertEquals(1, received.size());
+                assertEquals(3, received.get(0).getTag());
+                pingSent = true;
+            }
+            if (secondTransfer.hasNext()) {
+                addIfComplete(received, assembler.add(secondTransfer.next()));
+            }
+        }
+
+        assertEquals(3, received.size());
+        assertEquals(0, assembler.getPendingTransfers());
+        assertEquals(0, assembler.getPendingBytes());
+        for (Message message : received.subList(1, 3)) {
+            assertEquals(message.getTag() == 1 ? first : second, message.getObject());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testChunkCountIsChecked() throws IOException {
+        new ChunkAssembler(CODEC).add(new MessageChunk(0, 0, 0, new byte[0]));
+    }
+
+    @Test(expected = IOException.class)
+    public void testChunkIndexIsChecked() throws IOException {
+        new ChunkAssembler(CODEC).add(new MessageChunk(0, -1, 2, new byte[OutgoingTransfer.CHUNK_SIZE]));
+    }
+
+    @Test(expected = IOException.class)
+    public void testChunkCountCannotChange() throws IOException {
+        ChunkAssembler assembler = new ChunkAssembler(CODEC);
+        assertNull(assembler.add(new MessageChunk(0, 0, 3, new byte[OutgoingTransfer.CHUNK_SIZE])));
+        assembler.add(new MessageChunk(0, 1, 2, new byte[10]));
+    }
+
+    @Test
+    public void testPendingBytesAreLimited() throws IOException {
+        ChunkAssembler assembler = new ChunkAssembler(CODEC, 3 * OutgoingTransfer.CHUNK_SIZE);
+        // every transfer is small, but together they hold too much
+        for (int transferId = 0; transferId < 3; transferId++) {
+            assertNull(assembler.add(new MessageChunk(transferId, 0, ChunkAssembler.MAX_CHUNKS,
+                    new byte[OutgoingTransfer.CHUNK_SIZE])));
+        }
+        assertEquals(3 * OutgoingTransfer.CHUNK_SIZE, assembler.getPendingBytes());
+        try {
+            assembler.add(new MessageChunk(3, 0, 2, new byte[1]));
+            fail();
+        } catch (IOException e) {
+            assertEquals(3, assembler.getPendingTransfers());
+        }
+    }
+
+    /**
+     * @return a text of the given length that ends with the given character
+     */
+    private static String createText(int length, char last) {
+        char[] characters = new char[length];
+        Arrays.fill(characters, 'a');
+        characters[length - 1] = last;
+        return new String(characters);
+    }
+
+    private static void addIfComplete(List<Message> received, Message message) {
+        if (message != null) {
+            received.add(message);
+        }
+    }
+}
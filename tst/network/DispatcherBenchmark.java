@@ -0,0 +1,116 @@
+package network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of a dispatcher used by many threads at once. Every sender sends requests in turns to
+ * a few nodes that answer immediately and waits for every answer. From time to time it also sends a request to
+ * a node that does not exist, like a finger that left the ring, without waiting for it; those requests should not
+ * slow down the others.
+ *
+ * It is not a unit test; run it with the main method. The first argument is the number of requests sent by every
+ * thread (default 2000).
+ */
+public class DispatcherBenchmark {
+    private static final int FIRST_PORT = 10920;
+    private static final int NODES = 4;
+    // a non-routable address, the connection is never established
+    private static final NodeInfo DEAD_FINGER = new NodeInfo("10.255.255.1", 10999, 1000);
+    private static final int DEAD_FINGER_EVERY = 100;
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        List<Transport> servers = new ArrayList<>();
+        final List<NodeInfo> nodes = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            Transport server = new Transport();
+            server.listen(FIRST_PORT + i, new ConnectionHandler() {
+                @Override
+                public void messageReceived(Connection connection, Message message) {
+                    connection.sendMessage(message);
+                }
+
+                @Override
+                public void messageNotSent(Connection connection, Message message) {
+                }
+
+                @Override
+                public void connectionClosed(Connection connection) {
+                }
+            });
+            servers.add(server);
+            nodes.add(new NodeInfo("localhost", FIRST_PORT + i, i));
+        }
+
+        for (int threads = 1; threads <= 64; threads *= 4) {
+            Node node = new Node() {
+                {
+                    transport = new Transport();
+                }
+            };
+            Dispatcher dispatcher = new Dispatcher(node);
+            // open the connections before measuring
+            run(dispatcher, nodes, 1, 10);
+
+            long start = System.nanoTime();
+            long latency = run(dispatcher, nodes, threads, requests);
+            long elapsed = System.nanoTime() - start;
+
+            long total = (long) threads * requests;
+            System.out.printf("threads = %2d: %10.0f requests/s, average latency %8.1f us%n", threads,
+                    total / (elapsed / 1e9), latency / 1e3 / total);
+            dispatcher.close();
+            node.getTransport().close();
+        }
+
+        for (Transport server : servers) {
+            server.close();
+        }
+    }
+
+    /**
+     * @return the sum of the latencies, in nanoseconds
+     */
+    private static long run(final Dispatcher dispatcher, final List<NodeInfo> nodes, int threads, final int requests)
+            throws InterruptedException {
+        final CountDownLatch finished = new CountDownLatch(threads);
+        final AtomicLong latency = new AtomicLong();
+
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < requests; i++) {
+                            if (i % DEAD_FINGER_EVERY == 0) {
+                                dispatcher.sendMessage(new Message(MessageType.GET_SUCCESSOR, null), true, DEAD_FINGER, 1000);
+                            }
+
+                            NodeInfo destination = nodes.get((offset + i) % nodes.size());
+                            long start = System.nanoTime();
+                            CompletableFuture<Message> future = dispatcher.sendMessage(
+                                    new Message(MessageType.GET_SUCCESSOR, (long) i), true, destination);
+                            if (future.get().getType() == MessageType.RETRY) {
+                                throw new IllegalStateException("The node " + destination + " did not answer.");
+                            }
+                            latency.addAndGet(System.nanoTime() - start);
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        finished.await();
+        return latency.get();
+    }
+}
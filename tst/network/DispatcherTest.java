@@ -0,0 +1,120 @@
+package network;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class DispatcherTest {
+    private static final int PORT = 10910;
+
+    @Test
+    public void testDeadlineAndCancellation() throws Exception {
+        Transport server = new Transport();
+        // a node that reads the messages but never answers
+        server.listen(PORT, new IgnoringHandler());
+        Node node = createNode();
+        try {
+            Dispatcher dispatcher = new Dispatcher(node);
+            NodeInfo destination = new NodeInfo("localhost", PORT, 1);
+
+            CompletableFuture<Message> expiring = dispatcher.sendMessage(new Message(MessageType.GET_SUCCESSOR, null),
+                    true, destination, 200);
+            CompletableFuture<Message> cancelled = dispatcher.sendMessage(new Message(MessageType.GET_SUCCESSOR, null),
+                    true, destination, 60000);
+            assertEquals(2, dispatcher.getWaitingMessages());
+
+            assertTrue(cancelled.cancel(false));
+            assertEquals(MessageType.RETRY, expiring.get(5, TimeUnit.SECONDS).getType());
+            assertEquals(0, dispatcher.getWaitingMessages());
+        } finally {
+            node.getTransport().close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testAnswersCanBeComposed() throws Exception {
+        Transport server = new Transport();
+        server.listen(PORT + 1, new IgnoringHandler() {
+            @Override
+            public void messageReceived(Connection connection, Message message) {
+                message.setObject((Long) message.getObject() + 1);
+                connection.sendMessage(message);
+            }
+        });
+        Node node = createNode();
+        try {
+            final Dispatcher dispatcher = new Dispatcher(node);
+            final NodeInfo destination = new NodeInfo("localhost", PORT + 1, 1);
+
+            // two requests, the second one is sent from the answer of the first one
+            CompletableFuture<Message> second = dispatcher.sendMessage(new Message(MessageType.GET_SUCCESSOR, 1L),
+                    true, destination).thenCompose(new Function<Message, CompletableFuture<Message>>() {
+                @Override
+                public CompletableFuture<Message> apply(Message answer) {
+                    return dispatcher.sendMessage(new Message(MessageType.GET_SUCCESSOR, answer.getObject()),
+                            true, destination);
+                }
+            });
+
+            assertEquals(3L, second.get(5, TimeUnit.SECONDS).getObject());
+            assertEquals(0, dispatcher.getWaitingMessages());
+        } finally {
+            node.getTransport().close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testFailedMessageWithoutAnswerKeepsTheFutures() throws Exception {
+        Transport server = new Transport();
+        server.listen(PORT + 2, new IgnoringHandler());
+        Node node = createNode();
+        try {
+            Dispatcher dispatcher = new Dispatcher(node);
+            NodeInfo destination = new NodeInfo("localhost", PORT + 2, 1);
+
+            Message request = new Message(MessageType.GET_SUCCESSOR, null);
+            CompletableFuture<Message> waiting = dispatcher.sendMessage(request, true, destination, 60000);
+            assertTrue(request.getTag() != Dispatcher.NO_ANSWER_TAG);
+
+            // a broadcast that could not be sent does not complete the future of another message
+            dispatcher.handleMessageFailure(new Message(MessageType.NOTIFY_SUCCESSOR, null), destination);
+            dispatcher.handleMessageFailure(new Message(MessageType.BROADCAST_BLOCK, null, request.getTag()), destination);
+            assertFalse(waiting.isDone());
+
+            dispatcher.handleMessageFailure(request, destination);
+            assertEquals(MessageType.RETRY, waiting.get(5, TimeUnit.SECONDS).getType());
+        } finally {
+            node.getTransport().close();
+            server.close();
+        }
+    }
+
+    private static Node createNode() {
+        return new Node() {
+            {
+                transport = new Transport();
+            }
+        };
+    }
+
+    private static class IgnoringHandler implements ConnectionHandler {
+        @Override
+        public void messageReceived(Connection connection, Message message) {
+        }
+
+        @Override
+        public void messageNotSent(Connection connection, Message message) {
+        }
+
+        @Override
+        public void connectionClosed(Connection connection) {
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package network;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class FixFingersTaskTest {
+    private static final int NODES = 16;
+
+    @Test
+    public void testFingersAreFoundInOneRun() {
+        SimulatedRing ring = new SimulatedRing(NODES, new Random(1));
+        long id = ring.randomNode(new Random(2));
+        RingNode node = new RingNode(ring, id);
+        FixFingersTask task = new FixFingersTask(id, node);
+
+        // the node just joined and knows only its successor
+        task.run();
+        for (int i = 0; i < Node.LOG_NODES; i++) {
+            assertEquals(ring.getFingers(id).get(i), node.getFingerTable().get(i));
+        }
+        assertEquals(1, task.getBulkRefreshes());
+        // the first fingers fall before the successor and are not looked up
+        assertTrue(node.lookups < Node.LOG_NODES - 1);
+
+        // then one finger per run
+        int lookups = node.lookups;
+        task.run();
+        assertEquals(lookups + 1, node.lookups);
+        assertEquals(1, task.getBulkRefreshes());
+    }
+
+    @Test
+    public void testNewSuccessorRefreshesAllFingers() {
+        SimulatedRing ring = new SimulatedRing(NODES, new Random(3));
+        long id = ring.randomNode(new Random(4));
+        RingNode node = new RingNode(ring, id);
+        FixFingersTask task = new FixFingersTask(id, node);
+        task.run();
+        task.run();
+
+        // another node joined between the node and its successor
+        node.getFingerTable().set(0, new NodeInfo("localhost", 9999, (id + 1) % Node.NUMBER_OF_NODES));
+        task.run();
+        assertEquals(2, task.getBulkRefreshes());
+    }
+
+    @Test
+    public void testFailedLookupIsFilledByThePreviousFinger() {
+        SimulatedRing ring = new SimulatedRing(NODES, new Random(5));
+        Random random = new Random(6);
+        // a finger that is looked up and has the same successor as the finger after it
+        long id;
+        int index;
+        do {
+            id = ring.randomNode(random);
+            index = 1 + random.nextInt(Node.LOG_NODES - 2);
+        } while (ring.knowsSuccessor(id, fingerId(id, index)) ||
+                !ring.successorOf(fingerId(id, index)).equals(ring.successorOf(fingerId(id, index + 1))));
+
+        RingNode node = new RingNode(ring, id);
+        node.failedId = fingerId(id, index + 1);
+        FixFingersTask task = new FixFingersTask(id, node);
+        task.run();
+
+        assertEquals(ring.successorOf(node.failedId), node.getFingerTable().get(index + 1));
+        // the failure makes the next run come sooner
+        assertEquals(task.getMinIntervalMillis(), task.getIntervalMillis());
+    }
+
+    private static long fingerId(long id, int index) {
+        return (id + (1 << index)) % Node.NUMBER_OF_NODES;
+    }
+
+    /**
+     * A node of the simulated ring; the lookups are answered at once.
+     */
+    private static class RingNode extends Node {
+        private final SimulatedRing ring;
+        private int lookups;
+        private long failedId = -1;
+
+        RingNode(SimulatedRing ring, long id) {
+            this.ring = ring;
+            this.id = id;
+            this.ip = "localhost";
+            this.port = 10000 + (int) id;
+            this.networkLogger = Logger.getLogger("FixFingersTaskTest");
+            networkLogger.setLevel(Level.WARNING);
+            fingerTable = new FingerTable(ring.successorOf((id + 1) % NUMBER_OF_NODES), LOG_NODES);
+        }
+
+        @Override
+        public CompletableFuture<NodeInfo> findFingerSuccessor(long fingerId) {
+            lookups++;
+            return CompletableFuture.completedFuture(fingerId == failedId ? null : ring.successorOf(fingerId));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package network;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the iterative lookups with the recursive ones on a simulated ring. The latency is counted in one-way
+ * message delays: a recursive lookup forwards the request h times and the answer comes back on the same path,
+ * an iterative lookup waits for a round trip for every hop.
+ */
+public class IterativeLookupTest {
+    private static final int NODES = 256;
+    private static final int LOOKUPS = 2000;
+
+    @Test
+    public void testSuccessorIsFound() throws Exception {
+        SimulatedRing ring = new SimulatedRing(NODES, new Random(1));
+        for (int alpha = 1; alpha <= 3; alpha += 2) {
+            Random random = new Random(2);
+            long recursiveDelays = 0;
+            long iterativeDelays = 0;
+            long iterativeMessages = 0;
+
+            for (int i = 0; i < LOOKUPS; i++) {
+                long node = ring.randomNode(random);
+                long key = random.nextInt((int) Node.NUMBER_OF_NODES);
+                if (ring.knowsSuccessor(node, key)) {
+                    continue;
+                }
+
+                IterativeLookup lookup = createLookup(ring, key, alpha);
+                NodeInfo successor = lookup.start(ring.getFingers(node).closestPrecedingFingers(node, key,
+                        IterativeLookup.NEXT_HOPS)).get();
+
+                assertEquals(ring.successorOf(key), successor);
+                recursiveDelays += 2 * ring.recursiveHops(node, key);
+                iterativeDelays += 2 * lookup.getRounds();
+                iterativeMessages += 2 * lookup.getQueries();
+            }
+
+            System.out.printf("alpha = %d: recursive %.2f delays, iterative %.2f delays and %.2f messages per lookup%n",
+                    alpha, (double) recursiveDelays / LOOKUPS, (double) iterativeDelays / LOOKUPS,
+                    (double) iterativeMessages / LOOKUPS);
+            // the iterative lookup follows the same fingers; it needs one more round trip to ask the last node
+            assertTrue(iterativeDelays <= recursiveDelays + 2 * LOOKUPS);
+        }
+    }
+
+    @Test
+    public void testDeadNodesAreAvoided() throws Exception {
+        Random random = new Random(3);
+        SimulatedRing ring = new SimulatedRing(NODES, random);
+        // one node in ten leaves the ring before the others fix their fingers
+        for (int i = 0; i < NODES / 10; i++) {
+            ring.kill(ring.randomNode(random));
+        }
+
+        int recursiveFound = 0;
+        int iterativeFound = 0;
+        int lookups = 0;
+        while (lookups < LOOKUPS) {
+            long node = ring.randomNode(random);
+            long key = random.nextInt((int) Node.NUMBER_OF_NODES);
+            if (ring.isDead(node) || ring.knowsSuccessor(node, key)) {
+                continue;
+            }
+            lookups++;
+
+            if (ring.recursiveHops(node, key) >= 0) {
+                recursiveFound++;
+            }
+            IterativeLookup lookup = createLookup(ring, key, IterativeLookup.DEFAULT_ALPHA);
+            if (lookup.start(ring.getFingers(node).closestPrecedingFingers(node, key,
+                    IterativeLookup.NEXT_HOPS)).get() != null) {
+                iterativeFound++;
+            }
+        }
+
+        System.out.printf("With dead nodes: recursive %d%%, iterative %d%% of the lookups answered%n",
+                100 * recursiveFound / LOOKUPS, 100 * iterativeFound / LOOKUPS);
+        assertTrue(iterativeFound > recursiveFound);
+    }
+
+    private static IterativeLookup createLookup(final SimulatedRing ring, final long key, int alpha) {
+        return new IterativeLookup(null, key, alpha) {
+            @Override
+            protected CompletableFuture<Message> query(NodeInfo nodeInfo) {
+                return CompletableFuture.completedFuture(ring.answerNextHop(nodeInfo.getKey(), key));
+            }
+        };
+    }
+}
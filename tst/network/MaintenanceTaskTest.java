@@ -0,0 +1,87 @@
+package network;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class MaintenanceTaskTest {
+
+    @Test
+    public void testIntervalAdaptsToChanges() {
+        final AtomicBoolean changed = new AtomicBoolean();
+        MaintenanceTask task = new MaintenanceTask("test", 1000) {
+            @Override
+            protected CompletableFuture<Boolean> runOnce() {
+                return CompletableFuture.completedFuture(changed.get());
+            }
+        };
+        assertEquals(200, task.getMinIntervalMillis());
+        assertEquals(2000, task.getMaxIntervalMillis());
+
+        // a stable ring is checked less often, up to the maximum
+        task.run();
+        assertEquals(2000, task.getIntervalMillis());
+        task.run();
+        assertEquals(2000, task.getIntervalMillis());
+
+        // a change brings the interval to the minimum
+        changed.set(true);
+        task.run();
+        assertEquals(200, task.getIntervalMillis());
+        task.run();
+        assertEquals(200, task.getIntervalMillis());
+
+        changed.set(false);
+        task.run();
+        assertEquals(400, task.getIntervalMillis());
+
+        assertEquals(5, task.getRuns());
+        assertEquals(2, task.getChangedRuns());
+        assertEquals(0, task.getFailedRuns());
+    }
+
+    @Test
+    public void testFailedRunIsCounted() {
+        MaintenanceTask task = new MaintenanceTask("test", 1000) {
+            @Override
+            protected CompletableFuture<Boolean> runOnce() {
+                throw new IllegalStateException("The run fails.");
+            }
+        };
+        task.run();
+
+        assertEquals(1, task.getRuns());
+        assertEquals(1, task.getFailedRuns());
+    }
+
+    @Test
+    public void testRunsAreScheduledUntilStopped() throws Exception {
+        final CountDownLatch runs = new CountDownLatch(3);
+        final CompletableFuture<Boolean> answer = new CompletableFuture<>();
+        MaintenanceTask task = new MaintenanceTask("test", 50) {
+            @Override
+            protected CompletableFuture<Boolean> runOnce() {
+                runs.countDown();
+                // the first run waits for an answer, the next run is scheduled after it
+                return runs.getCount() == 2 ? answer : CompletableFuture.completedFuture(true);
+            }
+        };
+        task.start();
+
+        Thread.sleep(300);
+        assertEquals(2, runs.getCount());
+        assertEquals(0, task.getRuns());
+
+        answer.complete(false);
+        assertTrue(runs.await(5, TimeUnit.SECONDS));
+        task.stop();
+        // the first run started after about 50 ms
+        assertTrue(task.getMaxRunMillis() >= 200);
+        assertTrue(task.getAverageRunMillis() > 0);
+    }
+}
@@ -0,0 +1,67 @@
+package network;
+
+import currency.Block;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the binary codec with Java serialization: the size of the encoded messages and the time needed to
+ * encode and decode them. The messages are a Chord answer, a broadcast block and a batch of blocks, as sent
+ * during the chain synchronization.
+ *
+ * It is not a unit test; run it with the main method. The first argument is the number of iterations for every
+ * message (default 2000).
+ */
+public class MessageCodecBenchmark {
+    private static final int BATCH_SIZE = 50;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        Block block = BinaryMessageCodecTest.createBlock();
+        List<Block> batch = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(BinaryMessageCodecTest.createBlock());
+        }
+
+        Message[] messages = {
+                new Message(MessageType.SUCCESSOR_FOUND, new NodeInfo("localhost", 10003, 200), 1),
+                new Message(MessageType.BROADCAST_BLOCK, new BroadcastMessageWrapper(100, 99, block), 2),
+                new Message(MessageType.GET_BLOCKS, batch, 3)
+        };
+        String[] names = {"node info", "block", "50 blocks"};
+        MessageCodec[] codecs = {new JavaSerializationCodec(), new BinaryMessageCodec()};
+
+        for (int i = 0; i < messages.length; i++) {
+            for (MessageCodec codec : codecs) {
+                // the batch is much larger, so it is measured fewer times
+                int count = messages[i].getObject() instanceof List ? Math.max(1, iterations / BATCH_SIZE) : iterations;
+                measure(names[i], codec, messages[i], count);
+            }
+        }
+    }
+
+    private static void measure(String name, MessageCodec codec, Message message, int iterations) throws Exception {
+        byte[] data = codec.encode(message);
+        // warm up
+        for (int i = 0; i < iterations; i++) {
+            codec.decode(codec.encode(message), data.length);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            data = codec.encode(message);
+        }
+        long encodeTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            codec.decode(data, data.length);
+        }
+        long decodeTime = System.nanoTime() - start;
+
+        System.out.printf("%-10s %-24s %8d bytes, encode %10.1f us, decode %10.1f us%n", name,
+                codec.getClass().getSimpleName(), data.length, encodeTime / 1e3 / iterations, decodeTime / 1e3 / iterations);
+    }
+}
@@ -0,0 +1,119 @@
+package network;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+public class MessageHandlerExecutorTest {
+    @Test
+    public void testThreadPoolLimit() throws InterruptedException {
+        MessageHandlerExecutor executor = new MessageHandlerExecutor(MessageHandlerExecutor.Mode.THREAD_POOL, 2);
+        assertEquals(MessageHandlerExecutor.Mode.THREAD_POOL, executor.getMode());
+        checkLimit(executor);
+    }
+
+    @Test
+    public void testVirtualThreadsLimit() throws InterruptedException {
+        assumeTrue("The runtime does not have virtual threads.", hasVirtualThreads());
+        MessageHandlerExecutor executor = new MessageHandlerExecutor(MessageHandlerExecutor.Mode.VIRTUAL_THREADS, 2);
+        assertEquals(MessageHandlerExecutor.Mode.VIRTUAL_THREADS, executor.getMode());
+        checkLimit(executor);
+    }
+
+    @Test
+    public void testFallbackToThreadPool() throws InterruptedException {
+        assumeFalse("The runtime has virtual threads.", hasVirtualThreads());
+        MessageHandlerExecutor executor = new MessageHandlerExecutor(MessageHandlerExecutor.Mode.VIRTUAL_THREADS, 2);
+        assertEquals(MessageHandlerExecutor.Mode.THREAD_POOL, executor.getMode());
+        checkLimit(executor);
+    }
+
+    @Test
+    public void testThreadPoolQueueIsBounded() throws InterruptedException {
+        MessageHandlerExecutor executor = new MessageHandlerExecutor(MessageHandlerExecutor.Mode.THREAD_POOL, 2, 3);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(5);
+
+        // two handlers run, three wait and the others are refused
+        for (int i = 0; i < 7; i++) {
+            assertEquals(i < 5, executor.execute(blockingHandler(release, finished, new AtomicInteger(),
+                    new AtomicInteger())));
+        }
+        assertEquals(2, executor.getRejectedHandlers());
+        assertEquals(5, executor.getSubmittedHandlers());
+
+        release.countDown();
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    private void checkLimit(MessageHandlerExecutor executor) throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(10);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        for (int i = 0; i < 10; i++) {
+            executor.execute(blockingHandler(release, finished, running, maxRunning));
+        }
+
+        Thread.sleep(200);
+        assertEquals(2, executor.getRunningHandlers());
+        assertEquals(8, executor.getWaitingHandlers());
+
+        release.countDown();
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals(2, maxRunning.get());
+        assertEquals(10, executor.getSubmittedHandlers());
+        assertEquals(0, executor.getRejectedHandlers());
+        assertTrue(executor.getMaxQueueMillis() >= executor.getAverageQueueMillis());
+        assertTrue(executor.getMaxRunMillis() > 0);
+    }
+
+    /**
+     * Like a handler that waits for the answer of another node.
+     */
+    private static Runnable blockingHandler(final CountDownLatch release, final CountDownLatch finished,
+                                            final AtomicInteger running, final AtomicInteger maxRunning) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                int now = running.incrementAndGet();
+                if (now > maxRunning.get()) {
+                    maxRunning.set(now);
+                }
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                running.decrementAndGet();
+                finished.countDown();
+            }
+        };
+    }
+
+    /**
+     * The same check as MessageHandlerExecutor, which falls back to the thread pool when it fails.
+     */
+    private static boolean hasVirtualThreads() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            executor.shutdown();
+            return true;
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+}
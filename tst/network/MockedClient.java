@@ -1,9 +1,12 @@
 package network;
 
 import currency.Block;
+import currency.BlockStore;
 import currency.Client;
 import currency.Transaction;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -40,6 +43,16 @@ public class MockedClient extends Client {
         transactionsLogger = Logger.getLogger("transactions-" + id);
     }
 
+    @Override
+    protected void initBlockStore() {
+        // every test starts with an empty store
+        try {
+            blockStore = new BlockStore(Files.createTempDirectory("blocks-" + id).toFile());
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot open the block store.", e);
+        }
+    }
+
     @Override
     protected void storeReceivedTransaction(Transaction transaction) {
         receivedTransactions.add(transaction);
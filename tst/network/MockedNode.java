@@ -24,7 +24,7 @@ public class MockedNode extends Node {
 
         this.client = client;
 
-        fingerTable = new ArrayList<>(LOG_NODES);
+        transport = new Transport();
         dispatcher = new Dispatcher(this);
         receivedBroadcastMessages = new ArrayList<>();
 
@@ -44,11 +44,7 @@ public class MockedNode extends Node {
             dispatcher.sendMessage(new Message(MessageType.NOTIFY_SUCCESSOR, getNodeInfo()), false, successor);
         }
 
-        fingerTable.add(successor);
-        // fill the fingertable
-        for (int i = 1; i < LOG_NODES; i++) {
-            fingerTable.add(new NodeInfo("localhost", -1, -1));
-        }
+        fingerTable = new FingerTable(successor, LOG_NODES);
 
         startChordThreads(port);
     }
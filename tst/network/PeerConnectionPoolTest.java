@@ -0,0 +1,147 @@
+package network;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * The maintenance of the pools is stopped and called by the tests with a time in the future.
+ */
+public class PeerConnectionPoolTest {
+    private static final int PORT = 10930;
+
+    @Test
+    public void testCircuitOpensAndRecovers() throws Exception {
+        Node node = createNode();
+        Transport server = new Transport();
+        try {
+            Dispatcher dispatcher = new Dispatcher(node);
+            PeerConnectionPool pool = dispatcher.getConnectionPool();
+            pool.stop();
+            NodeInfo destination = new NodeInfo("localhost", PORT, 1);
+
+            // nobody listens on the port
+            CompletableFuture<Message> refused = dispatcher.sendMessage(new Message(MessageType.GET_SUCCESSOR, null),
+                    true, destination);
+            assertEquals(MessageType.RETRY, refused.get(5, TimeUnit.SECONDS).getType());
+            assertEquals(PeerConnectionPool.State.OPEN, pool.getState(destination));
+
+            // the next message does not try to connect
+            CompletableFuture<Message> failedFast = dispatcher.sendMessage(
+                    new Message(MessageType.GET_SUCCESSOR, null), true, destination);
+            assertTrue(failedFast.isDone());
+            assertEquals(MessageType.RETRY, failedFast.get().getType());
+
+            server.listen(PORT, new EchoHandler());
+            pool.maintain(System.currentTimeMillis() + 2 * PeerConnectionPool.MAX_BACKOFF_MILLIS);
+            waitForState(pool, destination, PeerConnectionPool.State.CLOSED);
+
+            CompletableFuture<Message> answered = dispatcher.sendMessage(new Message(MessageType.GET_SUCCESSOR, 7L),
+                    true, destination);
+            assertEquals(7L, answered.get(5, TimeUnit.SECONDS).getObject());
+        } finally {
+            node.getTransport().close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testIdleConnectionIsClosed() throws Exception {
+        Node node = createNode();
+        Transport server = new Transport();
+        final CountDownLatch closed = new CountDownLatch(1);
+        server.listen(PORT + 1, new EchoHandler() {
+            @Override
+            public void connectionClosed(Connection connection) {
+                closed.countDown();
+            }
+        });
+        try {
+            Dispatcher dispatcher = new Dispatcher(node);
+            PeerConnectionPool pool = dispatcher.getConnectionPool();
+            pool.stop();
+            NodeInfo destination = new NodeInfo("localhost", PORT + 1, 1);
+
+            assertEquals(1L, dispatcher.sendMessage(new Message(MessageType.GET_SUCCESSOR, 1L), true, destination)
+                    .get(5, TimeUnit.SECONDS).getObject());
+
+            pool.maintain(System.currentTimeMillis() + PeerConnectionPool.IDLE_TIMEOUT_MILLIS);
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+            // closing an idle connection is not a failure
+            assertEquals(PeerConnectionPool.State.CLOSED, pool.getState(destination));
+
+            assertEquals(2L, dispatcher.sendMessage(new Message(MessageType.GET_SUCCESSOR, 2L), true, destination)
+                    .get(5, TimeUnit.SECONDS).getObject());
+        } finally {
+            node.getTransport().close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testSilentPeerIsFound() throws Exception {
+        Node node = createNode();
+        Transport server = new Transport();
+        // a node that keeps the connection open but does not answer anything
+        server.listen(PORT + 2, new EchoHandler() {
+            @Override
+            public void messageReceived(Connection connection, Message message) {
+            }
+        });
+        try {
+            Dispatcher dispatcher = new Dispatcher(node);
+            PeerConnectionPool pool = dispatcher.getConnectionPool();
+            pool.stop();
+            NodeInfo destination = new NodeInfo("localhost", PORT + 2, 1);
+
+            // opens the connection without waiting for an answer
+            long start = System.currentTimeMillis();
+            dispatcher.sendMessage(new Message(MessageType.BROADCAST_MESSAGE, null), false, destination);
+            // the broadcasts keep the connection active, but nothing is received
+            Thread.sleep(300);
+            dispatcher.sendMessage(new Message(MessageType.BROADCAST_MESSAGE, "later"), false, destination);
+
+            pool.maintain(start + PeerConnectionPool.PING_INTERVAL_MILLIS + 150);
+            waitForState(pool, destination, PeerConnectionPool.State.OPEN);
+        } finally {
+            node.getTransport().close();
+            server.close();
+        }
+    }
+
+    private static void waitForState(PeerConnectionPool pool, NodeInfo nodeInfo, PeerConnectionPool.State state)
+            throws InterruptedException {
+        long end = System.currentTimeMillis() + 2 * PeerConnectionPool.PING_TIMEOUT_MILLIS;
+        while (pool.getState(nodeInfo) != state && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
+        assertEquals(state, pool.getState(nodeInfo));
+    }
+
+    private static Node createNode() {
+        return new Node() {
+            {
+                transport = new Transport();
+            }
+        };
+    }
+
+    private static class EchoHandler implements ConnectionHandler {
+        @Override
+        public void messageReceived(Connection connection, Message message) {
+            connection.sendMessage(message);
+        }
+
+        @Override
+        public void messageNotSent(Connection connection, Message message) {
+        }
+
+        @Override
+        public void connectionClosed(Connection connection) {
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package network;
+
+import java.util.*;
+
+/**
+ * A Chord ring in memory, with the finger tables that FixFingersTask builds when the ring is stable:
+ * finger i of a node is the successor of (id + 2 ^ i) and finger 0 is its successor. The nodes answer the
+ * lookups like SocketListenerMessageHandlingThread, without sending messages.
+ */
+public class SimulatedRing {
+    private final long[] ids;
+    private final Map<Long, FingerTable.Snapshot> fingerTables = new HashMap<>();
+    private final Set<Long> deadNodes = new HashSet<>();
+
+    public SimulatedRing(int size, Random random) {
+        Set<Long> sortedIds = new TreeSet<>();
+        while (sortedIds.size() < size) {
+            sortedIds.add((long) random.nextInt((int) Node.NUMBER_OF_NODES));
+        }
+        ids = new long[size];
+        int i = 0;
+        for (long id : sortedIds) {
+            ids[i++] = id;
+        }
+
+        for (long id : ids) {
+            List<NodeInfo> fingers = new ArrayList<>();
+            fingers.add(successorOf((id + 1) % Node.NUMBER_OF_NODES));
+            for (int index = 1; index < Node.LOG_NODES; index++) {
+                fingers.add(successorOf((id + (1 << index)) % Node.NUMBER_OF_NODES));
+            }
+            fingerTables.put(id, new FingerTable.Snapshot(fingers));
+        }
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public long randomNode(Random random) {
+        return ids[random.nextInt(ids.length)];
+    }
+
+    public FingerTable.Snapshot getFingers(long node) {
+        return fingerTables.get(node);
+    }
+
+    /**
+     * The node stops answering, but the others still have it in their finger tables.
+     */
+    public void kill(long node) {
+        deadNodes.add(node);
+    }
+
+    public boolean isDead(long node) {
+        return deadNodes.contains(node);
+    }
+
+    /**
+     * @return the first node whose id is greater or equal than the key, going around the ring
+     */
+    public NodeInfo successorOf(long key) {
+        int index = Arrays.binarySearch(ids, key);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        long id = ids[index % ids.length];
+        return new NodeInfo("localhost", 10000 + (int) id, id);
+    }
+
+    /**
+     * @return true if the node knows the successor of the key without asking another node
+     */
+    public boolean knowsSuccessor(long node, long key) {
+        return key == node || SocketListener.belongsToIntervalForBroadcast(key, node, getFingers(node).getKey(0));
+    }
+
+    /**
+     * A recursive lookup: the request is forwarded to the closest preceding finger until a node knows the
+     * successor, then the answer travels back on the same path.
+     *
+     * @return the number of times the request is forwarded or -1 if it reached a dead node
+     */
+    public int recursiveHops(long node, long key) {
+        int hops = 0;
+        while (!knowsSuccessor(node, key)) {
+            FingerTable.Snapshot fingers = getFingers(node);
+            node = fingers.getKey(fingers.closestPrecedingFinger(node, key));
+            hops++;
+            if (isDead(node)) {
+                return -1;
+            }
+            if (hops > ids.length) {
+                throw new IllegalStateException("The lookup does not stop.");
+            }
+        }
+        return hops;
+    }
+
+    /**
+     * @return the answer of the node to FIND_NEXT_HOP or RETRY if the node is dead
+     */
+    public Message answerNextHop(long node, long key) {
+        if (isDead(node)) {
+            return new Message(MessageType.RETRY, null);
+        }
+        if (key == node) {
+            return new Message(MessageType.SUCCESSOR_FOUND, successorOf(node));
+        }
+        FingerTable.Snapshot fingers = getFingers(node);
+        if (knowsSuccessor(node, key)) {
+            return new Message(MessageType.SUCCESSOR_FOUND, fingers.get(0));
+        }
+        return new Message(MessageType.NEXT_HOPS, fingers.closestPrecedingFingers(node, key, IterativeLookup.NEXT_HOPS));
+    }
+}
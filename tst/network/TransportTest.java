@@ -0,0 +1,174 @@
+package network;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TransportTest {
+    private static final int PORT = 10900;
+
+    @Test
+    public void testMessagesAreAnswered() throws IOException, InterruptedException {
+        Transport server = new Transport();
+        Transport client = new Transport();
+        try {
+            // the server sends every message back
+            server.listen(PORT, new ConnectionHandler() {
+                @Override
+                public void messageReceived(Connection connection, Message message) {
+                    connection.sendMessage(message);
+                }
+
+                @Override
+                public void messageNotSent(Connection connection, Message message) {
+                }
+
+                @Override
+                public void connectionClosed(Connection connection) {
+                }
+            });
+
+            final BlockingQueue<Message> answers = new LinkedBlockingQueue<>();
+            Connection connection = client.connect(new NodeInfo("localhost", PORT, 1), new ConnectionHandler() {
+                @Override
+                public void messageReceived(Connection connection, Message message) {
+                    answers.add(message);
+                }
+
+                @Override
+                public void messageNotSent(Connection connection, Message message) {
+                }
+
+                @Override
+                public void connectionClosed(Connection connection) {
+                }
+            });
+
+            char[] characters = new char[3 * OutgoingTransfer.CHUNK_SIZE + 5];
+            Arrays.fill(characters, 'a');
+            characters[characters.length - 1] = 'b';
+            String large = new String(characters);
+            connection.sendMessage(new Message(MessageType.GET_BLOCKS, large, 1));
+            for (long i = 0; i < 100; i++) {
+                connection.sendMessage(new Message(MessageType.GET_SUCCESSOR, i, (int) i + 2));
+            }
+
+            long sum = 0;
+            String received = null;
+            for (int i = 0; i < 101; i++) {
+                Message answer = answers.poll(10, TimeUnit.SECONDS);
+                assertNotNull(answer);
+                if (answer.getType() == MessageType.GET_BLOCKS) {
+                    received = (String) answer.getObject();
+                } else {
+                    sum += (Long) answer.getObject();
+                }
+            }
+            assertEquals(99 * 100 / 2, sum);
+            assertEquals(large, received);
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testFailedConnectionIsClosed() throws IOException, InterruptedException {
+        Transport client = new Transport();
+        final CountDownLatch closed = new CountDownLatch(1);
+        try {
+            // nobody listens on this port
+            Connection connection = client.connect(new NodeInfo("localhost", PORT + 1, 1), new ConnectionHandler() {
+                @Override
+                public void messageReceived(Connection connection, Message message) {
+                }
+
+                @Override
+                public void messageNotSent(Connection connection, Message message) {
+                }
+
+                @Override
+                public void connectionClosed(Connection connection) {
+                    closed.countDown();
+                }
+            });
+            connection.sendMessage(new Message(MessageType.GET_SUCCESSOR, null, 1));
+
+            assertTrue(closed.await(10, TimeUnit.SECONDS));
+            assertTrue(connection.isClosed());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testQueueIsBounded() throws IOException {
+        final List<Message> notSent = new ArrayList<>();
+        // the I/O thread never runs, so the messages stay in the queue
+        Connection connection = new Connection(SocketChannel.open(), new NodeInfo("localhost", 10999, 1),
+                new ConnectionHandler() {
+                    @Override
+                    public void messageReceived(Connection connection, Message message) {
+                    }
+
+                    @Override
+                    public void messageNotSent(Connection connection, Message message) {
+                        notSent.add(message);
+                    }
+
+                    @Override
+                    public void connectionClosed(Connection connection) {
+                    }
+                }, new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                    }
+                }, null, null, new BinaryMessageCodec(), 2, 3, 2);
+
+        // the control lane is full after two messages
+        Message rejected = new Message(MessageType.GET_SUCCESSOR, null, 3);
+        connection.sendMessage(new Message(MessageType.GET_SUCCESSOR, null, 1));
+        connection.sendMessage(new Message(MessageType.GET_SUCCESSOR, null, 2));
+        connection.sendMessage(rejected);
+
+        // the same broadcast is queued once and the oldest broadcast makes room for the new ones
+        Message oldest = createBroadcast("first");
+        connection.sendMessage(oldest);
+        connection.sendMessage(createBroadcast("first"));
+        connection.sendMessage(createBroadcast("second"));
+        connection.sendMessage(createBroadcast("third"));
+
+        // the blocks have their own lane, so they do not make room for the other broadcasts
+        List<Message> blocks = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            blocks.add(new Message(MessageType.BROADCAST_BLOCK, new BroadcastMessageWrapper(1, 2, "block " + i)));
+            connection.sendMessage(blocks.get(i));
+        }
+
+        assertEquals(4, notSent.size());
+        assertSame(rejected, notSent.get(0));
+        assertSame(oldest, notSent.get(1));
+        // the oldest blocks are dropped
+        assertSame(blocks.get(0), notSent.get(2));
+        assertSame(blocks.get(1), notSent.get(3));
+        assertEquals(7, connection.getQueuedMessages());
+        assertEquals(4, connection.getDroppedMessages());
+        assertEquals(1, connection.getCoalescedMessages());
+        connection.closeNow();
+    }
+
+    private static Message createBroadcast(String text) {
+        return new Message(MessageType.BROADCAST_MESSAGE, new BroadcastMessageWrapper(1, 2, text));
+    }
+}